@@ -16,8 +16,10 @@
  */
 package com.energysys.connector;
 
+import com.energysys.connector.config.ConnectorConfig;
 import com.energysys.connector.schedulers.quartz.AbstractJobController;
 import com.energysys.connector.schedulers.quartz.RemoteQueryExecution;
+import com.energysys.connector.schedulers.quartz.RetryPolicy;
 import java.util.Date;
 
 /**
@@ -47,6 +49,17 @@ public interface IJobExecuter
    */
   Boolean supportsReRuns();
 
+  /**
+   * Returns how this Job Executor is retried when a scheduled run fails. By default, as the connector configuration
+   * says.
+   * @param aConfig the connector configuration, holding the default retry settings
+   * @return the retry policy
+   */
+  default RetryPolicy getRetryPolicy(ConnectorConfig aConfig)
+  {
+    return RetryPolicy.fromConnectorConfig(aConfig);
+  }
+
   /**
    * Validate a remote Query Execution.
    * @param aRequestName
@@ -43,12 +43,26 @@ public final class ConnectorConfig
     private static final String PROPERTY_CONNECTOR_TIMEZONE = "connector_timezone";
     private static final String PROPERTY_JOB_MAX_RETRIES = "job_max_retries";
     private static final String PROPERTY_JOB_REPEAT_INTERVAL = "job_repeat_interval";
+    private static final String PROPERTY_JOB_RETRY_MAX_INTERVAL = "job_retry_max_interval";
     private static final String PROPERTY_HTTPS_PROXY_HOST = "https_proxy_host";
     private static final String PROPERTY_HTTP_PROXY_PORT = "http_proxy_port";
     private static final String PROPERTY_HTTPS_PROXY_PORT = "https_proxy_port";
     private static final String PROPERTY_HTTP_READ_TIMEOUT = "http_read_timeout";
     private static final String PROPERTY_HTTP_CONNECTION_TIMEOUT = "http_connection_timeout";
     private static final String PROPERTY_HTTP_CONNECTION_TRUSTING = "http_connection_trusting";
+    private static final String PROPERTY_FILE_TRANSFER_WORKERS = "file_transfer_workers";
+    private static final String PROPERTY_FILE_TRANSFER_MAX_IN_FLIGHT = "file_transfer_max_in_flight";
+    private static final String PROPERTY_LOCAL_CHANGE_FEED = "local_change_feed";
+    private static final String PROPERTY_LOCAL_CHANGE_FEED_RESCAN_MINUTES = "local_change_feed_rescan_minutes";
+    private static final String PROPERTY_CONTENT_DIGEST = "content_digest";
+    private static final String PROPERTY_S3_MAX_BYTES_PER_SECOND = "s3_max_bytes_per_second";
+    private static final String PROPERTY_S3_MAX_REQUESTS_PER_SECOND = "s3_max_requests_per_second";
+    private static final String PROPERTY_JOB_LANE_FILE_SYNC_WORKERS = "job_lane_file_sync_workers";
+    private static final String PROPERTY_JOB_LANE_DATA_QUERY_WORKERS = "job_lane_data_query_workers";
+    private static final String PROPERTY_JOB_LANE_REMOTE_WORKERS = "job_lane_remote_workers";
+    private static final String PROPERTY_JOB_LANE_CONTROL_WORKERS = "job_lane_control_workers";
+    private static final String PROPERTY_SCHEDULER_PERSISTENT = "scheduler_persistent";
+    private static final String PROPERTY_SCHEDULER_MISFIRE_POLICY = "scheduler_misfire_policy";
 
     /**
      * DEFAULT VALUES FOR PROPERTIES.
@@ -60,10 +74,24 @@ public final class ConnectorConfig
     private static final String DEFAULT_CONNECTOR_TIMEZONE = TimeZone.getDefault().getID();
     private static final String DEFAULT_JOB_MAX_RETRIES = "5";
     private static final String DEFAULT_JOB_REPEAT_INTERVAL = "120";
+    private static final String DEFAULT_JOB_RETRY_MAX_INTERVAL = "1800";
     private static final String DEFAULT_HTTP_READ_TIMEOUT = "300000";
     private static final String DEFAULT_HTTP_CONNECTION_TIMEOUT = "300000";
 
     private static final String DEFAULT_HTTP_CONNECTION_TRUSTING = "true";
+    private static final String DEFAULT_FILE_TRANSFER_WORKERS = "4";
+    private static final String DEFAULT_FILE_TRANSFER_MAX_IN_FLIGHT = "4";
+    private static final String DEFAULT_LOCAL_CHANGE_FEED = "false";
+    private static final String DEFAULT_LOCAL_CHANGE_FEED_RESCAN_MINUTES = "60";
+    private static final String DEFAULT_CONTENT_DIGEST = "false";
+    private static final String DEFAULT_S3_MAX_BYTES_PER_SECOND = "0";
+    private static final String DEFAULT_S3_MAX_REQUESTS_PER_SECOND = "0";
+    private static final String DEFAULT_JOB_LANE_FILE_SYNC_WORKERS = "2";
+    private static final String DEFAULT_JOB_LANE_DATA_QUERY_WORKERS = "2";
+    private static final String DEFAULT_JOB_LANE_REMOTE_WORKERS = "2";
+    private static final String DEFAULT_JOB_LANE_CONTROL_WORKERS = "1";
+    private static final String DEFAULT_SCHEDULER_PERSISTENT = "false";
+    private static final String DEFAULT_SCHEDULER_MISFIRE_POLICY = "CATCH_UP_ALL";
 
     /**
      * Bean fields.
@@ -78,6 +106,8 @@ public final class ConnectorConfig
 
     private final Integer jobRepeatInterval;
 
+    private final Integer jobRetryMaxInterval;
+
     private final String httpsProxyHost;
 
     private final Integer httpsProxyPort;
@@ -88,6 +118,32 @@ public final class ConnectorConfig
 
     private Boolean isHttpConnectionTrusting;
 
+    private final Integer fileTransferWorkers;
+
+    private final Integer fileTransferMaxInFlight;
+
+    private final Boolean isLocalChangeFeed;
+
+    private final Integer localChangeFeedRescanMinutes;
+
+    private final Boolean isContentDigest;
+
+    private final Long s3MaxBytesPerSecond;
+
+    private final Long s3MaxRequestsPerSecond;
+
+    private final Integer jobLaneFileSyncWorkers;
+
+    private final Integer jobLaneDataQueryWorkers;
+
+    private final Integer jobLaneRemoteWorkers;
+
+    private final Integer jobLaneControlWorkers;
+
+    private final Boolean isSchedulerPersistent;
+
+    private final String schedulerMisfirePolicy;
+
 
     /**
      * Default constructor.
@@ -120,6 +176,10 @@ public final class ConnectorConfig
                     Integer.parseInt(myProps.getProperty(PROPERTY_JOB_REPEAT_INTERVAL,
                             DEFAULT_JOB_REPEAT_INTERVAL));
 
+            jobRetryMaxInterval =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_JOB_RETRY_MAX_INTERVAL,
+                            DEFAULT_JOB_RETRY_MAX_INTERVAL));
+
             httpsProxyHost =
                     myProps.getProperty(PROPERTY_HTTPS_PROXY_HOST);
 
@@ -137,6 +197,58 @@ public final class ConnectorConfig
             isHttpConnectionTrusting =
                 Boolean.parseBoolean(
                     myProps.getProperty(PROPERTY_HTTP_CONNECTION_TRUSTING, DEFAULT_HTTP_CONNECTION_TRUSTING));
+
+            fileTransferWorkers =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_FILE_TRANSFER_WORKERS,
+                            DEFAULT_FILE_TRANSFER_WORKERS));
+
+            fileTransferMaxInFlight =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_FILE_TRANSFER_MAX_IN_FLIGHT,
+                            DEFAULT_FILE_TRANSFER_MAX_IN_FLIGHT));
+
+            isLocalChangeFeed =
+                Boolean.parseBoolean(
+                    myProps.getProperty(PROPERTY_LOCAL_CHANGE_FEED, DEFAULT_LOCAL_CHANGE_FEED));
+
+            localChangeFeedRescanMinutes =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_LOCAL_CHANGE_FEED_RESCAN_MINUTES,
+                            DEFAULT_LOCAL_CHANGE_FEED_RESCAN_MINUTES));
+
+            isContentDigest =
+                Boolean.parseBoolean(
+                    myProps.getProperty(PROPERTY_CONTENT_DIGEST, DEFAULT_CONTENT_DIGEST));
+
+            s3MaxBytesPerSecond =
+                    Long.parseLong(myProps.getProperty(PROPERTY_S3_MAX_BYTES_PER_SECOND,
+                            DEFAULT_S3_MAX_BYTES_PER_SECOND));
+
+            s3MaxRequestsPerSecond =
+                    Long.parseLong(myProps.getProperty(PROPERTY_S3_MAX_REQUESTS_PER_SECOND,
+                            DEFAULT_S3_MAX_REQUESTS_PER_SECOND));
+
+            jobLaneFileSyncWorkers =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_JOB_LANE_FILE_SYNC_WORKERS,
+                            DEFAULT_JOB_LANE_FILE_SYNC_WORKERS));
+
+            jobLaneDataQueryWorkers =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_JOB_LANE_DATA_QUERY_WORKERS,
+                            DEFAULT_JOB_LANE_DATA_QUERY_WORKERS));
+
+            jobLaneRemoteWorkers =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_JOB_LANE_REMOTE_WORKERS,
+                            DEFAULT_JOB_LANE_REMOTE_WORKERS));
+
+            jobLaneControlWorkers =
+                    Integer.parseInt(myProps.getProperty(PROPERTY_JOB_LANE_CONTROL_WORKERS,
+                            DEFAULT_JOB_LANE_CONTROL_WORKERS));
+
+            isSchedulerPersistent =
+                Boolean.parseBoolean(
+                    myProps.getProperty(PROPERTY_SCHEDULER_PERSISTENT, DEFAULT_SCHEDULER_PERSISTENT));
+
+            schedulerMisfirePolicy =
+                    myProps.getProperty(PROPERTY_SCHEDULER_MISFIRE_POLICY,
+                            DEFAULT_SCHEDULER_MISFIRE_POLICY);
         }
         catch (IOException ex)
         {
@@ -169,6 +281,11 @@ public final class ConnectorConfig
         return jobRepeatInterval;
     }
 
+    public Integer getJobRetryMaxInterval()
+    {
+        return jobRetryMaxInterval;
+    }
+
     public String getHttpsProxyHost()
     {
         return httpsProxyHost;
@@ -193,6 +310,72 @@ public final class ConnectorConfig
     {
         return isHttpConnectionTrusting;
     }
+
+    public Integer getFileTransferWorkers()
+    {
+        return fileTransferWorkers;
+    }
+
+    public Integer getFileTransferMaxInFlight()
+    {
+        return fileTransferMaxInFlight;
+    }
+
+    public Boolean isLocalChangeFeed()
+    {
+        return isLocalChangeFeed;
+    }
+
+    public Integer getLocalChangeFeedRescanMinutes()
+    {
+        return localChangeFeedRescanMinutes;
+    }
+
+    public Boolean isContentDigest()
+    {
+        return isContentDigest;
+    }
+
+    public Long getS3MaxBytesPerSecond()
+    {
+        return s3MaxBytesPerSecond;
+    }
+
+    public Long getS3MaxRequestsPerSecond()
+    {
+        return s3MaxRequestsPerSecond;
+    }
+
+    public Integer getJobLaneFileSyncWorkers()
+    {
+        return jobLaneFileSyncWorkers;
+    }
+
+    public Integer getJobLaneDataQueryWorkers()
+    {
+        return jobLaneDataQueryWorkers;
+    }
+
+    public Integer getJobLaneRemoteWorkers()
+    {
+        return jobLaneRemoteWorkers;
+    }
+
+    public Integer getJobLaneControlWorkers()
+    {
+        return jobLaneControlWorkers;
+    }
+
+    public Boolean isSchedulerPersistent()
+    {
+        return isSchedulerPersistent;
+    }
+
+    public String getSchedulerMisfirePolicy()
+    {
+        return schedulerMisfirePolicy;
+    }
+
     /**
      * Load the configuration from the keystore.
      * @return ConnectorConfig
@@ -28,18 +28,16 @@ import com.energysys.connector.IJobExecuter;
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.connector.connectors.dataconnector.config.TagListQueryConfiguration;
 import com.energysys.connector.connectors.fileconnector.CredentialsBackedS3FileSourceConfig;
+import com.energysys.connector.connectors.fileconnector.S3FanOutDispatcher;
 import com.energysys.connector.database.GenericDAO;
 import com.energysys.connector.schedulers.quartz.AbstractJobController;
 import com.energysys.connector.schedulers.quartz.RemoteQueryExecution;
 import com.energysys.connector.util.spreadsheet.smartxls.SmartXLSSpreadsheet;
-import com.energysys.filesource.ConnectionStatus;
-import com.energysys.filesource.exception.FileSourceException;
-import com.energysys.filesource.s3.S3FileSource;
-import com.energysys.filesource.s3.S3FileSourceFile;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -59,7 +57,6 @@ public class TagListQueryExecutor implements IJobExecuter
 
     private static final String ERROR_MESSAGE_NO_SPREADSHEET = "No spreadsheet could be found for dispatch.";
 
-    private static final long S3_CONNETION_TIMEOUT = 5 * 1000 * 60;
     private static final String NEW_LINE = "\n";
 
     private final TagListManager tagListManager;
@@ -134,8 +131,13 @@ public class TagListQueryExecutor implements IJobExecuter
         // EnergySys or not.
         Boolean myTagListWasRefreshed = myManager.refreshTagLists();
 
-        TagListQueryResult myTagListQueryResult =
-                executeAndDispatch(aJobName, aTagListQuery, isPreview, aTargetRunTime);
+        TagListQueryResult myTagListQueryResult = executeQuery(aTagListQuery, aTargetRunTime);
+        S3FanOutDispatcher.DispatchResult myDispatchResult = null;
+        if (!isPreview)
+        {
+            //Dispatch data to Esys process
+            myDispatchResult = dispatchToS3(aJobName, myTagListQueryResult);
+        }
 
         Notification myNotification = myTagListQueryResult.getNotification();
         StringBuilder myMessageBuff = new StringBuilder("Process Completed");
@@ -147,8 +149,13 @@ public class TagListQueryExecutor implements IJobExecuter
             myDetailedMessageBuff.append(myTagListQueryResult.getResultsFile().getAbsoluteFile());
             myDetailedMessageBuff.append(NEW_LINE);
         }
+        if (myDispatchResult != null)
+        {
+            myDetailedMessageBuff.append(myDispatchResult.getDetail());
+        }
+        boolean isPartlyDispatched = myDispatchResult != null && !myDispatchResult.isAllSucceeded();
         EventResult.Result myEventResult;
-        if (myNotification.hasWarningMessage() || !myTagListWasRefreshed)
+        if (myNotification.hasWarningMessage() || !myTagListWasRefreshed || isPartlyDispatched)
         {
             myMessageBuff.append(" With Warnings");
             myDetailedMessageBuff.append("Had Warnings: ");
@@ -156,6 +163,11 @@ public class TagListQueryExecutor implements IJobExecuter
             {
                 myDetailedMessageBuff.append("Tag List was not refreshed. Previous tag list used.\n");
             }
+            if (isPartlyDispatched)
+            {
+                myDetailedMessageBuff.append("Results file not uploaded to every destination. ");
+                myDetailedMessageBuff.append(myDispatchResult.getSummary()).append(NEW_LINE);
+            }
             if (myNotification.hasWarningMessage())
             {
                 myDetailedMessageBuff.append(myNotification.getWarningMessage());
@@ -176,10 +188,8 @@ public class TagListQueryExecutor implements IJobExecuter
                 myMessageBuff.toString(), myDetailedMessageBuff.toString(), myStartTime);
     }
 
-    private TagListQueryResult executeAndDispatch(String aJobName,
-                                                  TagListQueryConfiguration aTagListQuery,
-                                                  boolean isPreview,
-                                                  Date aTargetRunTime) throws ConnectorException
+    private TagListQueryResult executeQuery(TagListQueryConfiguration aTagListQuery,
+                                            Date aTargetRunTime) throws ConnectorException
     {
         TagListQueryResult myTagListQueryResult;
         //Retrieve the tag list
@@ -198,15 +208,11 @@ public class TagListQueryExecutor implements IJobExecuter
                 ConnectorConfig.loadFromKeystore(),
                 myTimezone,
                 aTargetRunTime);
-        if (!isPreview)
-        {
-            //Dispatch data to Esys process
-            dispatchToS3(aJobName, myTagListQueryResult);
-        }
         return myTagListQueryResult;
     }
 
-    private void dispatchToS3(String aJobName, TagListQueryResult aTagListQueryResult) throws ConnectorException
+    private S3FanOutDispatcher.DispatchResult dispatchToS3(String aJobName, TagListQueryResult aTagListQueryResult)
+            throws ConnectorException
     {
         Date myStartTime = CurrentDateTime.getCurrentDate();
         File myFile = aTagListQueryResult.getResultsFile();
@@ -218,39 +224,27 @@ public class TagListQueryExecutor implements IJobExecuter
             throw new ConnectorException(
                 "Could not upload tag query result - No S3 credentials installed in connector");
         }
-        if (myS3Configs.size() > 1)
-        {
-            throw new ConnectorException(
-                "Could not upload tag query result - Multiple S3 credentials installed in connector");
-        }
-
-        CredentialsBackedS3FileSourceConfig myS3Config = myS3Configs.get(0);
-        // Send file to S3
-        S3FileSource myS3FileSource = new S3FileSource(myS3Config);
 
-        S3FileSourceFile myFileMetadata = new S3FileSourceFile(
-                generateFileName(aJobName, myStartTime),
-                myStartTime,
-                myS3Config.getOwner(),
-                myFile.length(),
-                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-        try
+        // Send file to every S3 file source, reading it only once
+        S3FanOutDispatcher.DispatchResult myResult;
+        try (InputStream myContent = new FileInputStream(myFile))
         {
-            if (openS3Connection(myS3FileSource))
-            {
-                myS3FileSource.putContent(new FileInputStream(myFile), myFileMetadata);
-            }
-            else
-            {
-                throw new ConnectorException(
-                        "Could not upload tag query result - Failed to acquire lock on S3 File Source");
-            }
+            myResult = new S3FanOutDispatcher(myS3Configs).dispatch(
+                    myContent,
+                    generateFileName(aJobName, myStartTime),
+                    myStartTime,
+                    myFile.length(),
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
         }
-        catch (FileSourceException | FileNotFoundException ex)
+        catch (IOException ex)
         {
             throw new ConnectorException("Could not upload tag query result - " + ex.getMessage());
         }
+        if (!myResult.isAnySucceeded())
+        {
+            throw new ConnectorException("Could not upload tag query result - " + myResult.getDetail());
+        }
+        return myResult;
     }
 
     private String generateFileName(String aJobName, Date aStartTime)
@@ -264,31 +258,6 @@ public class TagListQueryExecutor implements IJobExecuter
         return myFilePath.toString();
     }
 
-    @SuppressWarnings({"SleepWhileInLoop", "IllegalCatch"})
-    private Boolean openS3Connection(S3FileSource aS3FileSource) throws FileSourceException, ConnectorException
-    {
-        long myTimeoutPoint = CurrentDateTime.getCurrentTimeInMillis() + S3_CONNETION_TIMEOUT;
-
-        try
-        {
-            do
-            {
-                ConnectionStatus myConnStatus = aS3FileSource.openConnection();
-                if (myConnStatus == ConnectionStatus.OPEN)
-                {
-                    return true;
-                }
-                Thread.sleep(1 * 1000 * 20);
-            }
-            while (CurrentDateTime.getCurrentTimeInMillis() < myTimeoutPoint);
-        }
-        catch (Exception ex)
-        {
-            throw new ConnectorException("Error connecting to S3", ex);
-        }
-        return false;
-    }
-
     @Override
     public EventResult validateRemoteQueryExecution(String aRequestName, RemoteQueryExecution aRemoteQueryExecution)
     {
@@ -52,11 +52,24 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
   private static final String PROPERTY_AWS_ACCESS_KEY_ID = "aws-access-key-id";
   private static final String PROPERTY_AWS_REGION = "aws-region";
   private static final String PROPERTY_TAG_PREFIX = "tag.";
+  private static final String PROPERTY_MULTIPART_THRESHOLD = "multipart-threshold";
+  private static final String PROPERTY_MULTIPART_PART_SIZE = "multipart-part-size";
+  private static final String PROPERTY_MULTIPART_CONCURRENCY = "multipart-concurrency";
+  private static final String PROPERTY_LOCK_LEASE_SECONDS = "lock-lease-seconds";
+  private static final String PROPERTY_COMPRESSION = "compression";
+  private static final String PROPERTY_COMPRESSION_THRESHOLD = "compression-threshold";
 
   /**
    * DEFAULT VALUES FOR PROPERTIES.
    */
   private static final String DEFAULT_IS_LOCK_REQUIRED = "false";
+  private static final Long DEFAULT_MULTIPART_THRESHOLD = 64L * 1024L * 1024L;
+  private static final Long DEFAULT_MULTIPART_PART_SIZE = 16L * 1024L * 1024L;
+  private static final Integer DEFAULT_MULTIPART_CONCURRENCY = 4;
+  private static final Long DEFAULT_LOCK_LEASE_SECONDS = 60L;
+  private static final String DEFAULT_COMPRESSION = "none";
+  private static final String COMPRESSION_GZIP = "gzip";
+  private static final Long DEFAULT_COMPRESSION_THRESHOLD = 64L * 1024L;
   private String theCredentials;
 
   @Transient
@@ -83,6 +96,24 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
   @Transient
   private List<Tag> theTags = new ArrayList<>();
 
+  @Transient
+  private Long theMultipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+
+  @Transient
+  private Long theMultipartPartSize = DEFAULT_MULTIPART_PART_SIZE;
+
+  @Transient
+  private Integer theMultipartConcurrency = DEFAULT_MULTIPART_CONCURRENCY;
+
+  @Transient
+  private Long theLockLeaseSeconds = DEFAULT_LOCK_LEASE_SECONDS;
+
+  @Transient
+  private String theCompression = DEFAULT_COMPRESSION;
+
+  @Transient
+  private Long theCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
   /**
    * Default Constructor.
    */
@@ -108,6 +139,7 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
     loadFromProperties(myCredentials.getCredentials());
   }
 
+  @SuppressWarnings("checkstyle:cyclomaticcomplexity")
   private void loadFromProperties(String myCredentialsString) throws ConnectorException
   {
     Properties myProps = new Properties();
@@ -145,6 +177,24 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
         case PROPERTY_AWS_REGION:
           theAWSRegion = myProps.getProperty(PROPERTY_AWS_REGION);
           break;
+        case PROPERTY_MULTIPART_THRESHOLD:
+          theMultipartThreshold = parseLong(myProps, PROPERTY_MULTIPART_THRESHOLD);
+          break;
+        case PROPERTY_MULTIPART_PART_SIZE:
+          theMultipartPartSize = parseLong(myProps, PROPERTY_MULTIPART_PART_SIZE);
+          break;
+        case PROPERTY_MULTIPART_CONCURRENCY:
+          theMultipartConcurrency = parseLong(myProps, PROPERTY_MULTIPART_CONCURRENCY).intValue();
+          break;
+        case PROPERTY_LOCK_LEASE_SECONDS:
+          theLockLeaseSeconds = parseLong(myProps, PROPERTY_LOCK_LEASE_SECONDS);
+          break;
+        case PROPERTY_COMPRESSION:
+          theCompression = myProps.getProperty(PROPERTY_COMPRESSION, DEFAULT_COMPRESSION).trim();
+          break;
+        case PROPERTY_COMPRESSION_THRESHOLD:
+          theCompressionThreshold = parseLong(myProps, PROPERTY_COMPRESSION_THRESHOLD);
+          break;
         default:
           if (myCurrKey.startsWith(PROPERTY_TAG_PREFIX))
           {
@@ -159,6 +209,18 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
     validate();
   }
 
+  private Long parseLong(Properties someProps, String aKey) throws ConnectorException
+  {
+    try
+    {
+      return Long.valueOf(someProps.getProperty(aKey).trim());
+    }
+    catch (NumberFormatException ex)
+    {
+      throw new ConnectorException("S3 credentials invalid: " + theCredentials + " (" + aKey + ")", ex);
+    }
+  }
+
   @SuppressWarnings("BooleanExpressionComplexity")
   private void validate() throws ConnectorException
   {
@@ -167,6 +229,10 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
     {
       throw new ConnectorException("S3 credentials incomplete: " + theCredentials);
     }
+    if (!DEFAULT_COMPRESSION.equalsIgnoreCase(theCompression) && !COMPRESSION_GZIP.equalsIgnoreCase(theCompression))
+    {
+      throw new ConnectorException("S3 credentials invalid: " + theCredentials + " (" + PROPERTY_COMPRESSION + ")");
+    }
   }
 
   /**
@@ -238,6 +304,42 @@ public class CredentialsBackedS3FileSourceConfig implements IS3FileSourceConfig,
     return theTags;
   }
 
+  @Override
+  public Long getMultipartThreshold()
+  {
+    return theMultipartThreshold;
+  }
+
+  @Override
+  public Long getMultipartPartSize()
+  {
+    return theMultipartPartSize;
+  }
+
+  @Override
+  public Integer getMultipartConcurrency()
+  {
+    return theMultipartConcurrency;
+  }
+
+  @Override
+  public Long getLockLeaseSeconds()
+  {
+    return theLockLeaseSeconds;
+  }
+
+  @Override
+  public String getCompression()
+  {
+    return theCompression;
+  }
+
+  @Override
+  public Long getCompressionThreshold()
+  {
+    return theCompressionThreshold;
+  }
+
   /**
    * Loads s3 credentials from keystore.
    *
@@ -18,15 +18,34 @@ package com.energysys.connector.connectors.fileconnector;
 
 import com.energysys.calendar.CurrentDateTime;
 import com.energysys.connector.EventResult;
+import com.energysys.connector.config.ConnectorConfig;
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.filesource.FileSourceComparison;
 import com.energysys.filesource.IFileSource;
 import com.energysys.filesource.IFileSourceFile;
 import com.energysys.filesource.IFileSourceFileFilter;
+import com.energysys.filesource.IFileSourceFileIterator;
 import com.energysys.filesource.exception.FileSourceException;
+import com.energysys.filesource.local.ILocalFileSourceConfig;
+import com.energysys.filesource.local.LocalChangeFeed;
+import com.energysys.filesource.local.LocalDigestIndex;
+import com.energysys.filesource.local.LocalFileSource;
+import com.energysys.filesource.s3.S3FileSource;
+import com.energysys.filesource.s3.S3RemoteCachedCatalog;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -42,11 +61,105 @@ public final class FileConnectorUtil
 
   private static final String OWNER_SYSTEM_PROPERTY = "file.connector.owner";
 
+  private static final String CATALOG_MIRROR_DIR = "catalogs";
+
+  private static final String CHANGE_FEED_DIR = "changefeeds";
+
+  private static final String DIGEST_INDEX_DIR = "digests";
+
+  private static final String TRANSFER_JOURNAL_DIR = "transfers";
+
+  private static final int PLAN_BATCH_SIZE = 1000;
+
   private FileConnectorUtil()
   {
 
   }
 
+  /**
+   * Creates the remote catalog for an S3 file source. A copy of the catalog is kept under the connector data
+   * directory so it is only downloaded again when it has changed.
+   *
+   * @return the catalog
+   */
+  public static S3RemoteCachedCatalog createRemoteCatalog()
+  {
+    try
+    {
+      return new S3RemoteCachedCatalog(
+          new File(ConnectorConfig.loadFromKeystore().getDataFileDirectory(), CATALOG_MIRROR_DIR));
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to load connector config, remote catalog will not be kept locally", ex);
+      return new S3RemoteCachedCatalog();
+    }
+  }
+
+  /**
+   * Opens the transfer journal of a sync, kept under the connector data directory.
+   *
+   * @param aSyncKey identifies the sync, unique among all syncs
+   * @return the journal, or null if it cannot be opened, in which case an interrupted run starts again
+   */
+  public static TransferJournal createTransferJournal(String aSyncKey)
+  {
+    try
+    {
+      return TransferJournal.open(
+          new File(ConnectorConfig.loadFromKeystore().getDataFileDirectory(), TRANSFER_JOURNAL_DIR).toPath(),
+          aSyncKey);
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to open transfer journal, interrupted transfers will start again", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Creates the local file source for a sync. When the change feed is enabled in the connector config, the file
+   * source only returns files changed since the last committed sync. When content digests are enabled, its files
+   * report the SHA-256 digest of their content so unchanged or duplicate content is not uploaded again.
+   *
+   * @param aConfig the local config
+   * @param isDirRecursive whether the sync recurses sub dirs
+   * @param aSyncId the id of the sync, which takes its own changes from the change feed
+   * @return the file source
+   * @throws FileSourceException on error
+   */
+  public static LocalFileSource createLocalFileSource(ILocalFileSourceConfig aConfig, Boolean isDirRecursive,
+          String aSyncId) throws FileSourceException
+  {
+    ConnectorConfig myConnectorConfig;
+    try
+    {
+      myConnectorConfig = ConnectorConfig.loadFromKeystore();
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to load connector config, local directory will be scanned", ex);
+      return new LocalFileSource(aConfig);
+    }
+    LocalChangeFeed myChangeFeed = null;
+    if (myConnectorConfig.isLocalChangeFeed())
+    {
+      myChangeFeed = LocalChangeFeed.forDirectory(
+          new File(aConfig.getLocalDir()).toPath(),
+          Boolean.TRUE.equals(isDirRecursive),
+          new File(myConnectorConfig.getDataFileDirectory(), CHANGE_FEED_DIR).toPath(),
+          TimeUnit.MINUTES.toMillis(myConnectorConfig.getLocalChangeFeedRescanMinutes()));
+    }
+    LocalDigestIndex myDigestIndex = null;
+    if (myConnectorConfig.isContentDigest())
+    {
+      myDigestIndex = LocalDigestIndex.forDirectory(
+          new File(aConfig.getLocalDir()).toPath(),
+          new File(myConnectorConfig.getDataFileDirectory(), DIGEST_INDEX_DIR).toPath());
+    }
+    return new LocalFileSource(aConfig, false, myChangeFeed, aSyncId, myDigestIndex);
+  }
+
   /**
    * Copies all files from one file source to another that match the given filename pattern and match the given file
    * filter.
@@ -62,44 +175,249 @@ public final class FileConnectorUtil
   public static EventResult copyNewFiles(IFileSource aSource, final IFileSource aDestination,
           final String aFileNamePattern, final Boolean isDirRecursive, final IFileSourceFileFilter aFileFilter) throws
           ConnectorException
+  {
+    return copyNewFiles(aSource, aDestination, aFileNamePattern, isDirRecursive, aFileFilter,
+            FileTransferPipeline.fromConnectorConfig());
+  }
+
+  /**
+   * Copies all files from one file source to another that match the given filename pattern and match the given file
+   * filter, using the given pipeline. A file that fails to copy does not stop the others; the result is FAILED and
+   * lists each failure.
+   *
+   * @param aSource Source file source
+   * @param aDestination Destination file source
+   * @param aFileNamePattern the file pattern
+   * @param isDirRecursive whether to recurse sub dirs
+   * @param aFileFilter the file filter
+   * @param aPipeline the pipeline to run the copies on
+   * @return a result message.
+   * @throws ConnectorException on error
+   */
+  public static EventResult copyNewFiles(final IFileSource aSource, final IFileSource aDestination,
+          final String aFileNamePattern, final Boolean isDirRecursive, final IFileSourceFileFilter aFileFilter,
+          FileTransferPipeline aPipeline) throws ConnectorException
+  {
+    return copyNewFiles(aSource, aDestination, aFileNamePattern, isDirRecursive, aFileFilter, aPipeline, null);
+  }
+
+  /**
+   * Copies all files from one file source to another that match the given filename pattern and match the given file
+   * filter, using the given pipeline and recording progress in the given journal. If the journal holds files planned
+   * by a run that did not finish, only those files are copied, without comparing them again.
+   *
+   * @param aSource Source file source
+   * @param aDestination Destination file source
+   * @param aFileNamePattern the file pattern
+   * @param isDirRecursive whether to recurse sub dirs
+   * @param aFileFilter the file filter
+   * @param aPipeline the pipeline to run the copies on
+   * @param aJournal the journal, or null to not record progress
+   * @return a result message.
+   * @throws ConnectorException on error
+   */
+  public static EventResult copyNewFiles(final IFileSource aSource, final IFileSource aDestination,
+          final String aFileNamePattern, final Boolean isDirRecursive, final IFileSourceFileFilter aFileFilter,
+          FileTransferPipeline aPipeline, final TransferJournal aJournal) throws ConnectorException
   {
     Long myStartMillis = CurrentDateTime.getCurrentTimeInMillis();
-    List<IFileSourceFile> myFilesToUpload = aSource.findFiles(aFileNamePattern, isDirRecursive,
-            new IFileSourceFileFilter()
+    Set<String> myOutstandingIDs = aJournal == null ? new HashSet<String>() : aJournal.getOutstandingFiles();
+    IFileSourceFileIterator myCandidates = null;
+    Iterator<IFileSourceFile> myFilesToUpload;
+    if (myOutstandingIDs.isEmpty())
     {
-      @Override
-      public boolean accept(IFileSourceFile aFile)
+      if (aJournal != null)
       {
-        if (aFileFilter == null || aFileFilter.accept(aFile))
+        aJournal.startPlan();
+      }
+      myCandidates = aSource.iterateFiles(aFileNamePattern, isDirRecursive, aFileFilter);
+      myFilesToUpload = new NewFilePlanner(myCandidates, aDestination, aJournal);
+    }
+    else
+    {
+      LOG.info("Resuming interrupted copy of " + myOutstandingIDs.size() + " files");
+      myFilesToUpload = new OutstandingFiles(aSource, myOutstandingIDs.iterator());
+    }
+
+    // Upload the files concurrently as they are planned, collecting any failures
+    FileTransferPipeline.TransferSummary mySummary;
+    try
+    {
+      mySummary = aPipeline.transfer(myFilesToUpload, aDestination, new FileTransferPipeline.IFileTransfer()
+      {
+        @Override
+        public void transfer(IFileSourceFile aFile) throws ConnectorException
         {
-          FileSourceComparison myResult = aDestination.compare(aFile);
-          return (myResult.getStatus() == FileSourceComparison.Status.NOT_PRESENT || myResult.getStatus()
-                  == FileSourceComparison.Status.NEWER);
+          copyFile(aSource, aDestination, aFile);
+          if (aJournal != null)
+          {
+            aJournal.fileCompleted(aFile.getFileId());
+          }
         }
-        else
+      });
+    }
+    finally
+    {
+      if (myCandidates != null)
+      {
+        myCandidates.close();
+      }
+      if (aJournal != null)
+      {
+        // Files that failed are found again by the next plan, their partial uploads are kept
+        aJournal.finishPlan();
+      }
+    }
+    return mySummary.toEventResult("FileConnectorUtil:CopyNewFiles", "Uploaded", myStartMillis);
+  }
+
+  /**
+   * Plans the files to copy as they are read from the source. Candidates are compared against the destination a
+   * batch at a time, so neither the candidates nor the files to copy are ever all held at once.
+   */
+  private static final class NewFilePlanner implements Iterator<IFileSourceFile>
+  {
+    private final Iterator<IFileSourceFile> theCandidates;
+    private final IFileSource theDestination;
+    private final TransferJournal theJournal;
+    private final Deque<IFileSourceFile> thePlannedFiles = new ArrayDeque<>();
+
+    NewFilePlanner(Iterator<IFileSourceFile> someCandidates, IFileSource aDestination, TransferJournal aJournal)
+    {
+      this.theCandidates = someCandidates;
+      this.theDestination = aDestination;
+      this.theJournal = aJournal;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      while (thePlannedFiles.isEmpty() && theCandidates.hasNext())
+      {
+        planBatch();
+      }
+      return !thePlannedFiles.isEmpty();
+    }
+
+    @Override
+    public IFileSourceFile next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      return thePlannedFiles.poll();
+    }
+
+    private void planBatch()
+    {
+      List<IFileSourceFile> myBatch = new ArrayList<>();
+      while (myBatch.size() < PLAN_BATCH_SIZE && theCandidates.hasNext())
+      {
+        myBatch.add(theCandidates.next());
+      }
+
+      // Compare the whole batch against the destination in one pass
+      Map<String, FileSourceComparison> myComparisons = theDestination.compareAll(myBatch);
+      for (IFileSourceFile myCandidate : myBatch)
+      {
+        FileSourceComparison.Status myStatus = myComparisons.get(myCandidate.getFileId()).getStatus();
+        if (myStatus == FileSourceComparison.Status.NOT_PRESENT || myStatus == FileSourceComparison.Status.NEWER)
         {
-          return false;
+          thePlannedFiles.add(myCandidate);
+          if (theJournal != null)
+          {
+            theJournal.planFile(myCandidate.getFileId());
+          }
         }
       }
-    });
+    }
+  }
+
+  /**
+   * The files left over from a run that did not finish its plan, looked up one at a time. Files removed since the
+   * plan was made are dropped.
+   */
+  private static final class OutstandingFiles implements Iterator<IFileSourceFile>
+  {
+    private final IFileSource theSource;
+    private final Iterator<String> theFileIDs;
+    private IFileSourceFile theNext;
+
+    OutstandingFiles(IFileSource aSource, Iterator<String> someFileIDs)
+    {
+      this.theSource = aSource;
+      this.theFileIDs = someFileIDs;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      while (theNext == null && theFileIDs.hasNext())
+      {
+        theNext = theSource.findFile(theFileIDs.next());
+      }
+      return theNext != null;
+    }
 
-    LOG.info("Copying Files: " + myFilesToUpload.toString());
+    @Override
+    public IFileSourceFile next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      IFileSourceFile myFile = theNext;
+      theNext = null;
+      return myFile;
+    }
+  }
 
-    // Upload each file
-    for (IFileSourceFile myFile : myFilesToUpload)
+  /**
+   * Copies a single file from one file source to another.
+   *
+   * @param aSource Source file source
+   * @param aDestination Destination file source
+   * @param aFile the file
+   * @throws ConnectorException on error
+   */
+  public static void copyFile(IFileSource aSource, IFileSource aDestination, IFileSourceFile aFile)
+          throws ConnectorException
+  {
+    if (aSource instanceof S3FileSource && aDestination instanceof LocalFileSource)
     {
-      try (InputStream myInputStream = aSource.getInputStream(myFile))
+      // Download straight into the local file so large objects can be fetched in parallel ranges
+      try
       {
-        aDestination.putContent(myInputStream, myFile);
+        File myLocalFile = ((LocalFileSource) aDestination).getLocalFile(aFile.getFileId());
+        ((S3FileSource) aSource).getContent(myLocalFile, aFile);
       }
-      catch (IOException | FileSourceException ex)
+      catch (FileSourceException ex)
       {
-        throw new ConnectorException("Error copying file: " + myFile.getFileId(), ex);
+        throw new ConnectorException("Error copying file: " + aFile.getFileId(), ex);
       }
+      return;
+    }
+    try
+    {
+      // Content already on S3 under another id is copied there rather than uploaded again
+      if (aDestination instanceof S3FileSource && ((S3FileSource) aDestination).putContentFromDuplicate(aFile))
+      {
+        return;
+      }
+    }
+    catch (FileSourceException ex)
+    {
+      throw new ConnectorException("Error copying file: " + aFile.getFileId(), ex);
+    }
+    try (InputStream myInputStream = aSource.getInputStream(aFile))
+    {
+      aDestination.putContent(myInputStream, aFile);
+    }
+    catch (IOException | FileSourceException ex)
+    {
+      throw new ConnectorException("Error copying file: " + aFile.getFileId(), ex);
     }
-    return new EventResult("FileConnectorUtil:CopyNewFiles", EventResult.Result.SUCCESS,
-            myFilesToUpload.size() + " Files Uploaded",
-            "Files synced: " + myFilesToUpload.toString(), myStartMillis);
   }
 
 }
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2022 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.connectors.fileconnector;
+
+import com.energysys.connector.EventResult;
+import com.energysys.connector.config.ConnectorConfig;
+import com.energysys.connector.exception.ConnectorException;
+import com.energysys.filesource.IFileSource;
+import com.energysys.filesource.IFileSourceFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs file transfers on a bounded pool of workers, taking files from the caller only as workers become free. A failed
+ * file is recorded against its id and the remaining files carry on, so one bad file does not abort the whole run. The
+ * number of transfers in flight to any one destination is also limited, independently of the number of workers. The
+ * limit is shared by every pipeline in the connector, so runs of different syncs to the same bucket location or local
+ * directory count against it together.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public class FileTransferPipeline
+{
+  private static final Logger LOG = Logger.getLogger(FileTransferPipeline.class.getName());
+
+  private static final int DEFAULT_WORKER_COUNT = 4;
+
+  private static final int QUEUED_FILES_PER_WORKER = 2;
+
+  private static final String REMAINING_FILES = "Remaining files";
+
+  // Keyed by destination location and limit, so a changed limit takes effect for the runs started after it. Guarded by
+  // the class
+  private static final Map<String, Semaphore> DESTINATION_LIMITS = new HashMap<>();
+
+  private final int theWorkerCount;
+  private final int theMaxInFlightPerDestination;
+
+  /**
+   * Transfers a single file.
+   */
+  public interface IFileTransfer
+  {
+    /**
+     * Transfers the file.
+     *
+     * @param aFile the file
+     * @throws ConnectorException on error
+     */
+    void transfer(IFileSourceFile aFile) throws ConnectorException;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param aWorkerCount number of files transferred at once
+   * @param aMaxInFlightPerDestination number of files transferred at once to any one destination
+   */
+  public FileTransferPipeline(int aWorkerCount, int aMaxInFlightPerDestination)
+  {
+    this.theWorkerCount = Math.max(1, aWorkerCount);
+    this.theMaxInFlightPerDestination = Math.max(1, aMaxInFlightPerDestination);
+  }
+
+  /**
+   * Creates a pipeline sized from the connector configuration.
+   *
+   * @return the pipeline
+   */
+  public static FileTransferPipeline fromConnectorConfig()
+  {
+    try
+    {
+      ConnectorConfig myConfig = ConnectorConfig.loadFromKeystore();
+      return new FileTransferPipeline(myConfig.getFileTransferWorkers(), myConfig.getFileTransferMaxInFlight());
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to load connector config, using default file transfer workers", ex);
+      return new FileTransferPipeline(DEFAULT_WORKER_COUNT, DEFAULT_WORKER_COUNT);
+    }
+  }
+
+  /**
+   * Transfers the given files to a destination.
+   *
+   * @param someFiles the files
+   * @param aDestination the destination, used to apply the in flight limit
+   * @param aTransfer the transfer to run for each file
+   * @return the outcome of the transfers
+   */
+  public TransferSummary transfer(List<IFileSourceFile> someFiles, IFileSource aDestination,
+          final IFileTransfer aTransfer)
+  {
+    return transfer(someFiles.iterator(), aDestination, aTransfer);
+  }
+
+  /**
+   * Transfers files to a destination as they are read from an iterator. Only a few files per worker are taken from
+   * the iterator ahead of the transfers, so the files need never all be held at once. If the iterator fails, the
+   * failure is recorded and the files already taken from it are still transferred.
+   *
+   * @param someFiles the files
+   * @param aDestination the destination, used to apply the in flight limit
+   * @param aTransfer the transfer to run for each file
+   * @return the outcome of the transfers
+   */
+  public TransferSummary transfer(Iterator<IFileSourceFile> someFiles, IFileSource aDestination,
+          final IFileTransfer aTransfer)
+  {
+    final Semaphore myDestinationLimit = getDestinationLimit(aDestination);
+    final Semaphore myQueueSlots = new Semaphore(theWorkerCount * QUEUED_FILES_PER_WORKER);
+    final TransferSummary mySummary = new TransferSummary();
+    ExecutorService myExecutor = Executors.newFixedThreadPool(theWorkerCount);
+    try
+    {
+      try
+      {
+        while (someFiles.hasNext())
+        {
+          // Wait for a free slot before taking the next file, so the iterator is never read far ahead of the workers
+          myQueueSlots.acquire();
+          final IFileSourceFile myFile = someFiles.next();
+          myExecutor.execute(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              try
+              {
+                transferFile(myFile, myDestinationLimit, aTransfer, mySummary);
+              }
+              finally
+              {
+                myQueueSlots.release();
+              }
+            }
+          });
+        }
+      }
+      catch (RuntimeException ex)
+      {
+        // The files could not all be found, but those already handed over are still transferred
+        LOG.log(Level.WARNING, "Error finding files to transfer", ex);
+        mySummary.failed(REMAINING_FILES, String.valueOf(ex.getMessage()));
+      }
+      myExecutor.shutdown();
+      myExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      mySummary.failed(REMAINING_FILES, "Interrupted");
+    }
+    finally
+    {
+      myExecutor.shutdownNow();
+    }
+    return mySummary;
+  }
+
+  private static void transferFile(IFileSourceFile aFile, Semaphore aDestinationLimit, IFileTransfer aTransfer,
+          TransferSummary aSummary)
+  {
+    try
+    {
+      aDestinationLimit.acquire();
+      try
+      {
+        aTransfer.transfer(aFile);
+      }
+      finally
+      {
+        aDestinationLimit.release();
+      }
+      aSummary.transferred(aFile);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      aSummary.failed(aFile.getFileId(), "Interrupted");
+    }
+    catch (ConnectorException | RuntimeException ex)
+    {
+      LOG.log(Level.WARNING, "Error transferring file: " + aFile.getFileId(), ex);
+      aSummary.failed(aFile.getFileId(), String.valueOf(ex.getMessage()));
+    }
+  }
+
+  private Semaphore getDestinationLimit(IFileSource aDestination)
+  {
+    String myKey = aDestination.getLocationKey() + "|" + theMaxInFlightPerDestination;
+    synchronized (FileTransferPipeline.class)
+    {
+      Semaphore myLimit = DESTINATION_LIMITS.get(myKey);
+      if (myLimit == null)
+      {
+        myLimit = new Semaphore(theMaxInFlightPerDestination);
+        DESTINATION_LIMITS.put(myKey, myLimit);
+      }
+      return myLimit;
+    }
+  }
+
+  /**
+   * The outcome of a set of transfers. Only counts are kept for every file, with the ids of the first few files
+   * transferred and failed kept as a sample, so the summary stays small however many files are transferred.
+   */
+  public static class TransferSummary
+  {
+    private static final int SAMPLE_SIZE = 100;
+
+    // Guarded by this
+    private int theTransferredCount;
+    private long theTransferredBytes;
+    private final List<String> theTransferredSample = new ArrayList<>();
+    private int theFailedCount;
+    private final Map<String, String> theFailures = new LinkedHashMap<>();
+
+    public synchronized int getTransferredCount()
+    {
+      return theTransferredCount;
+    }
+
+    public synchronized long getTransferredBytes()
+    {
+      return theTransferredBytes;
+    }
+
+    public synchronized int getFailedCount()
+    {
+      return theFailedCount;
+    }
+
+    /**
+     * Gets the first failures recorded, at most {@value #SAMPLE_SIZE}.
+     *
+     * @return the error message of each file, keyed by file id
+     */
+    public synchronized Map<String, String> getFailures()
+    {
+      return new LinkedHashMap<>(theFailures);
+    }
+
+    /**
+     * Records that a file was transferred.
+     *
+     * @param aFile the file
+     */
+    synchronized void transferred(IFileSourceFile aFile)
+    {
+      theTransferredCount++;
+      theTransferredBytes += sizeOf(aFile);
+      if (theTransferredSample.size() < SAMPLE_SIZE)
+      {
+        theTransferredSample.add(aFile.getFileId());
+      }
+    }
+
+    /**
+     * Records that a file failed to transfer.
+     *
+     * @param aFileId the file id
+     * @param aMessage the error message
+     */
+    synchronized void failed(String aFileId, String aMessage)
+    {
+      theFailedCount++;
+      if (theFailures.size() < SAMPLE_SIZE)
+      {
+        theFailures.put(aFileId, aMessage);
+      }
+    }
+
+    /**
+     * Records a failure in a later step for a file that was transferred, so it is no longer counted as transferred.
+     *
+     * @param aFile the file
+     * @param aMessage the error message
+     */
+    public synchronized void fail(IFileSourceFile aFile, String aMessage)
+    {
+      theTransferredCount--;
+      theTransferredBytes -= sizeOf(aFile);
+      theTransferredSample.remove(aFile.getFileId());
+      failed(aFile.getFileId(), aMessage);
+    }
+
+    /**
+     * Adds the outcome of another set of transfers to this one.
+     *
+     * @param aSummary the other summary
+     */
+    public void add(TransferSummary aSummary)
+    {
+      synchronized (aSummary)
+      {
+        synchronized (this)
+        {
+          theTransferredCount += aSummary.theTransferredCount;
+          theTransferredBytes += aSummary.theTransferredBytes;
+          for (String myFileId : aSummary.theTransferredSample)
+          {
+            if (theTransferredSample.size() < SAMPLE_SIZE)
+            {
+              theTransferredSample.add(myFileId);
+            }
+          }
+          theFailedCount += aSummary.theFailedCount;
+          for (Map.Entry<String, String> myFailure : aSummary.theFailures.entrySet())
+          {
+            if (theFailures.size() < SAMPLE_SIZE)
+            {
+              theFailures.put(myFailure.getKey(), myFailure.getValue());
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Converts to an EventResult, which is only a success if every file was transferred.
+     *
+     * @param anEventDescription the description
+     * @param anAction what was done to each file, e.g. "Uploaded"
+     * @param aStartTimeInMillis when the transfers started
+     * @return the result
+     */
+    public synchronized EventResult toEventResult(String anEventDescription, String anAction,
+            Long aStartTimeInMillis)
+    {
+      StringBuilder myDetail = new StringBuilder();
+      if (theFailedCount > 0)
+      {
+        myDetail.append("Files failed: ").append(theFailedCount).append('\n');
+        for (Map.Entry<String, String> myFailure : theFailures.entrySet())
+        {
+          myDetail.append(myFailure.getKey()).append(": ").append(myFailure.getValue()).append('\n');
+        }
+        appendRemainder(myDetail, theFailedCount - theFailures.size());
+        myDetail.append('\n');
+      }
+      myDetail.append("Files synced: ").append(theTransferredCount)
+              .append(" (").append(theTransferredBytes).append(" bytes)\n");
+      for (String myFileId : theTransferredSample)
+      {
+        myDetail.append(myFileId).append('\n');
+      }
+      appendRemainder(myDetail, theTransferredCount - theTransferredSample.size());
+
+      if (theFailedCount == 0)
+      {
+        return new EventResult(anEventDescription, EventResult.Result.SUCCESS,
+                theTransferredCount + " Files " + anAction, myDetail.toString(), aStartTimeInMillis);
+      }
+      return new EventResult(anEventDescription, EventResult.Result.FAILED,
+              theTransferredCount + " Files " + anAction + ", " + theFailedCount + " Failed",
+              myDetail.toString(), aStartTimeInMillis);
+    }
+
+    private static void appendRemainder(StringBuilder aDetail, int aRemainder)
+    {
+      if (aRemainder > 0)
+      {
+        aDetail.append("... and ").append(aRemainder).append(" more\n");
+      }
+    }
+
+    private static long sizeOf(IFileSourceFile aFile)
+    {
+      Long mySize = aFile.getSize();
+      return mySize == null ? 0 : mySize;
+    }
+  }
+}
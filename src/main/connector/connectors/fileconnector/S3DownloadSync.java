@@ -23,6 +23,7 @@ import com.energysys.filesource.IFileSourceFileFilter;
 import com.energysys.filesource.local.ILocalFileSourceConfig;
 import com.energysys.filesource.local.LocalFileSource;
 import com.energysys.filesource.s3.S3FileSource;
+import com.energysys.filesource.s3.S3TrafficGovernor;
 import java.util.Date;
 import java.util.logging.Logger;
 import com.energysys.connector.IJobExecuter;
@@ -32,7 +33,6 @@ import com.energysys.connector.schedulers.quartz.AbstractJobController;
 import com.energysys.connector.schedulers.quartz.RemoteQueryExecution;
 import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.exception.FileSourceException;
-import com.energysys.filesource.s3.S3RemoteCachedCatalog;
 
 /**
  * This is a File Connector class for downloading new and updated objects from a remote S3 file source.
@@ -109,7 +109,8 @@ public class S3DownloadSync implements IJobExecuter
   {
     Long myStartTime = CurrentDateTime.getCurrentTimeInMillis();
     // Open connection to S3
-    try (S3FileSource myS3FileSource = new S3FileSource(theConfig.getDestinationConfig(), new S3RemoteCachedCatalog()))
+    try (S3FileSource myS3FileSource = new S3FileSource(theConfig.getDestinationConfig(),
+        FileConnectorUtil.createRemoteCatalog()))
     {
       ConnectionStatus myOpenResult = myS3FileSource.openConnection();
 
@@ -147,6 +148,7 @@ public class S3DownloadSync implements IJobExecuter
         {
           theStatus.setIgnoreBeforeDate(myS3FileSource.getLatestUpdateDate());
         }
+        LOG.fine(S3TrafficGovernor.getUtilisation().toString());
         return new EventResult(theJobName, myCopyResult, myStartTime);
       }
       catch (ConnectorException ex)
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.connectors.fileconnector;
+
+import com.energysys.calendar.CurrentDateTime;
+import com.energysys.filesource.ConnectionStatus;
+import com.energysys.filesource.exception.FileSourceException;
+import com.energysys.filesource.s3.S3FileSource;
+import com.energysys.filesource.s3.S3FileSourceFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads one file to every installed S3 file source at once, reading the content only once. Each destination opens
+ * its own connection, waiting for its own lock and loading its own catalog, and the content is then written to all of
+ * them through a pipe each as it is read. A destination that fails does not stop the others, and the outcome for each
+ * destination is reported separately.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public class S3FanOutDispatcher
+{
+  private static final Logger LOG = Logger.getLogger(S3FanOutDispatcher.class.getName());
+
+  private static final long LOCK_TIMEOUT_MILLIS = 5 * 60 * 1000;
+  private static final long LOCK_RETRY_MILLIS = 20 * 1000;
+  private static final int PIPE_BUFFER_SIZE = 1024 * 1024;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final List<CredentialsBackedS3FileSourceConfig> theConfigs;
+
+  /**
+   * Constructor.
+   *
+   * @param someConfigs the destinations
+   */
+  public S3FanOutDispatcher(List<CredentialsBackedS3FileSourceConfig> someConfigs)
+  {
+    this.theConfigs = someConfigs;
+  }
+
+  /**
+   * Uploads a file to every destination.
+   *
+   * @param aContent the content, read once and left open
+   * @param aFileName the file name
+   * @param aModifiedDate the modified date
+   * @param aSize the size of the content
+   * @param aMimeType the mime type
+   * @return the outcome for each destination
+   */
+  public DispatchResult dispatch(InputStream aContent, String aFileName, Date aModifiedDate, Long aSize,
+          String aMimeType)
+  {
+    List<Destination> myDestinations = new ArrayList<>();
+    for (CredentialsBackedS3FileSourceConfig myConfig : theConfigs)
+    {
+      myDestinations.add(new Destination(myConfig));
+    }
+    ExecutorService myExecutor = Executors.newFixedThreadPool(Math.max(1, myDestinations.size()));
+    try
+    {
+      // Every destination waits for its own lock at the same time
+      List<Future<Void>> myOpens = new ArrayList<>();
+      for (final Destination myDestination : myDestinations)
+      {
+        myOpens.add(myExecutor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws FileSourceException, InterruptedException
+          {
+            myDestination.open();
+            return null;
+          }
+        }));
+      }
+      awaitAll(myDestinations, myOpens);
+
+      // Then the content is read once and written to each destination that opened
+      List<Destination> myOpenDestinations = new ArrayList<>();
+      List<Future<Void>> myUploads = new ArrayList<>();
+      for (final Destination myDestination : myDestinations)
+      {
+        if (myDestination.theError != null)
+        {
+          continue;
+        }
+        final InputStream myPipe = myDestination.connectPipe();
+        final S3FileSourceFile myFile = new S3FileSourceFile(aFileName, aModifiedDate,
+                myDestination.theConfig.getOwner(), aSize, aMimeType);
+        myUploads.add(myExecutor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws FileSourceException, IOException
+          {
+            // Closing the pipe tells the reader to stop writing to it if the upload fails
+            try (InputStream myContent = myPipe)
+            {
+              myDestination.theSource.putContent(myContent, myFile);
+            }
+            return null;
+          }
+        }));
+        myOpenDestinations.add(myDestination);
+      }
+      tee(aContent, myOpenDestinations);
+      awaitAll(myOpenDestinations, myUploads);
+    }
+    finally
+    {
+      myExecutor.shutdownNow();
+      for (Destination myDestination : myDestinations)
+      {
+        myDestination.close();
+      }
+    }
+
+    DispatchResult myResult = new DispatchResult();
+    for (Destination myDestination : myDestinations)
+    {
+      myResult.theOutcomes.put(myDestination.theName, myDestination.theError);
+    }
+    return myResult;
+  }
+
+  private static void tee(InputStream aContent, List<Destination> someDestinations)
+  {
+    byte[] myBuffer = new byte[READ_BUFFER_SIZE];
+    try
+    {
+      int myCount;
+      while ((myCount = aContent.read(myBuffer)) >= 0)
+      {
+        for (Destination myDestination : someDestinations)
+        {
+          myDestination.write(myBuffer, myCount);
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Error reading content to upload", ex);
+      for (Destination myDestination : someDestinations)
+      {
+        myDestination.isContentBroken = true;
+      }
+    }
+    finally
+    {
+      for (Destination myDestination : someDestinations)
+      {
+        myDestination.closePipe();
+      }
+    }
+  }
+
+  private static void awaitAll(List<Destination> someDestinations, List<Future<Void>> someTasks)
+  {
+    for (int i = 0; i < someTasks.size(); i++)
+    {
+      Destination myDestination = someDestinations.get(i);
+      try
+      {
+        someTasks.get(i).get();
+      }
+      catch (ExecutionException ex)
+      {
+        LOG.log(Level.WARNING, "Error sending file to " + myDestination.theName, ex.getCause());
+        myDestination.fail(String.valueOf(ex.getCause().getMessage()));
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        myDestination.fail("Interrupted");
+      }
+    }
+  }
+
+  /**
+   * One S3 file source being uploaded to.
+   */
+  private static final class Destination
+  {
+    private final CredentialsBackedS3FileSourceConfig theConfig;
+    private final String theName;
+    private final S3FileSource theSource;
+    private PipedOutputStream thePipe;
+    private volatile boolean isContentBroken;
+    private volatile String theError;
+
+    Destination(CredentialsBackedS3FileSourceConfig aConfig)
+    {
+      this.theConfig = aConfig;
+      this.theName = aConfig.getBucketName() + "/" + aConfig.getLocation();
+      this.theSource = new S3FileSource(aConfig);
+    }
+
+    @SuppressWarnings("SleepWhileInLoop")
+    void open() throws FileSourceException, InterruptedException
+    {
+      long myTimeoutPoint = CurrentDateTime.getCurrentTimeInMillis() + LOCK_TIMEOUT_MILLIS;
+      do
+      {
+        if (theSource.openConnection() == ConnectionStatus.OPEN)
+        {
+          return;
+        }
+        Thread.sleep(LOCK_RETRY_MILLIS);
+      }
+      while (CurrentDateTime.getCurrentTimeInMillis() < myTimeoutPoint);
+      theError = "Failed to acquire lock on S3 File Source";
+    }
+
+    void fail(String aMessage)
+    {
+      if (theError == null)
+      {
+        theError = aMessage;
+      }
+    }
+
+    InputStream connectPipe()
+    {
+      PipedInputStream myPipe = new PipedInputStream(PIPE_BUFFER_SIZE)
+      {
+        @Override
+        public synchronized int read() throws IOException
+        {
+          return checkEnd(super.read());
+        }
+
+        @Override
+        public synchronized int read(byte[] aBuffer, int anOffset, int aLength) throws IOException
+        {
+          return checkEnd(super.read(aBuffer, anOffset, aLength));
+        }
+
+        private int checkEnd(int aResult) throws IOException
+        {
+          // Without this a failed read would look like the end of the content and upload a truncated file
+          if (aResult < 0 && isContentBroken)
+          {
+            throw new IOException("Error reading content to upload");
+          }
+          return aResult;
+        }
+      };
+      try
+      {
+        thePipe = new PipedOutputStream(myPipe);
+      }
+      catch (IOException ex)
+      {
+        // Only thrown if the pipe is already connected
+        throw new IllegalStateException(ex);
+      }
+      return myPipe;
+    }
+
+    void write(byte[] aBuffer, int aCount)
+    {
+      if (thePipe == null)
+      {
+        return;
+      }
+      try
+      {
+        thePipe.write(aBuffer, 0, aCount);
+      }
+      catch (IOException ex)
+      {
+        // The upload has stopped reading, it reports its own failure
+        LOG.log(Level.FINE, "Upload to " + theName + " stopped reading", ex);
+        closePipe();
+      }
+    }
+
+    void closePipe()
+    {
+      if (thePipe == null)
+      {
+        return;
+      }
+      try
+      {
+        thePipe.close();
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.FINE, "Error closing pipe to " + theName, ex);
+      }
+      thePipe = null;
+    }
+
+    void close()
+    {
+      closePipe();
+      theSource.close();
+    }
+  }
+
+  /**
+   * The outcome of uploading a file to each destination.
+   */
+  public static class DispatchResult
+  {
+    // Error message of each destination, null if it succeeded
+    private final Map<String, String> theOutcomes = new LinkedHashMap<>();
+
+    /**
+     * Checks whether every destination was uploaded to.
+     *
+     * @return true if none failed
+     */
+    public boolean isAllSucceeded()
+    {
+      return getSucceededCount() == theOutcomes.size();
+    }
+
+    /**
+     * Checks whether at least one destination was uploaded to.
+     *
+     * @return true if any succeeded
+     */
+    public boolean isAnySucceeded()
+    {
+      return getSucceededCount() > 0;
+    }
+
+    /**
+     * Gets a one line summary, e.g. "Uploaded to 1 of 2 destinations".
+     *
+     * @return the summary
+     */
+    public String getSummary()
+    {
+      return "Uploaded to " + getSucceededCount() + " of " + theOutcomes.size() + " destinations";
+    }
+
+    /**
+     * Gets the outcome for each destination, one per line.
+     *
+     * @return the detail
+     */
+    public String getDetail()
+    {
+      StringBuilder myDetail = new StringBuilder();
+      for (Map.Entry<String, String> myOutcome : theOutcomes.entrySet())
+      {
+        if (myOutcome.getValue() == null)
+        {
+          myDetail.append("Uploaded to ").append(myOutcome.getKey()).append('\n');
+        }
+        else
+        {
+          myDetail.append("Failed to upload to ").append(myOutcome.getKey()).append(": ")
+                  .append(myOutcome.getValue()).append('\n');
+        }
+      }
+      return myDetail.toString();
+    }
+
+    private int getSucceededCount()
+    {
+      int myCount = 0;
+      for (String myError : theOutcomes.values())
+      {
+        if (myError == null)
+        {
+          myCount++;
+        }
+      }
+      return myCount;
+    }
+  }
+}
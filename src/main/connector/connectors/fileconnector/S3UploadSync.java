@@ -21,6 +21,7 @@ import com.energysys.connector.exception.ConnectorException;
 import com.energysys.filesource.local.ILocalFileSourceConfig;
 import com.energysys.filesource.local.LocalFileSource;
 import com.energysys.filesource.s3.S3FileSource;
+import com.energysys.filesource.s3.S3TrafficGovernor;
 import java.util.logging.Logger;
 import com.energysys.connector.IJobExecuter;
 import com.energysys.connector.EventResult;
@@ -29,8 +30,8 @@ import com.energysys.connector.schedulers.quartz.AbstractJobController;
 import com.energysys.connector.schedulers.quartz.RemoteQueryExecution;
 import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.exception.FileSourceException;
-import com.energysys.filesource.s3.S3RemoteCachedCatalog;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a File Connector class for uploading new and updated objects to a remote S3 file source. Uploads any local
@@ -45,6 +46,11 @@ public class S3UploadSync implements IJobExecuter
 
   private static final Logger LOG = Logger.getLogger(S3UploadSync.class.getName());
 
+  private static final String UPLOAD_JOURNAL_PREFIX = "upload-";
+
+  // Uploads left to resume for longer than this are taken to be abandoned
+  private static final long KEPT_UPLOAD_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
   private IFileSyncConfig<ILocalFileSourceConfig, CredentialsBackedS3FileSourceConfig> theConfig;
 
   private String theJobName;
@@ -84,7 +90,8 @@ public class S3UploadSync implements IJobExecuter
   {
     Long myStartTime = CurrentDateTime.getCurrentTimeInMillis();
     // Open connection to S3
-    try (S3FileSource myS3FileSource = new S3FileSource(theConfig.getDestinationConfig(), new S3RemoteCachedCatalog()))
+    try (S3FileSource myS3FileSource = new S3FileSource(theConfig.getDestinationConfig(),
+        FileConnectorUtil.createRemoteCatalog()))
     {
       ConnectionStatus myOpenResult = myS3FileSource.openConnection();
 
@@ -103,18 +110,38 @@ public class S3UploadSync implements IJobExecuter
       }
 
       // Scan local directory for files
-      LocalFileSource myLocalFileSource = new LocalFileSource((ILocalFileSourceConfig) theConfig.getSourceConfig());
+      LocalFileSource myLocalFileSource = FileConnectorUtil.createLocalFileSource(
+              (ILocalFileSourceConfig) theConfig.getSourceConfig(), theConfig.getIsDirRecursive(),
+              String.valueOf(theConfig.getId()));
 
+      // Lets a run cut short carry on where it left off, including part way through large files
+      TransferJournal myJournal = FileConnectorUtil.createTransferJournal(UPLOAD_JOURNAL_PREFIX + theConfig.getId());
+      myS3FileSource.setUploadJournal(myJournal);
       try
       {
+        myS3FileSource.abortExpiredUploads(KEPT_UPLOAD_MAX_AGE_MILLIS);
         EventResult myCopyResult = FileConnectorUtil.copyNewFiles(myLocalFileSource, myS3FileSource,
-                theConfig.getFilePattern(), theConfig.getIsDirRecursive(), null);
+                theConfig.getFilePattern(), theConfig.getIsDirRecursive(), null,
+                FileTransferPipeline.fromConnectorConfig(), myJournal);
+        // Only mark the changed files as done once every one of them has been uploaded
+        if (myCopyResult.getResult() == EventResult.Result.SUCCESS)
+        {
+          myLocalFileSource.commitChanges();
+        }
+        LOG.fine(S3TrafficGovernor.getUtilisation().toString());
         return new EventResult(theJobName, myCopyResult, myStartTime);
       }
       catch (ConnectorException ex)
       {
         return new EventResult(theJobName, ex, myStartTime);
       }
+      finally
+      {
+        if (myJournal != null)
+        {
+          myJournal.close();
+        }
+      }
     }
     catch (FileSourceException ex)
     {
@@ -31,6 +31,7 @@ import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.IFileSource;
 import com.energysys.filesource.IFileSourceFile;
 import com.energysys.filesource.IFileSourceFileFilter;
+import com.energysys.filesource.IFileSourceFileIterator;
 import com.energysys.filesource.exception.FileSourceException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,8 +39,13 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This is a File Connector class for uploading files to a remote S3 file source and then moving them to a processed
@@ -53,6 +59,7 @@ public class S3Uploader implements IJobExecuter
 {
   private static final Logger LOG = Logger.getLogger(S3Uploader.class.getName());
   private static final String PROCESSED_DIR = "processed/";
+  private static final int UPLOAD_BATCH_SIZE = 1000;
 
   private IFileSyncConfig<ILocalFileSourceConfig, CredentialsBackedS3FileSourceConfig> theConfig;
 
@@ -112,12 +119,19 @@ public class S3Uploader implements IJobExecuter
       }
 
       // Scan local directory for files
-      LocalFileSource myLocalFileSource = new LocalFileSource((ILocalFileSourceConfig) theConfig.getSourceConfig());
+      LocalFileSource myLocalFileSource = FileConnectorUtil.createLocalFileSource(
+              (ILocalFileSourceConfig) theConfig.getSourceConfig(), theConfig.getIsDirRecursive(),
+              String.valueOf(theConfig.getId()));
 
       try
       {
         EventResult myCopyResult = copyAllFiles(myLocalFileSource, myS3FileSource,
                 theConfig.getFilePattern(), theConfig.getIsDirRecursive());
+        // Only mark the changed files as done once every one of them has been uploaded
+        if (myCopyResult.getResult() == EventResult.Result.SUCCESS)
+        {
+          myLocalFileSource.commitChanges();
+        }
         return new EventResult(theJobName, myCopyResult, myStartTime);
       }
       catch (ConnectorException ex)
@@ -142,12 +156,17 @@ public class S3Uploader implements IJobExecuter
    * @return a result message.
    * @throws ConnectorException on error
    */
-  public EventResult copyAllFiles(IFileSource aSource, final IFileSource aDestination,
+  public EventResult copyAllFiles(final IFileSource aSource, final IFileSource aDestination,
           final String aFileNamePattern, final Boolean isDirRecursive) throws
           ConnectorException
   {
     Long myStartMillis = CurrentDateTime.getCurrentTimeInMillis();
-    List<IFileSourceFile> myFilesToUpload = aSource.findFiles(aFileNamePattern, isDirRecursive,
+    // Create formatted timestamp for appending to processed filenames
+    final String myFileTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(myStartMillis), ZoneId.systemDefault()).
+            format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss.SSS"));
+    FileTransferPipeline myPipeline = FileTransferPipeline.fromConnectorConfig();
+    FileTransferPipeline.TransferSummary mySummary = new FileTransferPipeline.TransferSummary();
+    try (IFileSourceFileIterator myFiles = aSource.iterateFiles(aFileNamePattern, isDirRecursive,
             new IFileSourceFileFilter()
     {
       @Override
@@ -155,55 +174,111 @@ public class S3Uploader implements IJobExecuter
       {
         return !aFile.getFileId().startsWith(PROCESSED_DIR);
       }
-    });
-
-    LOG.info("Copying Files: " + myFilesToUpload.toString());
-    // Create formatted timestamp for appending to processed filenames
-    final String myFileTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(myStartMillis), ZoneId.systemDefault()).
-            format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss.SSS"));
-    // Upload each file
-    for (IFileSourceFile myFile : myFilesToUpload)
+    }))
     {
-      try (InputStream myInputStream = aSource.getInputStream(myFile))
-      {
-        // Copy file to destination 
-        aDestination.putContent(myInputStream, myFile);
-      }
-      catch (IOException | FileSourceException ex)
+      // Upload a batch of files at a time, several files at once, then move the batch to processed in one go
+      while (myFiles.hasNext())
       {
-        throw new ConnectorException("Error uploading file: " + myFile.getFileId(), ex);
+        List<IFileSourceFile> myBatch = new ArrayList<>();
+        while (myBatch.size() < UPLOAD_BATCH_SIZE && myFiles.hasNext())
+        {
+          myBatch.add(myFiles.next());
+        }
+        final List<IFileSourceFile> myUploaded = Collections.synchronizedList(new ArrayList<IFileSourceFile>());
+        FileTransferPipeline.TransferSummary myBatchSummary = myPipeline.transfer(myBatch, aDestination,
+                new FileTransferPipeline.IFileTransfer()
+        {
+          @Override
+          public void transfer(IFileSourceFile aFile) throws ConnectorException
+          {
+            uploadFile(aSource, aDestination, aFile);
+            myUploaded.add(aFile);
+          }
+        });
+        archiveFiles(aSource, myUploaded, myBatchSummary, myFileTimestamp);
+        mySummary.add(myBatchSummary);
       }
+    }
+    return mySummary.toEventResult("FileConnectorUtil:CopyNewFiles", "Uploaded", myStartMillis);
+  }
 
-      try
+  /**
+   * Uploads a single file.
+   *
+   * @param aSource Source file source
+   * @param aDestination Destination file source
+   * @param aFile the file
+   * @throws ConnectorException on error
+   */
+  private void uploadFile(IFileSource aSource, IFileSource aDestination, IFileSourceFile aFile)
+          throws ConnectorException
+  {
+    try (InputStream myInputStream = aSource.getInputStream(aFile))
+    {
+      // Copy file to destination 
+      aDestination.putContent(myInputStream, aFile);
+    }
+    catch (IOException | FileSourceException ex)
+    {
+      throw new ConnectorException("Error uploading file: " + aFile.getFileId(), ex);
+    }
+  }
+
+  /**
+   * Moves the originals of the uploaded files to the processed directory. A file that cannot be moved is recorded as
+   * failed in the summary.
+   *
+   * @param aSource Source file source
+   * @param someUploaded the files uploaded
+   * @param aSummary the outcome of the uploads
+   * @param aFileTimestamp timestamp appended to the processed name if it is already taken
+   */
+  private void archiveFiles(IFileSource aSource, List<IFileSourceFile> someUploaded,
+          FileTransferPipeline.TransferSummary aSummary, String aFileTimestamp)
+  {
+    if (someUploaded.isEmpty())
+    {
+      return;
+    }
+    // Check the processed names for the whole batch at once
+    List<String> myProcessedNames = new ArrayList<>();
+    for (IFileSourceFile myFile : someUploaded)
+    {
+      myProcessedNames.add(PROCESSED_DIR + myFile.getFileId());
+    }
+    Set<String> myTakenNames = aSource.findExistingFileIDs(myProcessedNames);
+    Map<IFileSourceFile, String> myMoves = new LinkedHashMap<>();
+    for (IFileSourceFile myFile : someUploaded)
+    {
+      // Compose path of original file when moving to processed directory
+      String myFilename = myFile.getFileId();
+      String myMovedFileName = PROCESSED_DIR + myFilename;
+      // if the processed directory already contains a file with the same name, append a timestamp to the file name
+      if (myTakenNames.contains(myMovedFileName))
       {
-        // Compose path of original file when moving to processed directory
-        String myFilename = myFile.getFileId();
-        String myMovedFileName = PROCESSED_DIR + myFilename;
-        // if the processed directory already contains a file with the same name, append a timestamp to the file name
-        if (aSource.findFile(myMovedFileName) != null)
+        if (myFilename.matches(".*\\.([^\\.\\/]*$)"))
         {
-          if (myFilename.matches(".*\\.([^\\.\\/]*$)"))
-          {
-            int myExtensionIndex = myFilename.lastIndexOf(".");
-            myMovedFileName = PROCESSED_DIR + myFilename.substring(0, myExtensionIndex)
-                + "(" + myFileTimestamp + ")" + myFilename.substring(myExtensionIndex);
-          }
-          else
-          {
-            myMovedFileName = PROCESSED_DIR + myFilename + "(" + myFileTimestamp + ")";
-          }
+          int myExtensionIndex = myFilename.lastIndexOf(".");
+          myMovedFileName = PROCESSED_DIR + myFilename.substring(0, myExtensionIndex)
+              + "(" + aFileTimestamp + ")" + myFilename.substring(myExtensionIndex);
+        }
+        else
+        {
+          myMovedFileName = PROCESSED_DIR + myFilename + "(" + aFileTimestamp + ")";
         }
-        // Move original to processed directory
-        aSource.moveFile(myFile, myMovedFileName);
       }
-      catch (FileSourceException ex)
+      myTakenNames.add(myMovedFileName);
+      myMoves.put(myFile, myMovedFileName);
+    }
+
+    Map<String, String> myFailures = aSource.moveFiles(myMoves);
+    for (IFileSourceFile myFile : myMoves.keySet())
+    {
+      if (myFailures.containsKey(myFile.getFileId()))
       {
-        throw new ConnectorException("Error moving file to processed: " + myFile.getFileId(), ex);
+        aSummary.fail(myFile, "Error moving file to processed: " + myFailures.get(myFile.getFileId()));
       }
     }
-    return new EventResult("FileConnectorUtil:CopyNewFiles", EventResult.Result.SUCCESS,
-            myFilesToUpload.size() + " Files Uploaded",
-            "Files synced: " + myFilesToUpload.toString(), myStartMillis);
   }
 
   public void setConfig(IFileSyncConfig aConfig)
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.connectors.fileconnector;
+
+import com.energysys.calendar.CurrentDateTime;
+import com.energysys.connector.exception.ConnectorException;
+import com.energysys.filesource.s3.IMultipartUploadJournal;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent record of the progress of one sync, so a run that dies part way through can be carried on by the next.
+ *
+ * It records the files planned for a run and each file completed, and the multipart uploads in progress with the
+ * parts they have sent. Each record is appended to a journal file as it happens. The file is rewritten with just the
+ * records still needed whenever a new plan is started or a plan is finished. Each upload records when it was started,
+ * so one whose file is never uploaded again can be aborted once it is old enough. The files of a plan are only held in
+ * memory when resuming a plan left unfinished by an earlier run.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class TransferJournal implements IMultipartUploadJournal
+{
+  private static final Logger LOG = Logger.getLogger(TransferJournal.class.getName());
+  private static final String JOURNAL_SUFFIX = ".journal";
+  private static final String JOURNAL_TEMP_SUFFIX = ".tmp";
+  private static final String SEPARATOR = "\t";
+  private static final String PLANNED = "P";
+  private static final String COMPLETED = "C";
+  private static final String UPLOAD_STARTED = "U";
+  private static final String PART_COMPLETED = "T";
+  private static final String UPLOAD_ENDED = "E";
+
+  private final Path theJournalFile;
+
+  // Guarded by this
+  private final Set<String> theOutstandingFiles = new LinkedHashSet<>();
+  private final Map<String, Upload> theUploads = new LinkedHashMap<>();
+  private BufferedWriter theJournalWriter;
+
+  /**
+   * A multipart upload in progress.
+   */
+  private static final class Upload
+  {
+    private final String theUploadId;
+    private final String theFingerprint;
+    private final long theStartedMillis;
+    private final Map<Integer, String> theParts = new HashMap<>();
+
+    Upload(String anUploadId, String aFingerprint, long aStartedMillis)
+    {
+      this.theUploadId = anUploadId;
+      this.theFingerprint = aFingerprint;
+      this.theStartedMillis = aStartedMillis;
+    }
+  }
+
+  private TransferJournal(Path aJournalFile) throws IOException
+  {
+    this.theJournalFile = aJournalFile;
+    loadJournal();
+  }
+
+  /**
+   * Opens the journal of a sync, creating it if there is none.
+   *
+   * @param aJournalDir directory to keep journals in
+   * @param aSyncKey identifies the sync, unique among all syncs
+   * @return the journal
+   * @throws ConnectorException if the journal cannot be read
+   */
+  public static TransferJournal open(Path aJournalDir, String aSyncKey) throws ConnectorException
+  {
+    Path myJournalFile = aJournalDir.resolve(aSyncKey.replaceAll("[^A-Za-z0-9._-]", "_") + JOURNAL_SUFFIX);
+    try
+    {
+      Files.createDirectories(aJournalDir);
+      return new TransferJournal(myJournalFile);
+    }
+    catch (IOException ex)
+    {
+      throw new ConnectorException("Unable to open transfer journal: " + myJournalFile, ex);
+    }
+  }
+
+  /**
+   * Gets the files planned by an earlier run that were not completed.
+   *
+   * @return the file ids, empty if the last plan was finished
+   */
+  public synchronized Set<String> getOutstandingFiles()
+  {
+    return new LinkedHashSet<>(theOutstandingFiles);
+  }
+
+  /**
+   * Starts a new plan, replacing any earlier one. The files of the plan are then recorded one at a time as they are
+   * found.
+   */
+  public synchronized void startPlan()
+  {
+    theOutstandingFiles.clear();
+    rewriteJournal();
+  }
+
+  /**
+   * Records a file the run is about to copy. The file is only written to the journal, not held in memory.
+   *
+   * @param aFileId the file id
+   */
+  public synchronized void planFile(String aFileId)
+  {
+    append(PLANNED, aFileId);
+  }
+
+  /**
+   * Records that a planned file has been copied.
+   *
+   * @param aFileId the file id
+   */
+  public synchronized void fileCompleted(String aFileId)
+  {
+    theOutstandingFiles.remove(aFileId);
+    append(COMPLETED, aFileId);
+  }
+
+  /**
+   * Records that the run has finished with its plan, whether or not every file was copied. Files that were not
+   * copied are found again when the next run plans. Uploads in progress are kept.
+   */
+  public synchronized void finishPlan()
+  {
+    theOutstandingFiles.clear();
+    rewriteJournal();
+  }
+
+  @Override
+  public synchronized String getUploadId(String aKey)
+  {
+    Upload myUpload = theUploads.get(aKey);
+    return myUpload == null ? null : myUpload.theUploadId;
+  }
+
+  @Override
+  public synchronized String getFingerprint(String aKey)
+  {
+    Upload myUpload = theUploads.get(aKey);
+    return myUpload == null ? null : myUpload.theFingerprint;
+  }
+
+  @Override
+  public synchronized Map<Integer, String> getCompletedParts(String aKey)
+  {
+    Upload myUpload = theUploads.get(aKey);
+    return myUpload == null ? new HashMap<Integer, String>() : new HashMap<>(myUpload.theParts);
+  }
+
+  @Override
+  public synchronized void uploadStarted(String aKey, String anUploadId, String aFingerprint)
+  {
+    long myStartedMillis = CurrentDateTime.getCurrentTimeInMillis();
+    theUploads.put(aKey, new Upload(anUploadId, aFingerprint, myStartedMillis));
+    append(UPLOAD_STARTED, aKey, anUploadId, aFingerprint, String.valueOf(myStartedMillis));
+  }
+
+  @Override
+  public synchronized void partCompleted(String aKey, int aPartNumber, String anETag)
+  {
+    Upload myUpload = theUploads.get(aKey);
+    if (myUpload != null)
+    {
+      myUpload.theParts.put(aPartNumber, anETag);
+      append(PART_COMPLETED, aKey, String.valueOf(aPartNumber), anETag);
+    }
+  }
+
+  @Override
+  public synchronized Map<String, String> getUploadsStartedBefore(long aTimeMillis)
+  {
+    Map<String, String> myUploads = new LinkedHashMap<>();
+    for (Map.Entry<String, Upload> myUpload : theUploads.entrySet())
+    {
+      if (myUpload.getValue().theStartedMillis < aTimeMillis)
+      {
+        myUploads.put(myUpload.getKey(), myUpload.getValue().theUploadId);
+      }
+    }
+    return myUploads;
+  }
+
+  @Override
+  public synchronized void uploadEnded(String aKey)
+  {
+    if (theUploads.remove(aKey) != null)
+    {
+      append(UPLOAD_ENDED, aKey);
+    }
+  }
+
+  /**
+   * Closes the journal file. Records made after closing reopen it.
+   */
+  public synchronized void close()
+  {
+    closeWriter();
+  }
+
+  private void append(String aType, String... someFields)
+  {
+    try
+    {
+      if (theJournalWriter == null)
+      {
+        theJournalWriter = Files.newBufferedWriter(theJournalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      writeRecord(theJournalWriter, aType, someFields);
+      theJournalWriter.flush();
+    }
+    catch (IOException ex)
+    {
+      // Only costs redoing the work if the run dies
+      LOG.log(Level.WARNING, "Unable to write transfer journal: " + theJournalFile, ex);
+    }
+  }
+
+  private void rewriteJournal()
+  {
+    closeWriter();
+    Path myTempFile = theJournalFile.resolveSibling(theJournalFile.getFileName() + JOURNAL_TEMP_SUFFIX);
+    try
+    {
+      try (BufferedWriter myWriter = Files.newBufferedWriter(myTempFile, StandardCharsets.UTF_8))
+      {
+        for (Map.Entry<String, Upload> myUpload : theUploads.entrySet())
+        {
+          writeRecord(myWriter, UPLOAD_STARTED, myUpload.getKey(), myUpload.getValue().theUploadId,
+                  myUpload.getValue().theFingerprint, String.valueOf(myUpload.getValue().theStartedMillis));
+          for (Map.Entry<Integer, String> myPart : myUpload.getValue().theParts.entrySet())
+          {
+            writeRecord(myWriter, PART_COMPLETED, myUpload.getKey(), String.valueOf(myPart.getKey()),
+                    myPart.getValue());
+          }
+        }
+        for (String myFileId : theOutstandingFiles)
+        {
+          writeRecord(myWriter, PLANNED, myFileId);
+        }
+      }
+      Files.move(myTempFile, theJournalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to rewrite transfer journal: " + theJournalFile, ex);
+    }
+  }
+
+  private void loadJournal() throws IOException
+  {
+    if (!Files.exists(theJournalFile))
+    {
+      return;
+    }
+    Set<String> myCompletedFiles = new HashSet<>();
+    long myLoadMillis = CurrentDateTime.getCurrentTimeInMillis();
+    for (String myLine : Files.readAllLines(theJournalFile, StandardCharsets.UTF_8))
+    {
+      String[] myFields = myLine.split(SEPARATOR);
+      try
+      {
+        switch (myFields[0])
+        {
+          case PLANNED:
+            theOutstandingFiles.add(myFields[1]);
+            break;
+          case COMPLETED:
+            myCompletedFiles.add(myFields[1]);
+            break;
+          case UPLOAD_STARTED:
+            // Uploads recorded without a start time are aged from now
+            theUploads.put(myFields[1], new Upload(myFields[2], myFields[3],
+                myFields.length > 4 ? Long.parseLong(myFields[4]) : myLoadMillis));
+            break;
+          case PART_COMPLETED:
+            Upload myUpload = theUploads.get(myFields[1]);
+            if (myUpload != null)
+            {
+              myUpload.theParts.put(Integer.parseInt(myFields[2]), myFields[3]);
+            }
+            break;
+          case UPLOAD_ENDED:
+            theUploads.remove(myFields[1]);
+            break;
+          default:
+            LOG.log(Level.WARNING, "Ignoring unexpected transfer journal record: {0}", myLine);
+        }
+      }
+      catch (ArrayIndexOutOfBoundsException | NumberFormatException ex)
+      {
+        // A record cut short by the process dying
+        LOG.log(Level.WARNING, "Ignoring incomplete transfer journal record: {0}", myLine);
+      }
+    }
+    theOutstandingFiles.removeAll(myCompletedFiles);
+  }
+
+  private void closeWriter()
+  {
+    if (theJournalWriter == null)
+    {
+      return;
+    }
+    try
+    {
+      theJournalWriter.close();
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.FINE, "Error closing transfer journal", ex);
+    }
+    theJournalWriter = null;
+  }
+
+  private static void writeRecord(BufferedWriter aWriter, String aType, String... someFields) throws IOException
+  {
+    aWriter.write(aType);
+    for (String myField : someFields)
+    {
+      aWriter.write(SEPARATOR);
+      aWriter.write(myField);
+    }
+    aWriter.newLine();
+  }
+}
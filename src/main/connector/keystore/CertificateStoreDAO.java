@@ -36,8 +36,12 @@ import java.util.logging.Logger;
  */
 public class CertificateStoreDAO extends AbstractKeystoreDAO
 {
+  /**
+   * Certificate store file location.
+   */
+  public static final String KS_LOCATION = System.getProperty("jetty.base") + "/etc/keystore.p12";
+
   private static final Logger LOG = Logger.getLogger(CertificateStoreDAO.class.getName());
-  private static final String KS_LOCATION = System.getProperty("jetty.base") + "/etc/keystore.p12";
 
   /**
    * Create an instance of this bean.
@@ -74,12 +74,33 @@ public class AbstractJobController
    * @return te result
    * @throws JobExecutionException
    */
+  protected EventResult execute(String aJobName, String aJobTarget, String aJobExecuterType, Date aTargetFireTime,
+                                ExecutionType anExecutionType)
+          throws JobExecutionException
+  {
+    return execute(aJobName, aJobTarget, aJobExecuterType, aTargetFireTime, anExecutionType, 0);
+  }
+
+  /**
+   * Executes a job once and adds the Event Log entries. If the job is not successful and its retry policy allows, a
+   * retry is scheduled by {@link #scheduleRetry(Integer, Date)} rather than waited for, so the thread is free to run
+   * other jobs in the meantime.
+   *
+   * @param aJobName
+   * @param aJobTarget
+   * @param aJobExecuterType
+   * @param aTargetFireTime
+   * @param anExecutionType
+   * @param aRetryCount the retries made before this execution
+   * @return te result
+   * @throws JobExecutionException
+   */
   @SuppressWarnings(
       {
         "checkstyle:multiplestringliterals", "checkstyle:illegalcatch", "UseSpecificCatch"
       })
   protected EventResult execute(String aJobName, String aJobTarget, String aJobExecuterType, Date aTargetFireTime,
-                                ExecutionType anExecutionType)
+                                ExecutionType anExecutionType, Integer aRetryCount)
           throws JobExecutionException
   {
     try
@@ -90,37 +111,35 @@ public class AbstractJobController
         throw new JobExecutionException("Invalid Job Executer Class: " + aJobExecuterType);
       }
       IJobExecuter myJobExecuter = (IJobExecuter) Class.forName(aJobExecuterType).newInstance();
-      
-      Integer myRetryCount = 0;
-      EventResult myResult;
-      
+
       // Execute the job
-      myResult = executeJob(myJobExecuter, aJobName, aJobTarget, aTargetFireTime, myRetryCount, anExecutionType);
+      EventResult myResult = executeJob(myJobExecuter, aJobName, aJobTarget, aTargetFireTime, aRetryCount,
+          anExecutionType);
 
-      ConnectorConfig aConnectorConfig = ConnectorConfig.loadFromKeystore();
-      // If the job was not successful then retry (so long as the maxRetries isn't zero)
-      while (!anExecutionType.equals(ExecutionType.MANUAL) && myRetryCount < aConnectorConfig.getJobMaxRetries()
+      // If the job was not successful then retry (so long as the policy allows)
+      if (!anExecutionType.equals(ExecutionType.MANUAL)
           && myResult.getResult() != EventResult.Result.SUCCESS && myResult.getResult() != EventResult.Result.WARNINGS)
       {
-        try
+        RetryPolicy myPolicy = myJobExecuter.getRetryPolicy(ConnectorConfig.loadFromKeystore());
+        if (myPolicy.isRetryAllowed(aRetryCount))
         {
-          myRetryCount++;
+          long myDelay = myPolicy.getDelayMillis(aRetryCount + 1);
           LOG.log(Level.INFO, "Job retrying in {0} seconds: {1} (Retry {2})", new Object[]
           {
-            aConnectorConfig.getJobRepeatInterval(),
-            aJobName, myRetryCount,
+            myDelay / 1000,
+            aJobName, aRetryCount + 1,
           });
-          // Sleep for the retryInterval seconds then run again
-          Thread.sleep(aConnectorConfig.getJobRepeatInterval() * 1000);
-          myResult = executeJob(myJobExecuter, aJobName, aJobTarget, aTargetFireTime, myRetryCount, anExecutionType);
-        }
-        catch (InterruptedException ex)
-        {
-          myResult = new EventResult(aJobName, ex, CurrentDateTime.getCurrentTimeInMillis());
-          logResult(myResult, myRetryCount, anExecutionType);
+          try
+          {
+            scheduleRetry(aRetryCount + 1, new Date(CurrentDateTime.getCurrentTimeInMillis() + myDelay));
+          }
+          catch (ConnectorException myEx)
+          {
+            LOG.log(Level.SEVERE, "Failed to schedule retry of job: " + aJobName, myEx);
+          }
         }
       }
-      
+
       return myResult;
     }
     catch (IllegalAccessException | ClassNotFoundException | InstantiationException ex)
@@ -133,6 +152,19 @@ public class AbstractJobController
     }
   }
 
+  /**
+   * Schedules the job just executed to run again. Only job controllers run by a scheduler can retry jobs, so by
+   * default the retry is dropped.
+   *
+   * @param aRetryCount the retry, starting at 1
+   * @param aRetryTime when to run the retry
+   * @throws ConnectorException if the retry cannot be scheduled
+   */
+  protected void scheduleRetry(Integer aRetryCount, Date aRetryTime) throws ConnectorException
+  {
+    LOG.log(Level.WARNING, "Job retries are not supported by {0}", getClass().getName());
+  }
+
   @SuppressWarnings("IllegalCatch")
   private EventResult executeJob(IJobExecuter anExecuter, String aJobName, String aJobTarget, Date aTargetFireTime,
       Integer aRetryCount, ExecutionType anExecutionType)
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.schedulers.quartz;
+
+import com.energysys.connector.exception.ConnectorException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Settings for keeping the scheduler's jobs and triggers in the connector database rather than in memory.
+ *
+ * The Quartz settings from quartz.properties are overridden by those from quartz-jdbc.properties, and the job store
+ * tables are created from quartz-jdbc-derby.sql if they do not exist yet.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class JdbcJobStore
+{
+  private static final Logger LOG = Logger.getLogger(JdbcJobStore.class.getName());
+  private static final String QUARTZ_PROPERTIES = "quartz.properties";
+  private static final String JDBC_PROPERTIES = "quartz-jdbc.properties";
+  private static final String SCHEMA_SCRIPT = "quartz-jdbc-derby.sql";
+  private static final String DATA_SOURCE_PREFIX = "org.quartz.dataSource.";
+  private static final String PROPERTY_DATA_SOURCE = "org.quartz.jobStore.dataSource";
+  private static final String PROPERTY_TABLE_PREFIX = "org.quartz.jobStore.tablePrefix";
+  private static final String CHECK_TABLE = "JOB_DETAILS";
+  private static final String COMMENT = "--";
+  private static final String STATEMENT_END = ";";
+
+  private JdbcJobStore()
+  {
+  }
+
+  /**
+   * Gets the Quartz settings for a scheduler using the job store, creating its tables if needed.
+   *
+   * @return the settings
+   * @throws ConnectorException if the settings cannot be read or the tables cannot be created
+   */
+  static Properties getProperties() throws ConnectorException
+  {
+    Properties myProps = new Properties();
+    loadProperties(myProps, QUARTZ_PROPERTIES);
+    loadProperties(myProps, JDBC_PROPERTIES);
+    createTables(myProps);
+    return myProps;
+  }
+
+  private static void loadProperties(Properties someProps, String aResource) throws ConnectorException
+  {
+    try (InputStream myIn = JdbcJobStore.class.getClassLoader().getResourceAsStream(aResource))
+    {
+      if (myIn == null)
+      {
+        throw new ConnectorException("Scheduler settings not found: " + aResource);
+      }
+      someProps.load(myIn);
+    }
+    catch (IOException ex)
+    {
+      throw new ConnectorException("Error reading scheduler settings: " + aResource, ex);
+    }
+  }
+
+  private static void createTables(Properties someProps) throws ConnectorException
+  {
+    String myDataSource = DATA_SOURCE_PREFIX + someProps.getProperty(PROPERTY_DATA_SOURCE) + ".";
+    String myCheckTable = someProps.getProperty(PROPERTY_TABLE_PREFIX) + CHECK_TABLE;
+    try (Connection myConnection = DriverManager.getConnection(someProps.getProperty(myDataSource + "URL"),
+        someProps.getProperty(myDataSource + "user"), someProps.getProperty(myDataSource + "password")))
+    {
+      try (ResultSet myTables = myConnection.getMetaData().getTables(null, null, myCheckTable.toUpperCase(), null))
+      {
+        if (myTables.next())
+        {
+          return;
+        }
+      }
+      LOG.info("Creating scheduler job store tables");
+      myConnection.setAutoCommit(false);
+      try (Statement myStatement = myConnection.createStatement())
+      {
+        for (String mySql : readScript())
+        {
+          myStatement.executeUpdate(mySql);
+        }
+      }
+      myConnection.commit();
+    }
+    catch (SQLException ex)
+    {
+      throw new ConnectorException("Error creating scheduler job store tables", ex);
+    }
+  }
+
+  private static List<String> readScript() throws ConnectorException
+  {
+    StringBuilder myScript = new StringBuilder();
+    try (InputStream myIn = JdbcJobStore.class.getClassLoader().getResourceAsStream(SCHEMA_SCRIPT))
+    {
+      if (myIn == null)
+      {
+        throw new ConnectorException("Scheduler job store script not found: " + SCHEMA_SCRIPT);
+      }
+      BufferedReader myReader = new BufferedReader(new InputStreamReader(myIn, StandardCharsets.UTF_8));
+      String myLine;
+      while ((myLine = myReader.readLine()) != null)
+      {
+        if (!myLine.trim().startsWith(COMMENT))
+        {
+          myScript.append(myLine).append('\n');
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      throw new ConnectorException("Error reading scheduler job store script: " + SCHEMA_SCRIPT, ex);
+    }
+    // Derby takes one statement at a time, without the terminator
+    List<String> myStatements = new ArrayList<>();
+    for (String myStatement : myScript.toString().split(STATEMENT_END))
+    {
+      if (!myStatement.trim().isEmpty())
+      {
+        myStatements.add(myStatement.trim());
+      }
+    }
+    return myStatements;
+  }
+}
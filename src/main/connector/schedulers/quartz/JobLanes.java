@@ -0,0 +1,483 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.schedulers.quartz;
+
+import com.energysys.calendar.CurrentDateTime;
+import com.energysys.connector.connectors.fileconnector.FileConnectorUtil;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quartz.JobKey;
+
+/**
+ * Runs jobs handed over by the Quartz scheduler on separate lanes, each with its own bounded pool of workers, so a
+ * slow job in one lane does not hold up jobs in another. Runs of the same job never overlap: a run fired while an
+ * earlier one is still queued or running waits for it to finish. Scheduled runs are coalesced, so at most one of them
+ * waits per job and missed fires are skipped, while re-runs each wait their turn, up to {@link #MAX_WAITING_RUNS}.
+ *
+ * The Quartz worker only hands the job over, so it is free to fire the next trigger straight away.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class JobLanes
+{
+  private static final Logger LOG = Logger.getLogger(JobLanes.class.getName());
+
+  /** The most re-runs of one job that may wait for an earlier run of it to finish. Later re-runs are refused. **/
+  public static final int MAX_WAITING_RUNS = 1000;
+
+  private static final int DEFAULT_WORKERS = 1;
+
+  private static final Map<Lane, LaneExecutor> LANES = new EnumMap<>(Lane.class);
+
+  private static volatile boolean isShutdown;
+
+  // Runs waiting for an earlier run of the same job to finish, keyed by job. Guarded by WAITING_RUNS
+  private static final Map<String, WaitingRuns> WAITING_RUNS = new HashMap<>();
+
+  /**
+   * The outcome of handing a run over.
+   */
+  public enum Submission
+  {
+    /** The run has started or is waiting for a worker or for an earlier run of the job. **/
+    ACCEPTED,
+    /** A scheduled run skipped, as a scheduled run of the job is already waiting. **/
+    COALESCED,
+    /** A re-run refused, as {@link #MAX_WAITING_RUNS} runs of the job are already waiting. **/
+    TOO_MANY_WAITING,
+    /** Refused, as the lanes have been stopped. **/
+    SHUT_DOWN
+  }
+
+  /**
+   * The lanes jobs are run on.
+   */
+  public enum Lane
+  {
+    /** File syncs to and from S3. **/
+    FILE_SYNC,
+    /** Tag list queries and other data queries. **/
+    DATA_QUERY,
+    /** Remote query executions. **/
+    REMOTE,
+    /** Housekeeping, such as synchronising remote query executions. **/
+    CONTROL
+  }
+
+  private JobLanes()
+  {
+  }
+
+  /**
+   * Sets the number of workers of each lane. Lanes already running are resized.
+   *
+   * @param someWorkers the number of workers of each lane, lanes not given keep their size
+   */
+  public static synchronized void configure(Map<Lane, Integer> someWorkers)
+  {
+    isShutdown = false;
+    for (Map.Entry<Lane, Integer> myWorkers : someWorkers.entrySet())
+    {
+      getLane(myWorkers.getKey()).resize(Math.max(1, myWorkers.getValue()));
+    }
+  }
+
+  /**
+   * Gets the lane for a job executer.
+   *
+   * @param aJobExecuterType class name of the job executer
+   * @return the lane
+   */
+  public static Lane laneFor(String aJobExecuterType)
+  {
+    if (aJobExecuterType != null
+        && aJobExecuterType.startsWith(FileConnectorUtil.class.getPackage().getName() + "."))
+    {
+      return Lane.FILE_SYNC;
+    }
+    return Lane.DATA_QUERY;
+  }
+
+  /**
+   * Gets the key that stops runs of a job overlapping. Scheduled runs and re-runs of the same JobConfiguration share
+   * a key.
+   *
+   * @param aJobKey the Quartz key of the job, for a retry the key of the job being retried
+   * @return the key
+   */
+  public static String keyOf(JobKey aJobKey)
+  {
+    if (SchedulerManager.REMOTE_EXECUTION_GROUP_NAME.equals(aJobKey.getGroup()))
+    {
+      return SchedulerManager.REMOTE_EXECUTION_GROUP_NAME + "." + aJobKey.getName();
+    }
+    return SchedulerManager.SCHEDULED_GROUP_NAME + "." + aJobKey.getName();
+  }
+
+  /**
+   * Checks whether a run of a job is queued or running.
+   *
+   * @param aJobKey the key of the job, as from {@link #keyOf(JobKey)}
+   * @return true if a run has been handed over and not finished
+   */
+  public static boolean isActive(String aJobKey)
+  {
+    synchronized (WAITING_RUNS)
+    {
+      return WAITING_RUNS.containsKey(aJobKey);
+    }
+  }
+
+  /**
+   * Hands a job over to be run on a lane. If a run of the same job is already queued or running, this run waits for
+   * it to finish first. A coalesced run is skipped if another coalesced run of the job is already waiting, as that
+   * run covers it. Any other run is refused if {@link #MAX_WAITING_RUNS} runs of the job are already waiting.
+   *
+   * @param aLane the lane
+   * @param aJobKey identifies the job, runs with the same key never overlap
+   * @param aScheduledFireTime when the job was due to run, used to measure how long it waited
+   * @param isCoalesced whether the run can be skipped in favour of a run of the job already waiting
+   * @param aJob the job
+   * @return whether the run was accepted, and if not why
+   */
+  public static Submission submit(Lane aLane, final String aJobKey, final Date aScheduledFireTime,
+      boolean isCoalesced, final Runnable aJob)
+  {
+    final LaneExecutor myLane;
+    synchronized (JobLanes.class)
+    {
+      // Lanes are not made again once stopped
+      if (isShutdown)
+      {
+        LOG.log(Level.WARNING, "Lanes stopped, run of job {0} refused", aJobKey);
+        return Submission.SHUT_DOWN;
+      }
+      myLane = getLane(aLane);
+    }
+    Runnable myRun = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          myLane.started(aJobKey, aScheduledFireTime);
+          aJob.run();
+        }
+        finally
+        {
+          runNext(myLane, aJobKey);
+        }
+      }
+    };
+    synchronized (WAITING_RUNS)
+    {
+      WaitingRuns myWaiting = WAITING_RUNS.get(aJobKey);
+      if (myWaiting != null)
+      {
+        if (isCoalesced && myWaiting.theCoalescedCount > 0)
+        {
+          LOG.log(Level.INFO, "Job {0} still running with a scheduled run waiting, this run is skipped", aJobKey);
+          return Submission.COALESCED;
+        }
+        if (myWaiting.theRuns.size() >= MAX_WAITING_RUNS)
+        {
+          LOG.log(Level.WARNING, "Job {0} already has {1} runs waiting, this run is dropped", new Object[]
+          {
+            aJobKey, myWaiting.theRuns.size(),
+          });
+          return Submission.TOO_MANY_WAITING;
+        }
+        LOG.log(Level.INFO, "Job {0} still running, this run will wait for it", aJobKey);
+        myWaiting.theRuns.add(new WaitingRun(myRun, isCoalesced));
+        myWaiting.theCoalescedCount += isCoalesced ? 1 : 0;
+        myLane.theWaitingCount.incrementAndGet();
+        return Submission.ACCEPTED;
+      }
+      WAITING_RUNS.put(aJobKey, new WaitingRuns());
+    }
+    myLane.theExecutor.execute(myRun);
+    return Submission.ACCEPTED;
+  }
+
+  private static void runNext(LaneExecutor aLane, String aJobKey)
+  {
+    WaitingRun myNext;
+    synchronized (WAITING_RUNS)
+    {
+      WaitingRuns myWaiting = WAITING_RUNS.get(aJobKey);
+      myNext = myWaiting == null ? null : myWaiting.theRuns.poll();
+      if (myNext == null)
+      {
+        WAITING_RUNS.remove(aJobKey);
+        return;
+      }
+      myWaiting.theCoalescedCount -= myNext.isCoalesced ? 1 : 0;
+      aLane.theWaitingCount.decrementAndGet();
+    }
+    aLane.theExecutor.execute(myNext.theRun);
+  }
+
+  /**
+   * Gets the current state of every lane.
+   *
+   * @return the state of each lane
+   */
+  public static synchronized List<LaneStatus> getStatus()
+  {
+    List<LaneStatus> myStatus = new ArrayList<>();
+    for (Lane myLane : Lane.values())
+    {
+      myStatus.add(getLane(myLane).getStatus());
+    }
+    return myStatus;
+  }
+
+  /**
+   * Stops every lane. Jobs running are interrupted and jobs waiting are dropped.
+   */
+  public static synchronized void shutdownAll()
+  {
+    isShutdown = true;
+    for (LaneExecutor myLane : LANES.values())
+    {
+      myLane.theExecutor.shutdownNow();
+    }
+    LANES.clear();
+    synchronized (WAITING_RUNS)
+    {
+      WAITING_RUNS.clear();
+    }
+  }
+
+  /**
+   * Checks whether the lanes have been stopped. A run that finishes after this may have been cut short.
+   *
+   * @return true once {@link #shutdownAll()} has been called
+   */
+  public static boolean isShutdown()
+  {
+    return isShutdown;
+  }
+
+  private static LaneExecutor getLane(Lane aLane)
+  {
+    LaneExecutor myLane = LANES.get(aLane);
+    if (myLane == null)
+    {
+      myLane = new LaneExecutor(aLane, DEFAULT_WORKERS);
+      LANES.put(aLane, myLane);
+    }
+    return myLane;
+  }
+
+  /**
+   * The runs of one job waiting for an earlier run of it to finish.
+   */
+  private static final class WaitingRuns
+  {
+    private final Deque<WaitingRun> theRuns = new ArrayDeque<>();
+    private int theCoalescedCount;
+  }
+
+  /**
+   * A run waiting for an earlier run of its job to finish.
+   */
+  private static final class WaitingRun
+  {
+    private final Runnable theRun;
+    private final boolean isCoalesced;
+
+    WaitingRun(Runnable aRun, boolean isCoalesced)
+    {
+      this.theRun = aRun;
+      this.isCoalesced = isCoalesced;
+    }
+  }
+
+  /**
+   * The pool of workers of one lane.
+   */
+  private static final class LaneExecutor
+  {
+    private final Lane theLane;
+    private final ThreadPoolExecutor theExecutor;
+    private final AtomicInteger theWaitingCount = new AtomicInteger();
+
+    // Guarded by this
+    private long theLastStartDelay;
+    private long theMaxStartDelay;
+    private long theStartedCount;
+
+    LaneExecutor(final Lane aLane, int aWorkers)
+    {
+      this.theLane = aLane;
+      final AtomicInteger myThreadCount = new AtomicInteger();
+      // The queue holds at most one run per job, later runs of a job wait in WAITING_RUNS where they are capped
+      this.theExecutor = new ThreadPoolExecutor(aWorkers, aWorkers, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable aRunnable)
+        {
+          Thread myThread = new Thread(aRunnable,
+              "job-lane-" + aLane.name().toLowerCase() + "-" + myThreadCount.incrementAndGet());
+          myThread.setDaemon(true);
+          return myThread;
+        }
+      });
+    }
+
+    void resize(int aWorkers)
+    {
+      // Grow the maximum first, it can never be below the core size
+      if (aWorkers > theExecutor.getMaximumPoolSize())
+      {
+        theExecutor.setMaximumPoolSize(aWorkers);
+        theExecutor.setCorePoolSize(aWorkers);
+      }
+      else
+      {
+        theExecutor.setCorePoolSize(aWorkers);
+        theExecutor.setMaximumPoolSize(aWorkers);
+      }
+    }
+
+    void started(String aJobKey, Date aScheduledFireTime)
+    {
+      long myDelay = aScheduledFireTime == null
+          ? 0 : Math.max(0, CurrentDateTime.getCurrentTimeInMillis() - aScheduledFireTime.getTime());
+      synchronized (this)
+      {
+        theLastStartDelay = myDelay;
+        theMaxStartDelay = Math.max(theMaxStartDelay, myDelay);
+        theStartedCount++;
+      }
+      LOG.info(MessageFormat.format("Job {0} started on {1} lane {2} ms after it was due, {3} queued",
+          aJobKey, theLane, String.valueOf(myDelay), getQueueDepth()));
+    }
+
+    int getQueueDepth()
+    {
+      return theExecutor.getQueue().size() + theWaitingCount.get();
+    }
+
+    synchronized LaneStatus getStatus()
+    {
+      return new LaneStatus(theLane, theExecutor.getCorePoolSize(), theExecutor.getActiveCount(), getQueueDepth(),
+          theStartedCount, theLastStartDelay, theMaxStartDelay);
+    }
+  }
+
+  /**
+   * A snapshot of the state of one lane.
+   */
+  public static final class LaneStatus
+  {
+    private final Lane theLane;
+    private final int theWorkers;
+    private final int theRunning;
+    private final int theQueueDepth;
+    private final long theStartedCount;
+    private final long theLastStartDelay;
+    private final long theMaxStartDelay;
+
+    LaneStatus(Lane aLane, int aWorkers, int aRunning, int aQueueDepth, long aStartedCount, long aLastStartDelay,
+        long aMaxStartDelay)
+    {
+      this.theLane = aLane;
+      this.theWorkers = aWorkers;
+      this.theRunning = aRunning;
+      this.theQueueDepth = aQueueDepth;
+      this.theStartedCount = aStartedCount;
+      this.theLastStartDelay = aLastStartDelay;
+      this.theMaxStartDelay = aMaxStartDelay;
+    }
+
+    public Lane getLane()
+    {
+      return theLane;
+    }
+
+    public int getWorkers()
+    {
+      return theWorkers;
+    }
+
+    public int getRunning()
+    {
+      return theRunning;
+    }
+
+    /**
+     * Gets the number of runs waiting for a worker or for an earlier run of the same job.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth()
+    {
+      return theQueueDepth;
+    }
+
+    public long getStartedCount()
+    {
+      return theStartedCount;
+    }
+
+    /**
+     * Gets how long the last run started after it was due.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getLastStartDelay()
+    {
+      return theLastStartDelay;
+    }
+
+    /**
+     * Gets the longest any run has started after it was due.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getMaxStartDelay()
+    {
+      return theMaxStartDelay;
+    }
+
+    @Override
+    public String toString()
+    {
+      return MessageFormat.format("{0} workers, {1} running, {2} queued, {3} started, start delay {4} ms (max {5} ms)",
+          theWorkers, theRunning, theQueueDepth, theStartedCount, theLastStartDelay, theMaxStartDelay);
+    }
+  }
+}
@@ -20,11 +20,18 @@ import com.energysys.calendar.CurrentDateTime;
 import com.energysys.connector.EventResult;
 import com.energysys.connector.JobConfiguration;
 import com.energysys.connector.database.GenericDAO;
+import com.energysys.connector.exception.ConnectorException;
+import com.energysys.connector.web.beans.EventLogBean;
 
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
 
 /**
  * Main Quartz job class for running syncs.
@@ -37,6 +44,12 @@ public class QuartzJobController extends AbstractJobController implements Job
 
   private static final Logger LOG = Logger.getLogger(QuartzJobController.class.getName());
 
+  private JobKey theJobKey;
+
+  private Date theTargetFireTime;
+
+  private Boolean isRetryScheduled = false;
+
   /**
    * Default Constructor.
    */
@@ -45,12 +58,55 @@ public class QuartzJobController extends AbstractJobController implements Job
   }
 
   @Override
+  public void execute(final JobExecutionContext aJobExecutionContext) throws JobExecutionException
+  {
+    LOG.info("Job initiated: " + aJobExecutionContext.getJobDetail().getKey().getName());
+
+    // Hand the job over to its lane so the Quartz worker is free for the next trigger
+    final JobKey myLaneRunKey = recordLaneRun(aJobExecutionContext);
+    // Scheduled runs that fall behind skip the fires they missed, re-runs each cover their own period
+    boolean isCoalesced = SchedulerManager.SCHEDULED_GROUP_NAME.equals(getRetriedKey(aJobExecutionContext).getGroup());
+    JobLanes.Submission mySubmission = JobLanes.submit(getLane(aJobExecutionContext),
+        JobLanes.keyOf(getRetriedKey(aJobExecutionContext)), aJobExecutionContext.getScheduledFireTime(), isCoalesced,
+        new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        runJob(aJobExecutionContext);
+        // A run cut short by the lanes stopping keeps its record, so it is made again on the next start
+        if (!JobLanes.isShutdown())
+        {
+          removeLaneRun(myLaneRunKey);
+        }
+      }
+    });
+    switch (mySubmission)
+    {
+      case COALESCED:
+        removeLaneRun(myLaneRunKey);
+        break;
+
+      case TOO_MANY_WAITING:
+        removeLaneRun(myLaneRunKey);
+        EventLogBean.addLog(new EventResult("Job run dropped: " + getRetriedKey(aJobExecutionContext).getName(),
+            EventResult.Result.FAILED, "Too many runs waiting",
+            MessageFormat.format("More than {0} runs of the job were waiting for an earlier run to finish",
+                JobLanes.MAX_WAITING_RUNS),
+            CurrentDateTime.getCurrentTimeInMillis()));
+        break;
+
+      default:
+        // Accepted, or refused as the lanes have stopped, in which case any record is kept for the next start
+    }
+  }
+
   @SuppressWarnings("IllegalCatch")
-  public void execute(JobExecutionContext aJobExecutionContext) throws JobExecutionException
+  private void runJob(JobExecutionContext aJobExecutionContext)
   {
     long myStartTime = CurrentDateTime.getCurrentTimeInMillis();
-
-    LOG.info("Job initiated: " + aJobExecutionContext.getJobDetail().getKey().getName());
+    theJobKey = getRetriedKey(aJobExecutionContext);
+    theTargetFireTime = getTargetFireTime(aJobExecutionContext);
 
     EventResult myResult;
     try
@@ -83,7 +139,7 @@ public class QuartzJobController extends AbstractJobController implements Job
   {
     EventResult myResult;
     // Load Job from Local Database
-    Integer myJobId = Integer.parseInt(aJobExecutionContext.getJobDetail().getKey().getName());
+    Integer myJobId = Integer.parseInt(theJobKey.getName());
     JobConfiguration myJobConfig;
     try (GenericDAO myDAO = new GenericDAO())
     {
@@ -94,8 +150,9 @@ public class QuartzJobController extends AbstractJobController implements Job
         myJobConfig.getName(),
         myJobConfig.getJobExecuterTarget(),
         myJobConfig.getJobExecuterType(),
-        aJobExecutionContext.getScheduledFireTime(),
-        myExecutionType);
+        theTargetFireTime,
+        myExecutionType,
+        getRetryCount(aJobExecutionContext));
     return myResult;
   }
 
@@ -106,16 +163,22 @@ public class QuartzJobController extends AbstractJobController implements Job
     RemoteQueryExecution myRemoteQueryExecution;
     try (GenericDAO myDAO = new GenericDAO())
     {
-      myRemoteQueryExecution = myDAO.findById(RemoteQueryExecution.class,
-          aJobExecutionContext.getJobDetail().getKey().getName());
+      myRemoteQueryExecution = myDAO.findById(RemoteQueryExecution.class, theJobKey.getName());
     }
 
     EventResult myResult = super.execute(
         myRemoteQueryExecution.getQueryName(),
         myRemoteQueryExecution.getGUID(),
         myRemoteQueryExecution.getExecuterType(),
-        aJobExecutionContext.getScheduledFireTime(),
-        myExecutionType);
+        theTargetFireTime,
+        myExecutionType,
+        getRetryCount(aJobExecutionContext));
+
+    // Leave the status as it is until the last retry, so EnergySys is not told it failed
+    if (isRetryScheduled)
+    {
+      return myResult;
+    }
 
     // Update the RemoteQueryExecution status
     switch (myResult.getResult())
@@ -137,9 +200,111 @@ public class QuartzJobController extends AbstractJobController implements Job
     return myResult;
   }
 
+  @Override
+  protected void scheduleRetry(Integer aRetryCount, Date aRetryTime) throws ConnectorException
+  {
+    new SchedulerManager().scheduleRetry(theJobKey, theTargetFireTime, aRetryCount, aRetryTime);
+    isRetryScheduled = true;
+  }
+
+  /**
+   * Records the run with the scheduler until the lane has finished it, so a persistent scheduler can make it again if
+   * the connector stops first.
+   *
+   * @return the key of the record, or null if there is none
+   */
+  private static JobKey recordLaneRun(JobExecutionContext aJobExecutionContext)
+  {
+    try
+    {
+      return new SchedulerManager().recordLaneRun(getRetriedKey(aJobExecutionContext),
+          getTargetFireTime(aJobExecutionContext), getRetryCount(aJobExecutionContext));
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to record run, it will be lost if the connector stops before it is made", ex);
+      return null;
+    }
+  }
+
+  private static void removeLaneRun(JobKey aLaneRunKey)
+  {
+    if (aLaneRunKey == null)
+    {
+      return;
+    }
+    try
+    {
+      new SchedulerManager().removeLaneRun(aLaneRunKey);
+    }
+    catch (ConnectorException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to remove record of run, it will be made again on the next start", ex);
+    }
+  }
+
+  /**
+   * Gets the key of the job being run. For a retry or a recovered lane run, this is the key of the job it runs.
+   */
+  private static JobKey getRetriedKey(JobExecutionContext aJobExecutionContext)
+  {
+    JobKey myKey = aJobExecutionContext.getJobDetail().getKey();
+    if (!SchedulerManager.RETRY_GROUP_NAME.equals(myKey.getGroup())
+        && !SchedulerManager.LANE_RUN_GROUP_NAME.equals(myKey.getGroup()))
+    {
+      return myKey;
+    }
+    JobDataMap myData = aJobExecutionContext.getMergedJobDataMap();
+    return new JobKey(myData.getString(SchedulerManager.RETRY_JOB_NAME),
+        myData.getString(SchedulerManager.RETRY_JOB_GROUP));
+  }
+
+  /**
+   * Gets when the job was due to run. For a retry, this is when the job being retried was originally due.
+   */
+  private static Date getTargetFireTime(JobExecutionContext aJobExecutionContext)
+  {
+    JobDataMap myData = aJobExecutionContext.getMergedJobDataMap();
+    if (myData.containsKey(SchedulerManager.RETRY_ORIGINAL_FIRE_TIME))
+    {
+      return new Date(myData.getLong(SchedulerManager.RETRY_ORIGINAL_FIRE_TIME));
+    }
+    return aJobExecutionContext.getScheduledFireTime();
+  }
+
+  private static Integer getRetryCount(JobExecutionContext aJobExecutionContext)
+  {
+    JobDataMap myData = aJobExecutionContext.getMergedJobDataMap();
+    return myData.containsKey(SchedulerManager.RETRY_COUNT) ? myData.getInt(SchedulerManager.RETRY_COUNT) : 0;
+  }
+
+  /**
+   * Gets the lane to run a job on, from its group and, for local jobs, its job executer. A job that cannot be loaded
+   * goes on the data query lane, where it fails as before.
+   */
+  @SuppressWarnings("IllegalCatch")
+  private JobLanes.Lane getLane(JobExecutionContext aJobExecutionContext)
+  {
+    JobKey myKey = getRetriedKey(aJobExecutionContext);
+    if (SchedulerManager.REMOTE_EXECUTION_GROUP_NAME.equals(myKey.getGroup()))
+    {
+      return JobLanes.Lane.REMOTE;
+    }
+    try (GenericDAO myDAO = new GenericDAO())
+    {
+      JobConfiguration myJobConfig = myDAO.findById(JobConfiguration.class, Integer.parseInt(myKey.getName()));
+      return JobLanes.laneFor(myJobConfig == null ? null : myJobConfig.getJobExecuterType());
+    }
+    catch (Exception ex)
+    {
+      LOG.log(Level.WARNING, "Unable to load job to choose its lane: " + myKey, ex);
+      return JobLanes.Lane.DATA_QUERY;
+    }
+  }
+
   private ExecutionType getExecutionType(JobExecutionContext aJobExecutionContext) throws JobExecutionException
   {
-    final String myGroupName = aJobExecutionContext.getJobDetail().getKey().getGroup();
+    final String myGroupName = getRetriedKey(aJobExecutionContext).getGroup();
     if (myGroupName.equals(SchedulerManager.RERUN_GROUP_NAME))
     {
       return ExecutionType.RE_RUN;
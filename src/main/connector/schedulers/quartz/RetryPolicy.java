@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.schedulers.quartz;
+
+import com.energysys.connector.config.ConnectorConfig;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a failed job is retried. The delay before each retry doubles, from the initial delay up to the maximum, and is
+ * varied at random by up to a fifth either way so jobs that failed together do not all retry at the same moment.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class RetryPolicy
+{
+  private static final double JITTER = 0.2;
+
+  private final int theMaxRetries;
+  private final long theInitialDelayMillis;
+  private final long theMaxDelayMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param aMaxRetries the number of times a job is retried, zero for no retries
+   * @param anInitialDelayMillis the delay before the first retry
+   * @param aMaxDelayMillis the longest delay before any retry
+   */
+  public RetryPolicy(int aMaxRetries, long anInitialDelayMillis, long aMaxDelayMillis)
+  {
+    this.theMaxRetries = Math.max(0, aMaxRetries);
+    this.theInitialDelayMillis = Math.max(0, anInitialDelayMillis);
+    this.theMaxDelayMillis = Math.max(theInitialDelayMillis, aMaxDelayMillis);
+  }
+
+  /**
+   * Creates the policy set in the connector configuration.
+   *
+   * @param aConfig the connector configuration
+   * @return the policy
+   */
+  public static RetryPolicy fromConnectorConfig(ConnectorConfig aConfig)
+  {
+    return new RetryPolicy(aConfig.getJobMaxRetries(), aConfig.getJobRepeatInterval() * 1000L,
+        aConfig.getJobRetryMaxInterval() * 1000L);
+  }
+
+  /**
+   * Checks whether a job that has failed after a number of retries can be retried again.
+   *
+   * @param aRetryCount the retries made so far
+   * @return true if the job can be retried
+   */
+  public boolean isRetryAllowed(int aRetryCount)
+  {
+    return aRetryCount < theMaxRetries;
+  }
+
+  /**
+   * Gets the delay before a retry.
+   *
+   * @param aRetryNumber the retry, starting at 1
+   * @return the delay in milliseconds
+   */
+  public long getDelayMillis(int aRetryNumber)
+  {
+    long myDelay = theInitialDelayMillis;
+    for (int i = 1; i < aRetryNumber && myDelay < theMaxDelayMillis; i++)
+    {
+      myDelay *= 2;
+    }
+    myDelay = Math.min(myDelay, theMaxDelayMillis);
+    return Math.round(myDelay * (1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+  }
+
+  public int getMaxRetries()
+  {
+    return theMaxRetries;
+  }
+}
@@ -30,7 +30,12 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.quartz.CalendarIntervalScheduleBuilder;
@@ -43,10 +48,12 @@ import org.quartz.ScheduleBuilder;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SimpleScheduleBuilder;
+import org.quartz.SimpleTrigger;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.quartz.TriggerKey;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
 
 /**
  * This class is responsible for scheduler management.
@@ -63,10 +70,40 @@ public class SchedulerManager
   public static final String RERUN_GROUP_NAME = "rerun.group";
   /** Remote Execution jobs Quartz group. **/
   public static final String REMOTE_EXECUTION_GROUP_NAME = "remote.execution.group";
+  /** Retries of failed jobs Quartz group. **/
+  public static final String RETRY_GROUP_NAME = "retry.group";
+  /** Retry job data: the name of the job being retried. **/
+  public static final String RETRY_JOB_NAME = "retry.job.name";
+  /** Retry job data: the group of the job being retried. **/
+  public static final String RETRY_JOB_GROUP = "retry.job.group";
+  /** Retry job data: the retry, starting at 1. **/
+  public static final String RETRY_COUNT = "retry.count";
+  /** Retry job data: the time the job being retried was originally due to run, in millis. **/
+  public static final String RETRY_ORIGINAL_FIRE_TIME = "retry.original.fire.time";
+  /** Runs handed to a lane and not yet finished, kept by a persistent scheduler. Job data as for a retry. **/
+  public static final String LANE_RUN_GROUP_NAME = "lane.run.group";
 
   private static final Logger LOG = Logger.getLogger(SchedulerManager.class.getName());
+  private static final String REMOTE_QUERY_SYNC_JOB_NAME = "RefreshRemoteQueries";
+  private static final String SCHEDULE_FINGERPRINT = "schedule.fingerprint";
+  private static volatile Properties theSchedulerProperties;
+  private static volatile MisfirePolicy theMisfirePolicy = MisfirePolicy.CATCH_UP_ALL;
+  private static volatile boolean isPersistentStore;
   private Scheduler theScheduler;
 
+  /**
+   * What a scheduled job does about the runs it missed, such as while the connector was stopped.
+   */
+  public enum MisfirePolicy
+  {
+    /** Make every missed run straight away. **/
+    CATCH_UP_ALL,
+    /** Make one run straight away, then carry on as scheduled. **/
+    FIRE_ONCE,
+    /** Skip the missed runs and carry on as scheduled. **/
+    SKIP
+  };
+
   /**
    * Constructor.
    *
@@ -76,7 +113,9 @@ public class SchedulerManager
   {
     try
     {
-      StdSchedulerFactory myFactory = new StdSchedulerFactory();
+      Properties myProperties = theSchedulerProperties;
+      StdSchedulerFactory myFactory = myProperties == null
+          ? new StdSchedulerFactory() : new StdSchedulerFactory(myProperties);
       theScheduler = myFactory.getScheduler();
       LOG.fine("Quartz Scheduler loaded");
     }
@@ -86,6 +125,26 @@ public class SchedulerManager
     }
   }
 
+  /**
+   * Sets how the scheduler keeps its jobs, before it is first used. The scheduler keeps them in memory unless told
+   * otherwise, in which case they are rebuilt from the database on every start and the runs missed while stopped are
+   * lost. A persistent scheduler keeps them in the connector database, so on start the missed runs are made as the
+   * misfire policy says and only jobs whose configuration has changed are rebuilt. Runs that were handed to a lane
+   * and had not finished when the connector stopped are also kept, and made again on start.
+   *
+   * @param isPersistent whether to keep the jobs in the connector database
+   * @param aMisfirePolicy what scheduled jobs do about missed runs
+   * @throws ConnectorException if the database cannot be set up for the jobs
+   */
+  public static void configure(Boolean isPersistent, MisfirePolicy aMisfirePolicy) throws ConnectorException
+  {
+    theMisfirePolicy = aMisfirePolicy;
+    isPersistentStore = isPersistent;
+    theSchedulerProperties = isPersistent ? JdbcJobStore.getProperties() : null;
+    LOG.info(MessageFormat.format("Scheduler configured, persistent: {0}, misfire policy: {1}",
+        isPersistent, aMisfirePolicy));
+  }
+
   /**
    * Starts the scheduler.
    *
@@ -97,6 +156,8 @@ public class SchedulerManager
     {
       // Schedule all jobs in the database (JobConfigurations and RemoteQueryExecutions)
       refreshScheduledJobs();
+      // Make again the runs that were waiting on a lane when the connector stopped
+      recoverLaneRuns();
       // Start the scheduler
       theScheduler.start();
       LOG.info("Quartz Scheduler started: " + theScheduler.getSchedulerName());
@@ -177,21 +238,145 @@ public class SchedulerManager
   }
 
 
+  /**
+   * Schedules a one off retry of a job that failed. The retry runs as a job of its own in the retry group, carrying the
+   * job it retries, the retry count and the original fire time in its job data.
+   *
+   * @param aJobKey the job being retried
+   * @param anOriginalFireTime when the job was originally due to run
+   * @param aRetryCount the retry, starting at 1
+   * @param aRetryTime when to run the retry
+   * @throws ConnectorException on error
+   */
+  public void scheduleRetry(JobKey aJobKey, Date anOriginalFireTime, Integer aRetryCount, Date aRetryTime)
+      throws ConnectorException
+  {
+    // Each retry has its own key, the job of the last attempt may not have been removed yet
+    JobKey myRetryKey = new JobKey(
+        aJobKey.getGroup() + "." + aJobKey.getName() + "." + anOriginalFireTime.getTime() + "." + aRetryCount,
+        RETRY_GROUP_NAME);
+    try
+    {
+      JobDetail myJob = JobBuilder.newJob(QuartzJobController.class)
+          .withIdentity(myRetryKey)
+          .usingJobData(RETRY_JOB_NAME, aJobKey.getName())
+          .usingJobData(RETRY_JOB_GROUP, aJobKey.getGroup())
+          .usingJobData(RETRY_COUNT, aRetryCount)
+          .usingJobData(RETRY_ORIGINAL_FIRE_TIME, anOriginalFireTime.getTime())
+          .build();
+      Trigger myTrigger = TriggerBuilder.newTrigger()
+          .withIdentity(myRetryKey.getName(), RETRY_GROUP_NAME)
+          .startAt(aRetryTime)
+          .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+          .build();
+      theScheduler.scheduleJob(myJob, myTrigger);
+      LOG.info(MessageFormat.format("Retry {0} of job {1} scheduled for {2}", aRetryCount, aJobKey, aRetryTime));
+    }
+    catch (SchedulerException myEx)
+    {
+      throw new ConnectorException("Error scheduling retry of job: " + aJobKey, myEx);
+    }
+  }
+
+  /**
+   * Records a run that is being handed to a lane, when the scheduler is persistent. Its trigger is finished as far as
+   * Quartz is concerned once the run is handed over, so without the record a run still waiting on the lane when the
+   * connector stops would be lost. The record is a durable job in the lane run group with no trigger, and is given
+   * one to run it again on the next start.
+   *
+   * @param aJobKey the job being run, for a retry the job being retried
+   * @param aTargetFireTime when the job was originally due to run
+   * @param aRetryCount the retry, 0 for the first attempt
+   * @return the key of the record, or null if the scheduler keeps its jobs in memory
+   * @throws ConnectorException on error
+   */
+  public JobKey recordLaneRun(JobKey aJobKey, Date aTargetFireTime, Integer aRetryCount) throws ConnectorException
+  {
+    if (!isPersistentStore)
+    {
+      return null;
+    }
+    JobKey myRunKey = new JobKey(
+        aJobKey.getGroup() + "." + aJobKey.getName() + "." + aTargetFireTime.getTime() + "." + aRetryCount,
+        LANE_RUN_GROUP_NAME);
+    try
+    {
+      // Replaces the record a recovered run is being made from
+      theScheduler.addJob(JobBuilder.newJob(QuartzJobController.class)
+          .withIdentity(myRunKey)
+          .usingJobData(RETRY_JOB_NAME, aJobKey.getName())
+          .usingJobData(RETRY_JOB_GROUP, aJobKey.getGroup())
+          .usingJobData(RETRY_COUNT, aRetryCount)
+          .usingJobData(RETRY_ORIGINAL_FIRE_TIME, aTargetFireTime.getTime())
+          .storeDurably()
+          .build(), true);
+      return myRunKey;
+    }
+    catch (SchedulerException myEx)
+    {
+      throw new ConnectorException("Error recording run of job: " + aJobKey, myEx);
+    }
+  }
+
+  /**
+   * Removes the record of a run once the lane has finished it.
+   *
+   * @param aRunKey the key from {@link #recordLaneRun(JobKey, Date, Integer)}
+   * @throws ConnectorException on error
+   */
+  public void removeLaneRun(JobKey aRunKey) throws ConnectorException
+  {
+    try
+    {
+      theScheduler.deleteJob(aRunKey);
+    }
+    catch (SchedulerException myEx)
+    {
+      throw new ConnectorException("Error removing record of run: " + aRunKey, myEx);
+    }
+  }
+
+  /**
+   * Gives each recorded lane run a trigger to make it again straight away, whatever the misfire policy, since the
+   * run was already due.
+   */
+  private void recoverLaneRuns() throws SchedulerException
+  {
+    for (JobKey myRunKey : theScheduler.getJobKeys(GroupMatcher.jobGroupEquals(LANE_RUN_GROUP_NAME)))
+    {
+      TriggerKey myTriggerKey = new TriggerKey(myRunKey.getName(), LANE_RUN_GROUP_NAME);
+      if (theScheduler.checkExists(myTriggerKey))
+      {
+        continue;
+      }
+      theScheduler.scheduleJob(TriggerBuilder.newTrigger()
+          .withIdentity(myTriggerKey)
+          .forJob(myRunKey)
+          .startNow()
+          .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+          .build());
+      LOG.info("Run waiting on a lane when the connector stopped scheduled again: " + myRunKey);
+    }
+  }
+
   /**
    * Ensures that the scheduler is up to date with the currently configured jobs.
    *
+   * The jobs wanted by the database are compared with those already scheduled, and only the ones that differ are
+   * added, rescheduled or removed. Jobs whose schedule has not changed keep their triggers, so a refresh does not
+   * cause them to misfire. Re-runs, retries and the remote query sync job are left as they are, apart from retries of
+   * jobs that no longer exist.
+   *
    * @throws ConnectorException on error
    */
   public void refreshScheduledJobs() throws ConnectorException
   {
-    try
+    try (GenericDAO genericDAO = new GenericDAO(false))
     {
       LOG.info("Refreshing Scheduled Jobs");
-      //Clear state
-      //theScheduler.pauseAll();
-      theScheduler.clear();
-      createLocalAndRemoteJobs();
-     // theScheduler.resumeAll();
+      Set<String> myActiveJobs = reconcileLocalJobs(genericDAO.list(JobConfiguration.class));
+      Set<String> myWantedRemoteJobs = reconcileRemoteJobs(genericDAO.list(RemoteQueryExecution.class));
+      removeOrphanedRetries(myActiveJobs, myWantedRemoteJobs);
     }
     catch (SchedulerException myEx)
     {
@@ -199,45 +384,183 @@ public class SchedulerManager
     }
   }
 
-  private void createLocalAndRemoteJobs()
+  /**
+   * Brings the scheduled group in line with the JobConfigurations.
+   *
+   * @return the ids of the active JobConfigurations
+   */
+  private Set<String> reconcileLocalJobs(List<JobConfiguration> someJobs) throws SchedulerException
   {
-    try (GenericDAO genericDAO = new GenericDAO(false))
+    Set<String> myActiveJobs = new HashSet<>();
+    Set<String> myWantedJobs = new HashSet<>();
+    for (JobConfiguration myJob : someJobs)
     {
-      // Get the persisted JobConfigurations
-      List<JobConfiguration> myJobs = genericDAO.list(JobConfiguration.class);
-      //Create the Scheduled jobs
-      for (JobConfiguration myJob : myJobs)
+      String myId = myJob.getId().toString();
+      if (myJob.getIsActive())
+      {
+        myActiveJobs.add(myId);
+      }
+      if (!isJobSchedulable(myJob))
+      {
+        continue;
+      }
+      myWantedJobs.add(myId);
+      try
       {
-        try
+        Trigger myTrigger = theScheduler.getTrigger(new TriggerKey(myId, SCHEDULED_GROUP_NAME));
+        if (myTrigger == null)
         {
           LOG.info("Sheduling local Job: " + myJob.toString());
           createJob(myJob);
         }
-        catch (ConnectorException myEx)
+        else if (!getScheduleFingerprint(myJob).equals(myTrigger.getJobDataMap().getString(SCHEDULE_FINGERPRINT)))
         {
-          LOG.log(Level.SEVERE, "Failed to schedule job: " + myJob.getName(), myEx);
+          LOG.info("Rescheduling local Job: " + myJob.toString());
+          theScheduler.rescheduleJob(myTrigger.getKey(), generateTrigger(myJob, false, SCHEDULED_GROUP_NAME));
         }
       }
-      
-      // Get the persisted RemoteQueryExecutions
-      List<RemoteQueryExecution> myRemoteQueryExecutions = genericDAO.list(RemoteQueryExecution.class);
-      //Schedule the jobs
-      for (RemoteQueryExecution myRemoteQueryExecution : myRemoteQueryExecutions)
+      catch (ConnectorException myEx)
       {
-        try
-        {
-          if (myRemoteQueryExecution.getStatus() == RemoteQueryExecution.Status.ACCEPTED
-              || myRemoteQueryExecution.getStatus() == RemoteQueryExecution.Status.QUEUED)
-          {
-            LOG.info("Sheduling remote Job: " + myRemoteQueryExecution.toString());
-            createRemoteJob(myRemoteQueryExecution);
-          }
-        }
-        catch (ConnectorException myEx)
-        {
-          LOG.log(Level.SEVERE, "Failed to schedule job for Remote Query Execution: " + myRemoteQueryExecution, myEx);
-        }
+        LOG.log(Level.SEVERE, "Failed to schedule job: " + myJob.getName(), myEx);
+      }
+    }
+    removeUnwantedJobs(SCHEDULED_GROUP_NAME, myWantedJobs);
+    return myActiveJobs;
+  }
+
+  /**
+   * Brings the remote execution group in line with the RemoteQueryExecutions. An execution still waiting to run is
+   * not scheduled again if it has already been handed to its lane or has a retry pending.
+   *
+   * @return the GUIDs of the RemoteQueryExecutions waiting to run
+   */
+  private Set<String> reconcileRemoteJobs(List<RemoteQueryExecution> someExecutions) throws SchedulerException
+  {
+    Set<String> myRetriedJobs = getRetriedJobs(REMOTE_EXECUTION_GROUP_NAME);
+    Set<String> myWantedJobs = new HashSet<>();
+    for (RemoteQueryExecution myRemoteQueryExecution : someExecutions)
+    {
+      if (myRemoteQueryExecution.getStatus() != RemoteQueryExecution.Status.ACCEPTED
+          && myRemoteQueryExecution.getStatus() != RemoteQueryExecution.Status.QUEUED)
+      {
+        continue;
+      }
+      myWantedJobs.add(myRemoteQueryExecution.getGUID());
+      JobKey myJobKey = new JobKey(myRemoteQueryExecution.getGUID(), REMOTE_EXECUTION_GROUP_NAME);
+      if (theScheduler.checkExists(myJobKey)
+          || myRetriedJobs.contains(myJobKey.getName())
+          || JobLanes.isActive(JobLanes.keyOf(myJobKey)))
+      {
+        continue;
+      }
+      try
+      {
+        LOG.info("Sheduling remote Job: " + myRemoteQueryExecution.toString());
+        createRemoteJob(myRemoteQueryExecution);
+      }
+      catch (ConnectorException myEx)
+      {
+        LOG.log(Level.SEVERE, "Failed to schedule job for Remote Query Execution: " + myRemoteQueryExecution, myEx);
+      }
+    }
+    removeUnwantedJobs(REMOTE_EXECUTION_GROUP_NAME, myWantedJobs);
+    return myWantedJobs;
+  }
+
+  private void removeUnwantedJobs(String aGroupName, Set<String> someWantedJobs) throws SchedulerException
+  {
+    for (JobKey myJobKey : theScheduler.getJobKeys(GroupMatcher.jobGroupEquals(aGroupName)))
+    {
+      if (!someWantedJobs.contains(myJobKey.getName()))
+      {
+        theScheduler.deleteJob(myJobKey);
+        LOG.info("Job removed from scheduler: " + myJobKey);
+      }
+    }
+  }
+
+  /**
+   * Removes pending retries and recorded lane runs of JobConfigurations that have been deleted or made inactive, and
+   * of RemoteQueryExecutions no longer waiting to run. Those of re-runs are left to finish.
+   */
+  private void removeOrphanedRetries(Set<String> someActiveJobs, Set<String> someWantedRemoteJobs)
+      throws SchedulerException
+  {
+    for (JobKey myRetryKey : getRetryKeys())
+    {
+      JobDetail myRetry = theScheduler.getJobDetail(myRetryKey);
+      if (myRetry == null)
+      {
+        continue;
+      }
+      String myName = myRetry.getJobDataMap().getString(RETRY_JOB_NAME);
+      String myGroup = myRetry.getJobDataMap().getString(RETRY_JOB_GROUP);
+      if ((SCHEDULED_GROUP_NAME.equals(myGroup) && !someActiveJobs.contains(myName))
+          || (REMOTE_EXECUTION_GROUP_NAME.equals(myGroup) && !someWantedRemoteJobs.contains(myName)))
+      {
+        theScheduler.deleteJob(myRetryKey);
+        LOG.info("Retry removed from scheduler: " + myRetryKey);
+      }
+    }
+  }
+
+  private Set<String> getRetriedJobs(String aGroupName) throws SchedulerException
+  {
+    Set<String> myRetriedJobs = new HashSet<>();
+    for (JobKey myRetryKey : getRetryKeys())
+    {
+      JobDetail myRetry = theScheduler.getJobDetail(myRetryKey);
+      if (myRetry != null && aGroupName.equals(myRetry.getJobDataMap().getString(RETRY_JOB_GROUP)))
+      {
+        myRetriedJobs.add(myRetry.getJobDataMap().getString(RETRY_JOB_NAME));
+      }
+    }
+    return myRetriedJobs;
+  }
+
+  /**
+   * Gets the keys of the retries and of the recorded lane runs, which both carry the job they run in their job data.
+   */
+  private Set<JobKey> getRetryKeys() throws SchedulerException
+  {
+    Set<JobKey> myKeys = new HashSet<>(theScheduler.getJobKeys(GroupMatcher.jobGroupEquals(RETRY_GROUP_NAME)));
+    myKeys.addAll(theScheduler.getJobKeys(GroupMatcher.jobGroupEquals(LANE_RUN_GROUP_NAME)));
+    return myKeys;
+  }
+
+  /**
+   * Gets the settings of a JobConfiguration that its trigger is built from, along with the time zone it is built in. A
+   * trigger built from different settings has to be replaced.
+   */
+  private static String getScheduleFingerprint(JobConfiguration aJobConfig)
+  {
+    return aJobConfig.getStartDate().getTime()
+        + "|" + (aJobConfig.getEndDate() == null ? "" : aJobConfig.getEndDate().getTime())
+        + "|" + aJobConfig.getRepeatInterval()
+        + "|" + aJobConfig.getRepeatValue()
+        + "|" + theMisfirePolicy
+        + "|" + TimeZone.getDefault().getID();
+  }
+
+  /**
+   * Stops the scheduler. Jobs kept in the connector database are left for the next start, otherwise they are
+   * cleared.
+   *
+   * @throws ConnectorException on error.
+   */
+  public void stop() throws ConnectorException
+  {
+    try
+    {
+      if (!theScheduler.getMetaData().isJobStoreSupportsPersistence())
+      {
+        theScheduler.clear();
       }
+      theScheduler.shutdown();
+    }
+    catch (SchedulerException myEx)
+    {
+      throw new ConnectorException("Error stopping scheduler", myEx);
     }
   }
 
@@ -266,12 +589,7 @@ public class SchedulerManager
    */
   public void createJob(JobConfiguration aJobConfig) throws ConnectorException
   {
-    // Only add if the job is active, has an end date in the future, and isn't a NEVER Repeat
-    // that has a start date in the past.
-    if (aJobConfig.getIsActive()
-        && isJobEndDateNullOrInFuture(aJobConfig)
-        && isJobRepeatingAndStartDateInPast(aJobConfig))
-
+    if (isJobSchedulable(aJobConfig))
     {
       Trigger myTrigger = generateTrigger(aJobConfig, false, SCHEDULED_GROUP_NAME);
 
@@ -290,6 +608,17 @@ public class SchedulerManager
     }
   }
 
+  /**
+   * Only schedule if the job is active, has an end date in the future, and isn't a NEVER Repeat that has a start date
+   * in the past.
+   */
+  private static boolean isJobSchedulable(JobConfiguration aJobConfig)
+  {
+    return aJobConfig.getIsActive()
+        && isJobEndDateNullOrInFuture(aJobConfig)
+        && isJobRepeatingAndStartDateInPast(aJobConfig);
+  }
+
   private static boolean isJobRepeatingAndStartDateInPast(JobConfiguration aJobConfig)
   {
     return aJobConfig.getRepeatInterval() != JobConfiguration.Repeat.NEVER || aJobConfig.getStartDate().after(
@@ -343,10 +672,12 @@ public class SchedulerManager
     }
 
     //Get the necessary values for trigger creation
-    ScheduleBuilder mySchedule = generateSchedule(aJobConfig);
+    // Re-runs rely on catching up every missed run
+    ScheduleBuilder mySchedule = generateSchedule(aJobConfig, isRerun ? MisfirePolicy.CATCH_UP_ALL : theMisfirePolicy);
 
     TriggerBuilder<Trigger> myTriggerBuilder = TriggerBuilder.newTrigger().withIdentity(aJobConfig.getId().toString(),
-        aGroupName).startAt(aJobConfig.getStartDate());
+        aGroupName).startAt(aJobConfig.getStartDate())
+        .usingJobData(SCHEDULE_FINGERPRINT, getScheduleFingerprint(aJobConfig));
 
     // If the job has a schedule, add end date and schedule
     if (mySchedule != null)
@@ -374,7 +705,7 @@ public class SchedulerManager
     return myTriggerBuilder.build();
   }
 
-  private ScheduleBuilder generateSchedule(JobConfiguration aJobConfig)
+  private ScheduleBuilder generateSchedule(JobConfiguration aJobConfig, MisfirePolicy aMisfirePolicy)
   {
     ScheduleBuilder mySchedule;
     switch (aJobConfig.getRepeatInterval())
@@ -384,26 +715,23 @@ public class SchedulerManager
         break;
 
       case MINUTES:
-        mySchedule = CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInMinutes(aJobConfig.
-            getRepeatValue()).withMisfireHandlingInstructionIgnoreMisfires();
+        mySchedule = withMisfirePolicy(CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInMinutes(
+            aJobConfig.getRepeatValue()), aMisfirePolicy);
         break;
 
       case DAYS:
-        mySchedule = CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInDays(aJobConfig.
-            getRepeatValue()).withMisfireHandlingInstructionIgnoreMisfires().preserveHourOfDayAcrossDaylightSavings(
-                true);
+        mySchedule = withMisfirePolicy(CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInDays(
+            aJobConfig.getRepeatValue()), aMisfirePolicy).preserveHourOfDayAcrossDaylightSavings(true);
         break;
 
       case WEEKS:
-        mySchedule = CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInWeeks(aJobConfig.
-            getRepeatValue()).withMisfireHandlingInstructionIgnoreMisfires().preserveHourOfDayAcrossDaylightSavings(
-                true);
+        mySchedule = withMisfirePolicy(CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInWeeks(
+            aJobConfig.getRepeatValue()), aMisfirePolicy).preserveHourOfDayAcrossDaylightSavings(true);
         break;
 
       case MONTHS:
-        mySchedule = CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInMonths(aJobConfig.
-            getRepeatValue()).withMisfireHandlingInstructionIgnoreMisfires().preserveHourOfDayAcrossDaylightSavings(
-                true);
+        mySchedule = withMisfirePolicy(CalendarIntervalScheduleBuilder.calendarIntervalSchedule().withIntervalInMonths(
+            aJobConfig.getRepeatValue()), aMisfirePolicy).preserveHourOfDayAcrossDaylightSavings(true);
         break;
 
       case HOURS:
@@ -413,16 +741,15 @@ public class SchedulerManager
         // switchovers (cron missed an hour not work when time "goes back").
         if (aJobConfig.getRepeatValue() == 1)
         {
-          mySchedule = CalendarIntervalScheduleBuilder.calendarIntervalSchedule()
-            .withIntervalInHours(aJobConfig.getRepeatValue())
-            .withMisfireHandlingInstructionIgnoreMisfires()
+          mySchedule = withMisfirePolicy(CalendarIntervalScheduleBuilder.calendarIntervalSchedule()
+            .withIntervalInHours(aJobConfig.getRepeatValue()), aMisfirePolicy)
             .preserveHourOfDayAcrossDaylightSavings(true);
         }
         // Otherwise use Quartz, as this preserves the "hour" of the run time across daylight saving switchovers
         // (quartz ends up changing the hour after a clock change, for a random amount of time!!)
         else
         {
-          mySchedule = createCronSchedule(aJobConfig);
+          mySchedule = createCronSchedule(aJobConfig, aMisfirePolicy);
         }
 
         break;
@@ -430,7 +757,7 @@ public class SchedulerManager
     return mySchedule;
   }
 
-  private ScheduleBuilder createCronSchedule(JobConfiguration aJobConfig)
+  private ScheduleBuilder createCronSchedule(JobConfiguration aJobConfig, MisfirePolicy aMisfirePolicy)
   {
     ScheduleBuilder mySchedule;
     // Work out cron start time based on job start time and repeat interval
@@ -452,11 +779,54 @@ public class SchedulerManager
     myCronString.append("/");
     myCronString.append(aJobConfig.getRepeatValue());
     myCronString.append(" ? * *");
-    mySchedule = CronScheduleBuilder.cronSchedule(myCronString.toString()).
-        withMisfireHandlingInstructionIgnoreMisfires();
+    mySchedule = withMisfirePolicy(CronScheduleBuilder.cronSchedule(myCronString.toString()), aMisfirePolicy);
     return mySchedule;
   }
 
+  private static CalendarIntervalScheduleBuilder withMisfirePolicy(CalendarIntervalScheduleBuilder aSchedule,
+      MisfirePolicy aMisfirePolicy)
+  {
+    switch (aMisfirePolicy)
+    {
+      case FIRE_ONCE:
+        return aSchedule.withMisfireHandlingInstructionFireAndProceed();
+      case SKIP:
+        return aSchedule.withMisfireHandlingInstructionDoNothing();
+      case CATCH_UP_ALL:
+      default:
+        return aSchedule.withMisfireHandlingInstructionIgnoreMisfires();
+    }
+  }
+
+  private static CronScheduleBuilder withMisfirePolicy(CronScheduleBuilder aSchedule, MisfirePolicy aMisfirePolicy)
+  {
+    switch (aMisfirePolicy)
+    {
+      case FIRE_ONCE:
+        return aSchedule.withMisfireHandlingInstructionFireAndProceed();
+      case SKIP:
+        return aSchedule.withMisfireHandlingInstructionDoNothing();
+      case CATCH_UP_ALL:
+      default:
+        return aSchedule.withMisfireHandlingInstructionIgnoreMisfires();
+    }
+  }
+
+  /**
+   * Counts the times a trigger is due to fire, stopping once the limit is reached.
+   */
+  private static int countFireTimes(Trigger aTrigger, int aLimit)
+  {
+    int myCount = 0;
+    Date myFireTime = aTrigger.getFireTimeAfter(new Date(aTrigger.getStartTime().getTime() - 1));
+    while (myFireTime != null && myCount < aLimit)
+    {
+      myCount++;
+      myFireTime = aTrigger.getFireTimeAfter(myFireTime);
+    }
+    return myCount;
+  }
+
   /**
    * Runs the job now.
    *
@@ -516,12 +886,13 @@ public class SchedulerManager
         return myResult;
       }
 
-      // Check that re-run for same job not running already.
+      // Check that re-run for same job not running already. Its runs finish in Quartz as soon as they are handed to
+      // the job's lane, so also check the lane has no runs of the job queued or running.
       JobKey myJobKey = new JobKey(anOrigJobConfig.getId().toString(), RERUN_GROUP_NAME);
-      if (theScheduler.checkExists(myJobKey))
+      if (theScheduler.checkExists(myJobKey) || JobLanes.isActive(JobLanes.keyOf(myJobKey)))
       {
         myResult = new EventResult(myEventResultDescription, EventResult.Result.FAILED, "Re-Run Job Failed",
-            MessageFormat.format("Previous re-run for {0} still running.\n Cannot re-run same job sumultaneously.",
+            MessageFormat.format("Previous run of {0} still running.\n Cannot re-run same job sumultaneously.",
                 anOrigJobConfig.getName()),
             myStartMethodTimestamp);
         return myResult;
@@ -571,6 +942,16 @@ public class SchedulerManager
           RERUN_GROUP_NAME)
           .build();
       Trigger myTrigger = generateTrigger(myJobConfig, true, RERUN_GROUP_NAME);
+
+      // The runs of a re-run are all due at once, so they wait on the job's lane, which only holds so many
+      if (countFireTimes(myTrigger, JobLanes.MAX_WAITING_RUNS + 1) > JobLanes.MAX_WAITING_RUNS)
+      {
+        myResult = new EventResult(myEventResultDescription, EventResult.Result.FAILED, "Validation Error",
+            MessageFormat.format("A re-run cannot cover more than {0} runs, select a shorter period",
+                JobLanes.MAX_WAITING_RUNS),
+            myStartMethodTimestamp);
+        return myResult;
+      }
       theScheduler.scheduleJob(myJob, myTrigger);
 
       myResult = new EventResult(myEventResultDescription, EventResult.Result.SUCCESS,
@@ -601,13 +982,21 @@ public class SchedulerManager
     {
       EsysOdataConnectionCredentials myODataCredentials = EsysOdataConnectionCredentials.loadFromKeystore();
       Integer interval = myODataCredentials.getRemoteExecutionCheckIntervalMins();
+      // Kept across refreshes, and across restarts by a persistent scheduler, so only replaced if the interval changed
+      Trigger myExisting = theScheduler.getTrigger(new TriggerKey(REMOTE_QUERY_SYNC_JOB_NAME));
+      if (myExisting instanceof SimpleTrigger
+          && ((SimpleTrigger) myExisting).getRepeatInterval() == TimeUnit.MINUTES.toMillis(interval))
+      {
+        return;
+      }
+      theScheduler.deleteJob(new JobKey(REMOTE_QUERY_SYNC_JOB_NAME));
       // Build trigger that runs every x mins
       TriggerBuilder myTriggerBuilder = TriggerBuilder.newTrigger()
-              .withIdentity(new TriggerKey("RefreshRemoteQueries"))
+              .withIdentity(new TriggerKey(REMOTE_QUERY_SYNC_JOB_NAME))
               .withSchedule(SimpleScheduleBuilder.simpleSchedule().withIntervalInMinutes(interval).repeatForever());
 
       // Build Job
-      JobKey myJobKey = new JobKey("RefreshRemoteQueries");
+      JobKey myJobKey = new JobKey(REMOTE_QUERY_SYNC_JOB_NAME);
 
       JobDetail myJob = JobBuilder.newJob(SynchronizeRemoteQueriesController.class)
               .withIdentity(myJobKey)
@@ -16,9 +16,16 @@
  */
 package com.energysys.connector.schedulers.quartz;
 
+import com.energysys.connector.config.ConnectorConfig;
 import com.energysys.connector.exception.ConnectorSystemException;
 import com.energysys.connector.util.TimeZoneUtil;
+import com.energysys.filesource.local.LocalChangeFeed;
+import com.energysys.filesource.local.LocalDigestIndex;
+import com.energysys.filesource.s3.S3ClientRegistry;
+import com.energysys.filesource.s3.S3TrafficGovernor;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletContextEvent;
@@ -53,6 +60,19 @@ public class StartupListener implements ServletContextListener
     {
       // Initialise TimeZone
       TimeZoneUtil.loadTimeZoneFromCredentials();
+      // Initialise the limits on S3 traffic
+      ConnectorConfig myConfig = ConnectorConfig.loadFromKeystore();
+      S3TrafficGovernor.configure(myConfig.getS3MaxBytesPerSecond(), myConfig.getS3MaxRequestsPerSecond());
+      // Size the lanes jobs are run on
+      Map<JobLanes.Lane, Integer> myLaneWorkers = new EnumMap<>(JobLanes.Lane.class);
+      myLaneWorkers.put(JobLanes.Lane.FILE_SYNC, myConfig.getJobLaneFileSyncWorkers());
+      myLaneWorkers.put(JobLanes.Lane.DATA_QUERY, myConfig.getJobLaneDataQueryWorkers());
+      myLaneWorkers.put(JobLanes.Lane.REMOTE, myConfig.getJobLaneRemoteWorkers());
+      myLaneWorkers.put(JobLanes.Lane.CONTROL, myConfig.getJobLaneControlWorkers());
+      JobLanes.configure(myLaneWorkers);
+      // Choose how the scheduler keeps its jobs before it is first created
+      SchedulerManager.configure(myConfig.isSchedulerPersistent(),
+          SchedulerManager.MisfirePolicy.valueOf(myConfig.getSchedulerMisfirePolicy()));
       SchedulerManager mySheduler = new SchedulerManager();
       mySheduler.start();
     }
@@ -70,7 +90,11 @@ public class StartupListener implements ServletContextListener
     try
     {
       SchedulerManager myScheduler = new SchedulerManager();
-      myScheduler.clearJobs();
+      myScheduler.stop();
+      JobLanes.shutdownAll();
+      LocalChangeFeed.stopAll();
+      LocalDigestIndex.saveAll();
+      S3ClientRegistry.closeAll();
     }
     catch (Exception ex)
     {
@@ -23,15 +23,13 @@ import com.energysys.connector.config.ConnectorConfig;
 import com.energysys.connector.connectors.dataconnector.odata.EsysOdataConnectionCredentials;
 import com.energysys.connector.connectors.dataconnector.odata.ODataProxy;
 import com.energysys.connector.connectors.fileconnector.CredentialsBackedS3FileSourceConfig;
+import com.energysys.connector.connectors.fileconnector.S3FanOutDispatcher;
 import com.energysys.connector.database.GenericDAO;
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.connector.util.spreadsheet.RemoteQueryExecutionSpreadsheet;
 import com.energysys.connector.util.spreadsheet.smartxls.SmartXLSSpreadsheet;
 import com.energysys.connector.web.beans.EventLogBean;
-import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.exception.FileSourceException;
-import com.energysys.filesource.s3.S3FileSource;
-import com.energysys.filesource.s3.S3FileSourceFile;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
@@ -53,7 +51,6 @@ import org.quartz.JobExecutionException;
 public class SynchronizeRemoteQueriesController implements Job
 {
 
-  private static final long S3_CONNETION_TIMEOUT = 5 * 1000 * 60;
   private static final String ESYS_ODATA_CRED_ALIAS = "esys-odata-cred";
   private static final String NEW_EXECUTION_RECEIVED_EVENT_DESCRIPTION = "Remote Query Execution Received";
 
@@ -74,8 +71,22 @@ public class SynchronizeRemoteQueriesController implements Job
   }
 
   @Override
+  public void execute(final JobExecutionContext jec) throws JobExecutionException
+  {
+    // Run on the control lane so a slow sync does not hold up the Quartz worker or other jobs
+    JobLanes.submit(JobLanes.Lane.CONTROL, jec.getJobDetail().getKey().toString(), jec.getScheduledFireTime(), true,
+        new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        synchronise();
+      }
+    });
+  }
+
   @SuppressWarnings("IllegalCatch")
-  public void execute(JobExecutionContext jec) throws JobExecutionException
+  private void synchronise()
   {
     Date myStartTime = CurrentDateTime.getCurrentDate();
     try
@@ -328,7 +339,7 @@ public class SynchronizeRemoteQueriesController implements Job
       GenericDAO aGenericDAO,
       TimeZone anAssetTimeZone,
       String aNamedRangeName,
-      Date aStartTime) throws ConnectorException, FileSourceException
+      Date aStartTime) throws ConnectorException
   {
     if (someRemoteQueryExecutions.size() == 0)
     {
@@ -349,40 +360,28 @@ public class SynchronizeRemoteQueriesController implements Job
       throw new ConnectorException(
           "Could not upload remote query result - No S3 credentials installed in connector");
     }
-    if (myS3Configs.size() > 1)
-    {
-      throw new ConnectorException(
-          "Could not upload remote query result - Multiple S3 credentials installed in connector");
-    }
-    CredentialsBackedS3FileSourceConfig myS3Config = myS3Configs.get(0);
 
     // Create a spreadsheet from the data
     LOG.info("Creating spreadsheet for Remote Query Execution statuses to upload to EnergySys");
     RemoteQueryExecutionSpreadsheet mySpreadsheet = new RemoteQueryExecutionSpreadsheet(someRemoteQueryExecutions,
         anAssetTimeZone, aNamedRangeName);
 
-    // Send spreadsheet to S3
-    S3FileSource myS3FileSource = new S3FileSource(myS3Config);
-    
     String fileName = generateFileName(aStartTime);
-    S3FileSourceFile myFileMetadata = new S3FileSourceFile(
+
+    // Send spreadsheet to every S3 file source, each closed afterwards to hand back the client and lock
+    S3FanOutDispatcher.DispatchResult myDispatchResult = new S3FanOutDispatcher(myS3Configs).dispatch(
+        mySpreadsheet.getInputStream(),
         fileName,
         aStartTime,
-        myS3Config.getOwner(),
         mySpreadsheet.getSize().longValue(),
         "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-    if (openS3Connection(myS3FileSource))
-    {
-      myS3FileSource.putContent(mySpreadsheet.getInputStream(), myFileMetadata);
-    }
-    else
+    if (!myDispatchResult.isAnySucceeded())
     {
       return new EventResult(
           SYNCHRONISE_REMOTE_QUERY_EXECUTIONS_EVENT_DESCRIPTION,
           EventResult.Result.FAILED,
           "Could not upload spreadsheet",
-          "Failed to acquire lock on S3 File Source",
+          myDispatchResult.getDetail(),
           aStartTime.getTime());
     }
 
@@ -398,11 +397,13 @@ public class SynchronizeRemoteQueriesController implements Job
       }
     }
 
+    // EnergySys has the statuses once any destination has them, so a partial upload is only a warning
     return new EventResult(
         SYNCHRONISE_REMOTE_QUERY_EXECUTIONS_EVENT_DESCRIPTION,
-        EventResult.Result.SUCCESS,
-        "Success",
-        "Spreadsheet " + fileName + " uploaded with " + someRemoteQueryExecutions.size() + " rows",
+        myDispatchResult.isAllSucceeded() ? EventResult.Result.SUCCESS : EventResult.Result.WARNINGS,
+        myDispatchResult.isAllSucceeded() ? "Success" : myDispatchResult.getSummary(),
+        "Spreadsheet " + fileName + " uploaded with " + someRemoteQueryExecutions.size() + " rows\n"
+            + myDispatchResult.getDetail(),
         aStartTime.getTime());
 
   }
@@ -417,30 +418,4 @@ public class SynchronizeRemoteQueriesController implements Job
     myFilePath.append(".").append(SmartXLSSpreadsheet.FORMAT.XLSX.toString().toLowerCase());
     return myFilePath.toString();
   }
-
-  @SuppressWarnings(
-      "SleepWhileInLoop")
-  private Boolean openS3Connection(S3FileSource aS3FileSource) throws FileSourceException, ConnectorException
-  {
-    long myTimeoutPoint = CurrentDateTime.getCurrentTimeInMillis() + S3_CONNETION_TIMEOUT;
-
-    try
-    {
-      do
-      {
-        ConnectionStatus myConnStatus = aS3FileSource.openConnection();
-        if (myConnStatus == ConnectionStatus.OPEN)
-        {
-          return true;
-        }
-        Thread.sleep(1 * 1000 * 20);
-      }
-      while (CurrentDateTime.getCurrentTimeInMillis() < myTimeoutPoint);
-    }
-    catch (InterruptedException ex)
-    {
-      throw new ConnectorException("Error connecting to S3", ex);
-    }
-    return false;
-  }
 }
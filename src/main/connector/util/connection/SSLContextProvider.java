@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.connector.util.connection;
+
+import com.energysys.connector.exception.ConnectorException;
+import com.energysys.connector.keystore.CertificateStoreDAO;
+import com.energysys.connector.keystore.TrustStoreDAO;
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.logging.Logger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Shares one SSLContext, holding the connector's client certificate and trusted certificates, between outgoing HTTPS
+ * connections.
+ *
+ * Building the context means reading the keystores and the keystore password from disk, so it is only rebuilt when
+ * one of the keystore files has changed or {@link #invalidate()} is called. Connections made with the same context
+ * can resume its TLS sessions, and with the same socket factory can be reused while kept alive.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class SSLContextProvider
+{
+  private static final Logger LOG = Logger.getLogger(SSLContextProvider.class.getName());
+  private static final String SSL = "SSL";
+  private static final String SUN_X509 = "SunX509";
+
+  // Guarded by SSLContextProvider.class
+  private static SSLContext theSSLContext;
+  private static SSLSocketFactory theSocketFactory;
+  private static Boolean isContextTrusting;
+  private static String theKeystoresVersion;
+
+  private SSLContextProvider()
+  {
+  }
+
+  /**
+   * Gets the socket factory of the shared context, building the context first if needed.
+   *
+   * @param isTrusting if set to true, any unknown certificate will be automatically loaded into the trust store and
+   *                   trusted thereon
+   * @return the socket factory
+   * @throws ConnectorException if the context cannot be built
+   */
+  public static synchronized SSLSocketFactory getSocketFactory(Boolean isTrusting) throws ConnectorException
+  {
+    getSSLContext(isTrusting);
+    return theSocketFactory;
+  }
+
+  /**
+   * Gets the shared context, building it first if there is none, the keystore files have changed since it was built,
+   * or it was built with a different trusting setting. A new context is also made the JVM default.
+   *
+   * @param isTrusting if set to true, any unknown certificate will be automatically loaded into the trust store and
+   *                   trusted thereon
+   * @return the context
+   * @throws ConnectorException if the context cannot be built
+   */
+  public static synchronized SSLContext getSSLContext(Boolean isTrusting) throws ConnectorException
+  {
+    String myKeystoresVersion = getKeystoresVersion();
+    if (theSSLContext != null && isTrusting.equals(isContextTrusting)
+        && myKeystoresVersion.equals(theKeystoresVersion))
+    {
+      return theSSLContext;
+    }
+
+    LOG.info("Building SSL context from the connector keystores");
+    try
+    {
+      TrustStoreDAO myTrustDAO = new TrustStoreDAO();
+      CertificateStoreDAO myCertDAO = new CertificateStoreDAO();
+      // construct an Trust Manager for the SSLContext to wrap the ReloadableX509TrustManager
+      TrustManager[] myTrustManagers = new TrustManager[]
+      {
+        new ReloadableX509TrustManager(myTrustDAO, isTrusting),
+      };
+
+      // construct a KeyManagerFactory for the certificate keystore
+      KeyManagerFactory myKeyManagerFactory = KeyManagerFactory.getInstance(SUN_X509);
+      myKeyManagerFactory.init(myCertDAO.getKeyStore(), myCertDAO.getKSPassword().toCharArray());
+
+      SSLContext mySSLContext = SSLContext.getInstance(SSL);
+      mySSLContext.init(myKeyManagerFactory.getKeyManagers(), myTrustManagers, new SecureRandom());
+      SSLContext.setDefault(mySSLContext);
+
+      theSSLContext = mySSLContext;
+      theSocketFactory = mySSLContext.getSocketFactory();
+      isContextTrusting = isTrusting;
+      // Taken before building, so a change made while building is picked up next time
+      theKeystoresVersion = myKeystoresVersion;
+      return theSSLContext;
+    }
+    catch (GeneralSecurityException myEx)
+    {
+      throw new ConnectorException("Failed to build the SSL context.", myEx);
+    }
+  }
+
+  /**
+   * Drops the shared context, so the next connection builds it again from the keystores.
+   */
+  public static synchronized void invalidate()
+  {
+    theSSLContext = null;
+    theSocketFactory = null;
+    theKeystoresVersion = null;
+  }
+
+  /**
+   * Gets a value that changes whenever either keystore file is written.
+   */
+  private static String getKeystoresVersion()
+  {
+    File myTrustStore = new File(TrustStoreDAO.KS_LOCATION);
+    File myCertStore = new File(CertificateStoreDAO.KS_LOCATION);
+    return myTrustStore.lastModified() + ":" + myTrustStore.length() + ":"
+        + myCertStore.lastModified() + ":" + myCertStore.length();
+  }
+}
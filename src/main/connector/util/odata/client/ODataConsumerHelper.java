@@ -18,9 +18,7 @@ package com.energysys.connector.util.odata.client;
 
 import com.energysys.connector.config.ConnectorConfig;
 import com.energysys.connector.exception.ConnectorException;
-import com.energysys.connector.keystore.CertificateStoreDAO;
-import com.energysys.connector.keystore.TrustStoreDAO;
-import com.energysys.connector.util.connection.ReloadableX509TrustManager;
+import com.energysys.connector.util.connection.SSLContextProvider;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -30,15 +28,10 @@ import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.security.KeyStore;
-import java.security.SecureRandom;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 import org.apache.olingo.odata2.api.commons.HttpStatusCodes;
 import org.apache.olingo.odata2.api.edm.Edm;
 import org.apache.olingo.odata2.api.edm.EdmEntityContainer;
@@ -62,8 +55,6 @@ public final class ODataConsumerHelper
 {
 
   private static final Logger LOG = Logger.getLogger(ODataConsumerHelper.class.getName());
-  private static final String SSL = "SSL";
-  private static final String SUN_X509 = "SunX509";
   private static final String HTTP_METHOD_PUT = "PUT";
   private static final String HTTP_METHOD_POST = "POST";
   private static final String HTTP_METHOD_GET = "GET";
@@ -259,25 +250,9 @@ public final class ODataConsumerHelper
       theHttpsURLConnection.setConnectTimeout(connectorConfig.getHttpConnectionTimeout());
       theHttpsURLConnection.setReadTimeout(connectorConfig.getHttpReadTimeout());
 
-      // construct an Trust Manager for the SSLContext to wrap the ReloadableX509TrustManager
-      TrustStoreDAO myTrustDAO = new TrustStoreDAO();
-      CertificateStoreDAO myCertDAO = new CertificateStoreDAO();
-      TrustManager[] myTrustManagers = new TrustManager[]
-      {
-        new ReloadableX509TrustManager(myTrustDAO, connectorConfig.isHttpConnectionTrusting()),
-      };
-
-      // construct a KeyManagerFactory for the certificate keystore
-      KeyManagerFactory myKeyManagerFactory = KeyManagerFactory.getInstance(SUN_X509);
-      KeyStore myKeyStore = myCertDAO.getKeyStore();
-      myKeyManagerFactory.init(myKeyStore, myCertDAO.getKSPassword().toCharArray());
-
-      // initialise SSL context
-      SSLContext mySSLContext = SSLContext.getInstance(SSL);
-      mySSLContext.init(myKeyManagerFactory.getKeyManagers(), myTrustManagers, new SecureRandom());
-      SSLContext.setDefault(mySSLContext);
-      // set SSL context socket factory on http connection
-      theHttpsURLConnection.setSSLSocketFactory(mySSLContext.getSocketFactory());
+      // set the shared SSL context socket factory on http connection, so TLS sessions are resumed across requests
+      theHttpsURLConnection.setSSLSocketFactory(
+              SSLContextProvider.getSocketFactory(connectorConfig.isHttpConnectionTrusting()));
       // set request method
       theHttpsURLConnection.setRequestMethod(anHttpMethod);
       // set request property
@@ -21,6 +21,7 @@ import com.energysys.connector.connectors.fileconnector.CredentialsBackedS3FileS
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.connector.keystore.CredentialsStoreDAO;
 import com.energysys.connector.keystore.StoredCredentials;
+import com.energysys.connector.schedulers.quartz.JobLanes;
 import com.energysys.connector.web.AboutDetails;
 
 import javax.faces.bean.ManagedBean;
@@ -103,7 +104,10 @@ public class AboutDataBean extends AbstractDataListBackingBean<AboutDetails>
       currId = addODataDetails(currId, myAboutDetails);
 
       // Load the details from the JDBC credentials (Measurements Connector Only)
-      addJDBCDetails(currId, myAboutDetails);
+      currId = addJDBCDetails(currId, myAboutDetails);
+
+      // Load the state of the lanes jobs are run on
+      addJobLaneDetails(currId, myAboutDetails);
     }
     catch (ConnectorException e)
     {
@@ -133,6 +137,15 @@ public class AboutDataBean extends AbstractDataListBackingBean<AboutDetails>
     throw new UnsupportedOperationException();
   }
 
+  private int addJobLaneDetails(int currId, ArrayList<AboutDetails> myAboutDetails)
+  {
+    for (JobLanes.LaneStatus myLane : JobLanes.getStatus())
+    {
+      myAboutDetails.add(new AboutDetails(currId++, "Job Lane: " + myLane.getLane(), myLane.toString()));
+    }
+    return currId;
+  }
+
   private int addJDBCDetails(int currId, ArrayList<AboutDetails> myAboutDetails) throws ConnectorException
   {
     try
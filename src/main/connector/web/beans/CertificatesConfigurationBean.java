@@ -19,6 +19,7 @@ package com.energysys.connector.web.beans;
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.connector.keystore.CertificateStoreDAO;
 import com.energysys.connector.keystore.StoredCertificate;
+import com.energysys.connector.util.connection.SSLContextProvider;
 import org.primefaces.event.FileUploadEvent;
 import org.primefaces.model.DefaultStreamedContent;
 import org.primefaces.model.StreamedContent;
@@ -68,6 +69,8 @@ public class CertificatesConfigurationBean extends AbstractDataListBackingBean<S
     {
       CertificateStoreDAO myDAO = new CertificateStoreDAO();
       setData(myDAO.getCertificates());
+      // The keystore is replaced outside the connector, so reloading the page also reloads the SSL context
+      SSLContextProvider.invalidate();
     }
     catch (ConnectorException myEx)
     {
@@ -21,6 +21,7 @@ import com.energysys.connector.EventResult;
 import com.energysys.connector.exception.ConnectorException;
 import com.energysys.connector.keystore.StoredCertificate;
 import com.energysys.connector.keystore.TrustStoreDAO;
+import com.energysys.connector.util.connection.SSLContextProvider;
 import org.primefaces.event.FileUploadEvent;
 import org.primefaces.model.DefaultStreamedContent;
 import org.primefaces.model.StreamedContent;
@@ -89,6 +90,7 @@ public class TrustedCertificatesConfigurationBean extends AbstractDataListBackin
   {
     TrustStoreDAO myDAO = new TrustStoreDAO();
     myDAO.removeEntry(aDataObject.getName());
+    SSLContextProvider.invalidate();
     return true;
   }
 
@@ -160,6 +162,7 @@ public class TrustedCertificatesConfigurationBean extends AbstractDataListBackin
       TrustStoreDAO myDAO = new TrustStoreDAO();
       myDAO.storeCertificate(myFileName, myFile.getInputStream(),
               "X.509");
+      SSLContextProvider.invalidate();
       loadData();
       addGrowlMessage(new EventResult(getDataClass().getSimpleName() + ":Upload", EventResult.Result.SUCCESS,
                       "Certificate Uploaded", "", myStartTime));
@@ -44,6 +44,55 @@ public class FileSourceComparison
     this.theStatus = aStatus;
   }
 
+  /**
+   * Compares a file with the version of it held by a file source.
+   *
+   * @param aFile the file to compare
+   * @param anExistingFile the version held by the file source, or null if there is none
+   * @return the comparison
+   */
+  public static FileSourceComparison compare(IFileSourceFile aFile, IFileSourceFile anExistingFile)
+  {
+    if (anExistingFile == null)
+    {
+      return new FileSourceComparison(aFile, Status.NOT_PRESENT);
+    }
+    switch (aFile.getProducerModifiedDate().compareTo(anExistingFile.getProducerModifiedDate()))
+    {
+      case 1:
+        if (isSameContent(aFile, anExistingFile))
+        {
+          // Touched but not changed, so there is nothing to copy
+          return new FileSourceComparison(anExistingFile, Status.SAME);
+        }
+        return new FileSourceComparison(anExistingFile, Status.NEWER);
+      case -1:
+        return new FileSourceComparison(anExistingFile, Status.OLDER);
+      case 0:
+      default:
+        return new FileSourceComparison(anExistingFile, Status.SAME);
+    }
+  }
+
+  /**
+   * Checks whether two files are known to have the same content. The digest of the existing file is asked for first,
+   * so a file that has to be read to work out its digest is only read when there is something to compare it with.
+   *
+   * @param aFile the file
+   * @param anExistingFile the version held by the file source
+   * @return true if both digests are known and equal
+   */
+  private static boolean isSameContent(IFileSourceFile aFile, IFileSourceFile anExistingFile)
+  {
+    String myExistingDigest = anExistingFile.getContentDigest();
+    if (myExistingDigest == null || !myExistingDigest.equals(aFile.getContentDigest()))
+    {
+      return false;
+    }
+    LOG.fine("Content unchanged: " + aFile.getFileId());
+    return true;
+  }
+
   public Status getStatus()
   {
     return theStatus;
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking file transfers for File Sources, as a companion to the blocking methods of IFileSource.
+ *
+ * Transfers are between a local file and the file source, so no thread has to pump a stream while a transfer is in
+ * flight. The connection must be open before any of these are called. A failed transfer completes its future
+ * exceptionally with a FileSourceException.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public interface IAsyncFileSource
+{
+
+  /**
+   * Writes the content of a local file to the file on the file source.
+   *
+   * @param aLocalFile the local file holding the content
+   * @param aFile the file to write to
+   * @return completes once the content has been written
+   */
+  CompletableFuture<Void> putContentAsync(File aLocalFile, IFileSourceFile aFile);
+
+  /**
+   * Gets the content of a file on the file source into a local file. The local file is only replaced once all the
+   * content has been received.
+   *
+   * @param aLocalFile the local file to write to
+   * @param aFile the file
+   * @return completes with the file once the local file has been written
+   */
+  CompletableFuture<IFileSourceFile> getContentAsync(File aLocalFile, IFileSourceFile aFile);
+
+  /**
+   * Move a file.
+   *
+   * @param aFile the file
+   * @param aNewID the new id
+   * @return completes with the new file once moved
+   */
+  CompletableFuture<IFileSourceFile> moveFileAsync(IFileSourceFile aFile, String aNewID);
+}
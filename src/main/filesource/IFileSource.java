@@ -20,7 +20,10 @@ import com.energysys.filesource.exception.FileSourceException;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface for File Sources.
@@ -42,6 +45,18 @@ public interface IFileSource<T extends IFileSourceConfig>
    */
   List<IFileSourceFile> findFiles(String aFileNamePattern, Boolean isDirRecursive, IFileSourceFileFilter aFilter);
 
+  /**
+   * Finds the same files as findFiles, but returns them one at a time as they are found rather than as a list, so the
+   * memory used does not grow with the number of files.
+   *
+   * @param aFileNamePattern the filename pattern
+   * @param isDirRecursive whether to recurse down directories
+   * @param aFilter the filter
+   * @return iterator over the matching IFileSourceFile, to be closed by the caller
+   */
+  IFileSourceFileIterator iterateFiles(String aFileNamePattern, Boolean isDirRecursive,
+          IFileSourceFileFilter aFilter);
+
   /**
    * Finds a file in the file source with the given id.
    *
@@ -85,6 +100,15 @@ public interface IFileSource<T extends IFileSourceConfig>
    */
   FileSourceComparison compare(IFileSourceFile someLocalMetadata);
 
+  /**
+   * Compares each of the given files with the version on this file source, looking them up together where the file
+   * source can do so more cheaply than one at a time.
+   *
+   * @param someFiles the files to compare
+   * @return the results keyed by file id
+   */
+  Map<String, FileSourceComparison> compareAll(List<IFileSourceFile> someFiles);
+
   /**
    * Closes the connection to the file source.
    *
@@ -110,4 +134,27 @@ public interface IFileSource<T extends IFileSourceConfig>
    * @throws FileSourceException
    */
   IFileSourceFile moveFile(IFileSourceFile aFile, String aNewID) throws FileSourceException;
+
+  /**
+   * Moves several files at once. A file that cannot be moved does not stop the others being moved.
+   *
+   * @param someMoves the new id of each file, keyed by the file
+   * @return the error message for each file id that could not be moved, empty if all were
+   */
+  Map<String, String> moveFiles(Map<IFileSourceFile, String> someMoves);
+
+  /**
+   * Finds which of the given ids the file source holds a file for, without building the files as findFile would.
+   *
+   * @param someFileIDs the ids, relative to the file source as for findFile
+   * @return the ids that exist
+   */
+  Set<String> findExistingFileIDs(Collection<String> someFileIDs);
+
+  /**
+   * Gets a key for where the file source keeps its files, the same for every instance on the same place.
+   *
+   * @return the key
+   */
+  String getLocationKey();
 }
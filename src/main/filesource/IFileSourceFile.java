@@ -66,4 +66,11 @@ public interface IFileSourceFile
    */
   String getMimeType();
 
+  /**
+   * Gets the SHA-256 digest of the content of the file, as lower case hex.
+   * Only known when the file source keeps content digests.
+   * @return the digest, or null if not known
+   */
+  String getContentDigest();
+
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the files of a File Source, found as they are asked for rather than all at once, so a source with any
+ * number of files can be walked without holding them all. Callers are responsible for closing the iterator, which
+ * releases anything the walk still holds open.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public interface IFileSourceFileIterator extends Iterator<IFileSourceFile>, AutoCloseable
+{
+
+  /**
+   * Ends the walk, whether or not every file has been returned.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.local;
+
+import com.energysys.filesource.exception.FileSourceException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies one local file to another with asynchronous file channels, chaining each read to the next write through
+ * completion handlers so no thread waits on the copy.
+ *
+ * The copy is written to a hidden temporary file next to the target and only moved over the target once complete.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class AsyncFileCopy
+{
+  private static final Logger LOG = Logger.getLogger(AsyncFileCopy.class.getName());
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final String TEMP_PREFIX = ".";
+  private static final String TEMP_SUFFIX = ".part";
+
+  private final Path theSource;
+  private final Path theTarget;
+  private final Path theTempFile;
+  private final CompletableFuture<Void> theResult = new CompletableFuture<>();
+  private final ByteBuffer theBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private AsynchronousFileChannel theSourceChannel;
+  private AsynchronousFileChannel theTargetChannel;
+  private long thePosition;
+
+  private AsyncFileCopy(Path aSource, Path aTarget)
+  {
+    this.theSource = aSource;
+    this.theTarget = aTarget;
+    this.theTempFile = aTarget.resolveSibling(TEMP_PREFIX + aTarget.getFileName() + TEMP_SUFFIX);
+  }
+
+  /**
+   * Starts copying a file.
+   *
+   * @param aSource the file to copy
+   * @param aTarget the file to copy to, replaced if it exists
+   * @return completes once the target has been replaced
+   */
+  static CompletableFuture<Void> copy(Path aSource, Path aTarget)
+  {
+    AsyncFileCopy myCopy = new AsyncFileCopy(aSource, aTarget);
+    myCopy.start();
+    return myCopy.theResult;
+  }
+
+  private void start()
+  {
+    try
+    {
+      Files.createDirectories(theTarget.toAbsolutePath().getParent());
+      theSourceChannel = AsynchronousFileChannel.open(theSource, StandardOpenOption.READ);
+      theTargetChannel = AsynchronousFileChannel.open(theTempFile,
+              StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      read();
+    }
+    catch (IOException ex)
+    {
+      fail(ex);
+    }
+  }
+
+  private void read()
+  {
+    theBuffer.clear();
+    theSourceChannel.read(theBuffer, thePosition, null, new CompletionHandler<Integer, Void>()
+    {
+      @Override
+      public void completed(Integer aBytesRead, Void anAttachment)
+      {
+        if (aBytesRead < 0)
+        {
+          finish();
+          return;
+        }
+        theBuffer.flip();
+        write();
+      }
+
+      @Override
+      public void failed(Throwable anException, Void anAttachment)
+      {
+        fail(anException);
+      }
+    });
+  }
+
+  private void write()
+  {
+    theTargetChannel.write(theBuffer, thePosition, null, new CompletionHandler<Integer, Void>()
+    {
+      @Override
+      public void completed(Integer aBytesWritten, Void anAttachment)
+      {
+        thePosition += aBytesWritten;
+        if (theBuffer.hasRemaining())
+        {
+          write();
+        }
+        else
+        {
+          read();
+        }
+      }
+
+      @Override
+      public void failed(Throwable anException, Void anAttachment)
+      {
+        fail(anException);
+      }
+    });
+  }
+
+  private void finish()
+  {
+    try
+    {
+      theTargetChannel.force(true);
+      closeChannels();
+      Files.move(theTempFile, theTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      theResult.complete(null);
+    }
+    catch (IOException ex)
+    {
+      fail(ex);
+    }
+  }
+
+  private void fail(Throwable anException)
+  {
+    closeChannels();
+    try
+    {
+      Files.deleteIfExists(theTempFile);
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Could not delete partial copy: " + theTempFile, ex);
+    }
+    theResult.completeExceptionally(new FileSourceException("Error copying file: " + theSource, anException));
+  }
+
+  private void closeChannels()
+  {
+    for (AsynchronousFileChannel myChannel : new AsynchronousFileChannel[] {theSourceChannel, theTargetChannel})
+    {
+      if (myChannel == null)
+      {
+        continue;
+      }
+      try
+      {
+        myChannel.close();
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.FINE, "Error closing channel", ex);
+      }
+    }
+  }
+}
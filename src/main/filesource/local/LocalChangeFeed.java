@@ -0,0 +1,472 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.local;
+
+import com.energysys.filesource.exception.FileSourceException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the files created or modified under a local directory, so a sync can process just those files rather than
+ * rescanning the whole directory.
+ *
+ * A WatchService thread records the id of each changed file. Each sync using the feed is a consumer, identified by
+ * the sync's id, with its own pending changes kept in memory and appended to a journal file of its own. A sync takes
+ * its changes with {@link #takeChanges(String)} and, once it has processed them, commits them with
+ * {@link #commit(ChangeSet)}. Changes that are not committed are handed out again by the next take, and committing
+ * them does not affect any other consumer. When events may have been lost for a consumer (when it first takes, on a
+ * watch overflow or once its rescan interval has passed) the take asks for a full rescan instead.
+ *
+ * Feeds are shared by every LocalFileSource on the same directory and run until {@link #stopAll()}.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class LocalChangeFeed
+{
+  private static final Logger LOG = Logger.getLogger(LocalChangeFeed.class.getName());
+  private static final String JOURNAL_SUFFIX = ".changes";
+  private static final String JOURNAL_TEMP_SUFFIX = ".tmp";
+  private static final Map<String, LocalChangeFeed> FEEDS = new HashMap<>();
+
+  private final Path theBaseDir;
+  private final boolean isRecursive;
+  private final Path theJournalDir;
+  private final String theJournalPrefix;
+  private final long theRescanIntervalMillis;
+  private final WatchService theWatchService;
+  private final Map<WatchKey, Path> theWatchedDirs = new HashMap<>();
+  private final Thread theWatchThread;
+
+  // Guarded by this
+  private final Map<String, Consumer> theConsumers = new HashMap<>();
+  private long theSequence;
+
+  /**
+   * The changes pending for one consumer, and when it last rescanned.
+   */
+  private static final class Consumer
+  {
+    private final Path theJournalFile;
+    private final Map<String, Long> theChanges = new LinkedHashMap<>();
+    private BufferedWriter theJournalWriter;
+    // Events may have been missed before the consumer was known, so it starts with a rescan
+    private boolean isRescanRequired = true;
+    private long theRescanRequestedMillis;
+    private long theLastRescanMillis;
+
+    Consumer(Path aJournalFile)
+    {
+      this.theJournalFile = aJournalFile;
+    }
+  }
+
+  /**
+   * The changes handed to one sync.
+   */
+  public static final class ChangeSet
+  {
+    private final String theConsumerId;
+    private final Set<String> theFileIds;
+    private final long theSequence;
+    private final long theTakenMillis;
+
+    private ChangeSet(String aConsumerId, Set<String> someFileIds, long aSequence, long aTakenMillis)
+    {
+      this.theConsumerId = aConsumerId;
+      this.theFileIds = someFileIds;
+      this.theSequence = aSequence;
+      this.theTakenMillis = aTakenMillis;
+    }
+
+    /**
+     * Gets whether the whole directory needs to be rescanned.
+     *
+     * @return if a full rescan is needed
+     */
+    public boolean isFullRescan()
+    {
+      return theFileIds == null;
+    }
+
+    /**
+     * Gets the ids of the changed files.
+     *
+     * @return the ids, or null if a full rescan is needed
+     */
+    public Set<String> getFileIds()
+    {
+      return theFileIds;
+    }
+  }
+
+  private LocalChangeFeed(Path aBaseDir, boolean isRecursive, Path aJournalDir, String aJournalPrefix,
+          long aRescanIntervalMillis) throws IOException
+  {
+    this.theBaseDir = aBaseDir;
+    this.isRecursive = isRecursive;
+    this.theJournalDir = aJournalDir;
+    this.theJournalPrefix = aJournalPrefix;
+    this.theRescanIntervalMillis = aRescanIntervalMillis;
+    this.theWatchService = aBaseDir.getFileSystem().newWatchService();
+
+    if (isRecursive)
+    {
+      registerTree(aBaseDir, false);
+    }
+    else
+    {
+      register(aBaseDir);
+    }
+
+    theWatchThread = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        watch();
+      }
+    }, "LocalChangeFeed-" + aBaseDir.getFileName());
+    theWatchThread.setDaemon(true);
+    theWatchThread.start();
+  }
+
+  /**
+   * Gets the feed for a directory, starting it if needed.
+   *
+   * @param aBaseDir the directory to watch
+   * @param isRecursive whether to watch sub directories
+   * @param aJournalDir directory to keep the journal in
+   * @param aRescanIntervalMillis how often a full rescan is asked for regardless of events
+   * @return the feed
+   * @throws FileSourceException if the directory cannot be watched
+   */
+  public static synchronized LocalChangeFeed forDirectory(Path aBaseDir, boolean isRecursive, Path aJournalDir,
+          long aRescanIntervalMillis) throws FileSourceException
+  {
+    Path myBaseDir = aBaseDir.toAbsolutePath().normalize();
+    String myFeedKey = myBaseDir + File.pathSeparator + isRecursive;
+    LocalChangeFeed myFeed = FEEDS.get(myFeedKey);
+    if (myFeed == null)
+    {
+      try
+      {
+        Files.createDirectories(aJournalDir);
+        myFeed = new LocalChangeFeed(myBaseDir, isRecursive, aJournalDir, toFileName(myFeedKey),
+                aRescanIntervalMillis);
+      }
+      catch (IOException ex)
+      {
+        throw new FileSourceException("Unable to watch local directory: " + myBaseDir, ex);
+      }
+      FEEDS.put(myFeedKey, myFeed);
+      LOG.log(Level.INFO, "Watching local directory for changes: {0}", myBaseDir);
+    }
+    return myFeed;
+  }
+
+  /**
+   * Stops all feeds.
+   */
+  public static synchronized void stopAll()
+  {
+    for (LocalChangeFeed myFeed : FEEDS.values())
+    {
+      myFeed.stop();
+    }
+    FEEDS.clear();
+  }
+
+  /**
+   * Takes the changes recorded for a consumer since its last commit.
+   *
+   * @param aConsumerId identifies the consumer, unique among the users of the feed
+   * @return the changes
+   */
+  public synchronized ChangeSet takeChanges(String aConsumerId)
+  {
+    Consumer myConsumer = getConsumer(aConsumerId);
+    long myNow = System.currentTimeMillis();
+    if (myConsumer.isRescanRequired || myNow - myConsumer.theLastRescanMillis >= theRescanIntervalMillis)
+    {
+      return new ChangeSet(aConsumerId, null, theSequence, myNow);
+    }
+    return new ChangeSet(aConsumerId, new LinkedHashSet<>(myConsumer.theChanges.keySet()), theSequence, myNow);
+  }
+
+  /**
+   * Commits a set of changes once they have been processed. Files changed again since the take are kept, as are the
+   * changes pending for other consumers.
+   *
+   * @param aChangeSet the changes
+   */
+  public synchronized void commit(ChangeSet aChangeSet)
+  {
+    Consumer myConsumer = getConsumer(aChangeSet.theConsumerId);
+    Iterator<Map.Entry<String, Long>> myChanges = myConsumer.theChanges.entrySet().iterator();
+    while (myChanges.hasNext())
+    {
+      Map.Entry<String, Long> myChange = myChanges.next();
+      if (myChange.getValue() <= aChangeSet.theSequence
+              && (aChangeSet.isFullRescan() || aChangeSet.theFileIds.contains(myChange.getKey())))
+      {
+        myChanges.remove();
+      }
+    }
+    if (aChangeSet.isFullRescan())
+    {
+      // Only clear the flag if no events were lost after the rescan started
+      if (myConsumer.theRescanRequestedMillis < aChangeSet.theTakenMillis)
+      {
+        myConsumer.isRescanRequired = false;
+      }
+      myConsumer.theLastRescanMillis = aChangeSet.theTakenMillis;
+    }
+    rewriteJournal(myConsumer);
+  }
+
+  private Consumer getConsumer(String aConsumerId)
+  {
+    Consumer myConsumer = theConsumers.get(aConsumerId);
+    if (myConsumer == null)
+    {
+      myConsumer = new Consumer(theJournalDir.resolve(theJournalPrefix + "." + toFileName(aConsumerId)
+              + JOURNAL_SUFFIX));
+      loadJournal(myConsumer);
+      theConsumers.put(aConsumerId, myConsumer);
+    }
+    return myConsumer;
+  }
+
+  private synchronized void recordChange(Path aFile)
+  {
+    String myFileId = theBaseDir.relativize(aFile).toString().replace(File.separatorChar, '/');
+    long mySequence = ++theSequence;
+    for (Consumer myConsumer : theConsumers.values())
+    {
+      myConsumer.theChanges.remove(myFileId);
+      myConsumer.theChanges.put(myFileId, mySequence);
+      try
+      {
+        if (myConsumer.theJournalWriter == null)
+        {
+          myConsumer.theJournalWriter = Files.newBufferedWriter(myConsumer.theJournalFile, StandardCharsets.UTF_8,
+                  StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        myConsumer.theJournalWriter.write(myFileId);
+        myConsumer.theJournalWriter.newLine();
+        myConsumer.theJournalWriter.flush();
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.WARNING, "Unable to write change journal: " + myConsumer.theJournalFile, ex);
+      }
+    }
+  }
+
+  private synchronized void requireRescan()
+  {
+    for (Consumer myConsumer : theConsumers.values())
+    {
+      myConsumer.isRescanRequired = true;
+      myConsumer.theRescanRequestedMillis = System.currentTimeMillis();
+    }
+  }
+
+  private void loadJournal(Consumer aConsumer)
+  {
+    // Events may have been missed while nothing was watching, so a rescan is still required, but changes that
+    // were recorded and never committed are kept
+    if (!Files.exists(aConsumer.theJournalFile))
+    {
+      return;
+    }
+    try
+    {
+      for (String myFileId : Files.readAllLines(aConsumer.theJournalFile, StandardCharsets.UTF_8))
+      {
+        if (!myFileId.isEmpty())
+        {
+          aConsumer.theChanges.remove(myFileId);
+          aConsumer.theChanges.put(myFileId, ++theSequence);
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      // Only costs the rescan the consumer starts with anyway
+      LOG.log(Level.WARNING, "Unable to read change journal: " + aConsumer.theJournalFile, ex);
+    }
+  }
+
+  private void rewriteJournal(Consumer aConsumer)
+  {
+    Path myTempFile = aConsumer.theJournalFile.resolveSibling(aConsumer.theJournalFile.getFileName()
+            + JOURNAL_TEMP_SUFFIX);
+    try
+    {
+      if (aConsumer.theJournalWriter != null)
+      {
+        aConsumer.theJournalWriter.close();
+        aConsumer.theJournalWriter = null;
+      }
+      Files.write(myTempFile, aConsumer.theChanges.keySet(), StandardCharsets.UTF_8);
+      Files.move(myTempFile, aConsumer.theJournalFile, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to rewrite change journal: " + aConsumer.theJournalFile, ex);
+    }
+  }
+
+  private static String toFileName(String aKey)
+  {
+    return aKey.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  private void register(Path aDir) throws IOException
+  {
+    WatchKey myKey = aDir.register(theWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+    theWatchedDirs.put(myKey, aDir);
+  }
+
+  /**
+   * Registers a directory tree.
+   *
+   * @param aDir the root of the tree
+   * @param isNew whether the tree has just been created, in which case its files are recorded as changes since
+   *              they may have been written before the watch was in place
+   * @throws IOException on error
+   */
+  private void registerTree(Path aDir, final boolean isNew) throws IOException
+  {
+    Files.walkFileTree(aDir, new SimpleFileVisitor<Path>()
+    {
+      @Override
+      public FileVisitResult preVisitDirectory(Path aSubDir, BasicFileAttributes someAttributes) throws IOException
+      {
+        register(aSubDir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path aFile, BasicFileAttributes someAttributes)
+      {
+        if (isNew)
+        {
+          recordChange(aFile);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void watch()
+  {
+    while (true)
+    {
+      WatchKey myKey;
+      try
+      {
+        myKey = theWatchService.take();
+      }
+      catch (InterruptedException | ClosedWatchServiceException ex)
+      {
+        return;
+      }
+
+      Path myDir = theWatchedDirs.get(myKey);
+      for (WatchEvent<?> myEvent : myKey.pollEvents())
+      {
+        if (myEvent.kind() == StandardWatchEventKinds.OVERFLOW || myDir == null)
+        {
+          LOG.log(Level.WARNING, "Change events lost, full rescan required: {0}", theBaseDir);
+          requireRescan();
+          continue;
+        }
+        Path myChild = myDir.resolve((Path) myEvent.context());
+        if (Files.isDirectory(myChild))
+        {
+          if (isRecursive && myEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+          {
+            try
+            {
+              registerTree(myChild, true);
+            }
+            catch (IOException ex)
+            {
+              LOG.log(Level.WARNING, "Unable to watch new directory, full rescan required: " + myChild, ex);
+              requireRescan();
+            }
+          }
+        }
+        else
+        {
+          recordChange(myChild);
+        }
+      }
+      if (!myKey.reset())
+      {
+        theWatchedDirs.remove(myKey);
+      }
+    }
+  }
+
+  private void stop()
+  {
+    try
+    {
+      theWatchService.close();
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Error closing watch service: " + theBaseDir, ex);
+    }
+    theWatchThread.interrupt();
+    synchronized (this)
+    {
+      for (Consumer myConsumer : theConsumers.values())
+      {
+        rewriteJournal(myConsumer);
+      }
+    }
+  }
+}
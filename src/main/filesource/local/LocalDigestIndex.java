@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.local;
+
+import com.energysys.filesource.exception.FileSourceException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the SHA-256 digest of the content of each file under a local directory, so a file is only read in full to
+ * work out its digest when its size or modified time has changed.
+ *
+ * Digests are worked out when first asked for and held in memory. The index is written to a file in the index
+ * directory on {@link #save()}, dropping entries for files that no longer exist, and read back when the index is
+ * first used after a restart.
+ *
+ * Indexes are shared by every LocalFileSource on the same directory and are saved by {@link #saveAll()}.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class LocalDigestIndex
+{
+  private static final Logger LOG = Logger.getLogger(LocalDigestIndex.class.getName());
+  private static final String INDEX_SUFFIX = ".sha256";
+  private static final String INDEX_TEMP_SUFFIX = ".tmp";
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final String SEPARATOR = "\t";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final Map<Path, LocalDigestIndex> INDEXES = new HashMap<>();
+
+  private final Path theBaseDir;
+  private final Path theIndexFile;
+
+  // Guarded by this
+  private final Map<String, Entry> theEntries = new HashMap<>();
+  private boolean isDirty;
+
+  /**
+   * The digest of a file at a given size and modified time.
+   */
+  private static final class Entry
+  {
+    private final long theSize;
+    private final long theLastModified;
+    private final String theDigest;
+
+    Entry(long aSize, long aLastModified, String aDigest)
+    {
+      this.theSize = aSize;
+      this.theLastModified = aLastModified;
+      this.theDigest = aDigest;
+    }
+  }
+
+  private LocalDigestIndex(Path aBaseDir, Path anIndexFile)
+  {
+    this.theBaseDir = aBaseDir;
+    this.theIndexFile = anIndexFile;
+    loadIndex();
+  }
+
+  /**
+   * Gets the index for a directory, loading it if needed.
+   *
+   * @param aBaseDir the directory whose files are indexed
+   * @param anIndexDir directory to keep the index in
+   * @return the index
+   * @throws FileSourceException if the index directory cannot be created
+   */
+  public static synchronized LocalDigestIndex forDirectory(Path aBaseDir, Path anIndexDir) throws FileSourceException
+  {
+    Path myBaseDir = aBaseDir.toAbsolutePath().normalize();
+    LocalDigestIndex myIndex = INDEXES.get(myBaseDir);
+    if (myIndex == null)
+    {
+      String myIndexName = myBaseDir.toString().replaceAll("[^A-Za-z0-9._-]", "_") + INDEX_SUFFIX;
+      try
+      {
+        Files.createDirectories(anIndexDir);
+      }
+      catch (IOException ex)
+      {
+        throw new FileSourceException("Unable to create digest index directory: " + anIndexDir, ex);
+      }
+      myIndex = new LocalDigestIndex(myBaseDir, anIndexDir.resolve(myIndexName));
+      INDEXES.put(myBaseDir, myIndex);
+    }
+    return myIndex;
+  }
+
+  /**
+   * Saves all indexes.
+   */
+  public static synchronized void saveAll()
+  {
+    for (LocalDigestIndex myIndex : INDEXES.values())
+    {
+      myIndex.save();
+    }
+  }
+
+  /**
+   * Gets the digest of a file, reading the file only if its size or modified time differ from when the digest was
+   * last worked out.
+   *
+   * @param aFileId the file id, relative to the base directory
+   * @param aFile the file
+   * @param aSize the size of the file
+   * @param aLastModified the modified time of the file
+   * @return the digest as lower case hex
+   * @throws IOException if the file cannot be read
+   */
+  String getDigest(String aFileId, File aFile, long aSize, long aLastModified) throws IOException
+  {
+    synchronized (this)
+    {
+      Entry myEntry = theEntries.get(aFileId);
+      if (myEntry != null && myEntry.theSize == aSize && myEntry.theLastModified == aLastModified)
+      {
+        return myEntry.theDigest;
+      }
+    }
+
+    // Read outside the lock so several files can be digested at once
+    String myDigest = digest(aFile);
+    if (aFile.length() != aSize || aFile.lastModified() != aLastModified)
+    {
+      // Changed while being read, so the digest is not kept against the old size and time
+      LOG.log(Level.FINE, "File changed while digesting: {0}", aFileId);
+      return myDigest;
+    }
+    synchronized (this)
+    {
+      theEntries.put(aFileId, new Entry(aSize, aLastModified, myDigest));
+      isDirty = true;
+    }
+    return myDigest;
+  }
+
+  /**
+   * Writes the index to its file if it has changed since it was last written. Entries for files that no longer exist
+   * are dropped first.
+   */
+  public synchronized void save()
+  {
+    Iterator<Map.Entry<String, Entry>> myEntries = theEntries.entrySet().iterator();
+    while (myEntries.hasNext())
+    {
+      if (!Files.exists(theBaseDir.resolve(myEntries.next().getKey())))
+      {
+        myEntries.remove();
+        isDirty = true;
+      }
+    }
+    if (!isDirty)
+    {
+      return;
+    }
+
+    Path myTempFile = theIndexFile.resolveSibling(theIndexFile.getFileName() + INDEX_TEMP_SUFFIX);
+    try
+    {
+      try (BufferedWriter myWriter = Files.newBufferedWriter(myTempFile, StandardCharsets.UTF_8))
+      {
+        for (Map.Entry<String, Entry> myEntry : theEntries.entrySet())
+        {
+          myWriter.write(myEntry.getValue().theDigest + SEPARATOR + myEntry.getValue().theSize + SEPARATOR
+                  + myEntry.getValue().theLastModified + SEPARATOR + myEntry.getKey());
+          myWriter.newLine();
+        }
+      }
+      Files.move(myTempFile, theIndexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      isDirty = false;
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Unable to write digest index: " + theIndexFile, ex);
+    }
+  }
+
+  private void loadIndex()
+  {
+    if (!Files.exists(theIndexFile))
+    {
+      return;
+    }
+    try
+    {
+      for (String myLine : Files.readAllLines(theIndexFile, StandardCharsets.UTF_8))
+      {
+        String[] myFields = myLine.split(SEPARATOR, 4);
+        if (myFields.length < 4)
+        {
+          continue;
+        }
+        theEntries.put(myFields[3], new Entry(Long.parseLong(myFields[1]), Long.parseLong(myFields[2]), myFields[0]));
+      }
+    }
+    catch (IOException | NumberFormatException ex)
+    {
+      // Only costs reading the files again
+      LOG.log(Level.WARNING, "Unable to read digest index, digests will be worked out again: " + theIndexFile, ex);
+      theEntries.clear();
+    }
+  }
+
+  private static String digest(File aFile) throws IOException
+  {
+    MessageDigest myDigest;
+    try
+    {
+      myDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException ex)
+    {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+    byte[] myBuffer = new byte[BUFFER_SIZE];
+    try (InputStream myInput = Files.newInputStream(aFile.toPath()))
+    {
+      int myCount;
+      while ((myCount = myInput.read(myBuffer)) >= 0)
+      {
+        myDigest.update(myBuffer, 0, myCount);
+      }
+    }
+    byte[] myBytes = myDigest.digest();
+    char[] myHex = new char[myBytes.length * 2];
+    for (int i = 0; i < myBytes.length; i++)
+    {
+      myHex[i * 2] = HEX_DIGITS[(myBytes[i] >> 4) & 0xF];
+      myHex[i * 2 + 1] = HEX_DIGITS[myBytes[i] & 0xF];
+    }
+    return new String(myHex);
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.local;
+
+import com.energysys.filesource.IFileSourceFile;
+import com.energysys.filesource.IFileSourceFileFilter;
+import com.energysys.filesource.IFileSourceFileIterator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Scans a local directory for files, reading the attributes of each entry only once.
+ *
+ * Hidden entries are skipped, directories are only descended into when recursive and file names are matched against a
+ * single precompiled pattern. Subdirectories can optionally be scanned in parallel on the common fork join pool, in
+ * which case the filter must be safe to call from several threads. A scan can also be walked one file at a time, which
+ * only holds open the directories on the path to the current file.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+class LocalFileScanner
+{
+  private static final Logger LOG = Logger.getLogger(LocalFileScanner.class.getName());
+
+  private final Path theBaseDir;
+  private final String theOwner;
+  private final boolean isDirRecursive;
+  private final Pattern theFileNamePattern;
+  private final IFileSourceFileFilter theFilter;
+  private final LocalDigestIndex theDigestIndex;
+
+  /**
+   * Constructor.
+   *
+   * @param aBaseDir the base dir, which file ids are relative to
+   * @param anOwner the owner of the files
+   * @param isDirRecursive whether to recurse sub dirs
+   * @param aFileNamePattern the file name pattern, or null or empty to match all files
+   * @param aFilter the filter, or null to accept all files
+   */
+  LocalFileScanner(Path aBaseDir, String anOwner, Boolean isDirRecursive, String aFileNamePattern,
+          IFileSourceFileFilter aFilter)
+  {
+    this(aBaseDir, anOwner, isDirRecursive, aFileNamePattern, aFilter, null);
+  }
+
+  /**
+   * Constructor for a scan whose files take their content digests from an index.
+   *
+   * @param aBaseDir the base dir, which file ids are relative to
+   * @param anOwner the owner of the files
+   * @param isDirRecursive whether to recurse sub dirs
+   * @param aFileNamePattern the file name pattern, or null or empty to match all files
+   * @param aFilter the filter, or null to accept all files
+   * @param aDigestIndex the digest index, or null if digests are not kept
+   */
+  LocalFileScanner(Path aBaseDir, String anOwner, Boolean isDirRecursive, String aFileNamePattern,
+          IFileSourceFileFilter aFilter, LocalDigestIndex aDigestIndex)
+  {
+    this.theBaseDir = aBaseDir;
+    this.theOwner = anOwner;
+    this.isDirRecursive = Boolean.TRUE.equals(isDirRecursive);
+    this.theFileNamePattern = aFileNamePattern == null || aFileNamePattern.isEmpty()
+            ? null : Pattern.compile(aFileNamePattern);
+    this.theFilter = aFilter;
+    this.theDigestIndex = aDigestIndex;
+  }
+
+  /**
+   * Scans the base directory with a single tree walk.
+   *
+   * @return the files found
+   */
+  List<IFileSourceFile> scan()
+  {
+    final List<IFileSourceFile> myFilesFound = new ArrayList<>();
+    if (!Files.isDirectory(theBaseDir))
+    {
+      return myFilesFound;
+    }
+    try
+    {
+      // Links are followed as File.listFiles did; a link back up the tree is reported to visitFileFailed
+      Files.walkFileTree(theBaseDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+              new SimpleFileVisitor<Path>()
+      {
+        @Override
+        public FileVisitResult preVisitDirectory(Path aDir, BasicFileAttributes someAttributes)
+        {
+          if (aDir.equals(theBaseDir))
+          {
+            return FileVisitResult.CONTINUE;
+          }
+          return isDirRecursive && !isHidden(aDir, someAttributes)
+                  ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path aFile, BasicFileAttributes someAttributes)
+        {
+          addIfAccepted(aFile, someAttributes, myFilesFound);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path aFile, IOException anException)
+        {
+          LOG.log(Level.WARNING, "Unable to read local file: " + aFile, anException);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    catch (IOException ex)
+    {
+      LOG.log(Level.WARNING, "Error scanning local directory: " + theBaseDir, ex);
+    }
+    return myFilesFound;
+  }
+
+  /**
+   * Scans the base directory, scanning subdirectories in parallel.
+   *
+   * @return the files found
+   */
+  List<IFileSourceFile> scanParallel()
+  {
+    if (!Files.isDirectory(theBaseDir))
+    {
+      return new ArrayList<>();
+    }
+    return ForkJoinPool.commonPool().invoke(new DirectoryScan(theBaseDir));
+  }
+
+  /**
+   * Checks just the given files, reading the attributes of each once. Ids that no longer exist, or that the scan
+   * would not have reached, are left out.
+   *
+   * @param someFileIds ids relative to the base dir
+   * @return the files found
+   */
+  List<IFileSourceFile> scanFiles(Collection<String> someFileIds)
+  {
+    List<IFileSourceFile> myFilesFound = new ArrayList<>();
+    for (String myFileId : someFileIds)
+    {
+      if (!isDirRecursive && myFileId.contains("/"))
+      {
+        continue;
+      }
+      Path myFile = theBaseDir.resolve(myFileId);
+      if (isInHiddenDir(myFile))
+      {
+        continue;
+      }
+      try
+      {
+        addIfAccepted(myFile, Files.readAttributes(myFile, BasicFileAttributes.class), myFilesFound);
+      }
+      catch (IOException ex)
+      {
+        // Deleted or moved since it changed
+        LOG.log(Level.FINE, "Changed file no longer readable: {0}", myFile);
+      }
+    }
+    return myFilesFound;
+  }
+
+  /**
+   * Walks the base directory depth first, finding each file as it is asked for.
+   *
+   * @return the files found, to be closed by the caller
+   */
+  IFileSourceFileIterator iterate()
+  {
+    return new TreeWalk();
+  }
+
+  /**
+   * Checks just the given files as they are asked for, as for scanFiles.
+   *
+   * @param someFileIds ids relative to the base dir
+   * @return the files found, to be closed by the caller
+   */
+  IFileSourceFileIterator iterateFiles(final Collection<String> someFileIds)
+  {
+    final Iterator<String> myFileIds = someFileIds.iterator();
+    return new AbstractFileIterator()
+    {
+      @Override
+      protected IFileSourceFile findNext()
+      {
+        while (myFileIds.hasNext())
+        {
+          List<IFileSourceFile> myFound = scanFiles(Collections.singletonList(myFileIds.next()));
+          if (!myFound.isEmpty())
+          {
+            return myFound.get(0);
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  private boolean isInHiddenDir(Path aFile)
+  {
+    for (Path myName : theBaseDir.relativize(aFile.getParent() == null ? aFile : aFile.getParent()))
+    {
+      if (myName.toString().startsWith("."))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void addIfAccepted(Path aFile, BasicFileAttributes someAttributes, List<IFileSourceFile> someFilesFound)
+  {
+    IFileSourceFile myLocalFile = toAcceptedFile(aFile, someAttributes);
+    if (myLocalFile != null)
+    {
+      someFilesFound.add(myLocalFile);
+    }
+  }
+
+  private IFileSourceFile toAcceptedFile(Path aFile, BasicFileAttributes someAttributes)
+  {
+    if (someAttributes.isDirectory() || isHidden(aFile, someAttributes))
+    {
+      return null;
+    }
+    // Check that the filename matches the filePattern regex, if there is one.
+    if (theFileNamePattern != null && !theFileNamePattern.matcher(aFile.getFileName().toString()).matches())
+    {
+      return null;
+    }
+    LocalFileSourceFile myLocalFile = new LocalFileSourceFile(aFile.toFile(), getFileID(aFile), theOwner,
+            someAttributes, theDigestIndex);
+    if (theFilter == null || theFilter.accept(myLocalFile))
+    {
+      return myLocalFile;
+    }
+    return null;
+  }
+
+  private String getFileID(Path aFile)
+  {
+    String myKey = theBaseDir.relativize(aFile).toString();
+    return File.separatorChar == '/' ? myKey : myKey.replace(File.separatorChar, '/');
+  }
+
+  private static boolean isHidden(Path aPath, BasicFileAttributes someAttributes)
+  {
+    // As File.isHidden: on Windows the attributes read during the walk carry the hidden flag, and a name starting with
+    // a dot is not hidden there. Elsewhere it is the name
+    if (someAttributes instanceof DosFileAttributes)
+    {
+      return ((DosFileAttributes) someAttributes).isHidden();
+    }
+    return aPath.getFileName().toString().startsWith(".");
+  }
+
+  /**
+   * Scans one directory, forking a scan for each subdirectory.
+   */
+  private class DirectoryScan extends RecursiveTask<List<IFileSourceFile>>
+  {
+    private final Path theDir;
+
+    DirectoryScan(Path aDir)
+    {
+      this.theDir = aDir;
+    }
+
+    @Override
+    protected List<IFileSourceFile> compute()
+    {
+      List<IFileSourceFile> myFilesFound = new ArrayList<>();
+      List<DirectoryScan> mySubScans = new ArrayList<>();
+      try (DirectoryStream<Path> myEntries = Files.newDirectoryStream(theDir))
+      {
+        for (Path myEntry : myEntries)
+        {
+          BasicFileAttributes myAttributes;
+          try
+          {
+            myAttributes = Files.readAttributes(myEntry, BasicFileAttributes.class);
+          }
+          catch (IOException ex)
+          {
+            LOG.log(Level.WARNING, "Unable to read local file: " + myEntry, ex);
+            continue;
+          }
+          if (myAttributes.isDirectory())
+          {
+            if (isDirRecursive && !isHidden(myEntry, myAttributes))
+            {
+              DirectoryScan mySubScan = new DirectoryScan(myEntry);
+              mySubScan.fork();
+              mySubScans.add(mySubScan);
+            }
+          }
+          else
+          {
+            addIfAccepted(myEntry, myAttributes, myFilesFound);
+          }
+        }
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.WARNING, "Error scanning local directory: " + theDir, ex);
+      }
+      for (DirectoryScan mySubScan : mySubScans)
+      {
+        myFilesFound.addAll(mySubScan.join());
+      }
+      return myFilesFound;
+    }
+  }
+
+  /**
+   * Iterator that finds each file only when asked for it.
+   */
+  private abstract static class AbstractFileIterator implements IFileSourceFileIterator
+  {
+    private IFileSourceFile theNext;
+
+    /**
+     * Finds the next file.
+     *
+     * @return the file, or null if there are no more
+     */
+    protected abstract IFileSourceFile findNext();
+
+    @Override
+    public boolean hasNext()
+    {
+      if (theNext == null)
+      {
+        theNext = findNext();
+      }
+      return theNext != null;
+    }
+
+    @Override
+    public IFileSourceFile next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      IFileSourceFile myNext = theNext;
+      theNext = null;
+      return myNext;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Walks the tree depth first, holding open one directory stream for each level down to the current directory.
+   */
+  private class TreeWalk extends AbstractFileIterator
+  {
+    private final Deque<DirectoryStream<Path>> theOpenDirs = new ArrayDeque<>();
+    private final Deque<Iterator<Path>> theEntries = new ArrayDeque<>();
+
+    TreeWalk()
+    {
+      if (Files.isDirectory(theBaseDir))
+      {
+        openDir(theBaseDir);
+      }
+    }
+
+    @Override
+    protected IFileSourceFile findNext()
+    {
+      while (!theEntries.isEmpty())
+      {
+        Path myEntry;
+        try
+        {
+          if (!theEntries.peek().hasNext())
+          {
+            closeDir();
+            continue;
+          }
+          myEntry = theEntries.peek().next();
+        }
+        catch (DirectoryIteratorException ex)
+        {
+          LOG.log(Level.WARNING, "Error scanning local directory", ex.getCause());
+          closeDir();
+          continue;
+        }
+
+        BasicFileAttributes myAttributes;
+        try
+        {
+          myAttributes = Files.readAttributes(myEntry, BasicFileAttributes.class);
+        }
+        catch (IOException ex)
+        {
+          LOG.log(Level.WARNING, "Unable to read local file: " + myEntry, ex);
+          continue;
+        }
+        if (myAttributes.isDirectory())
+        {
+          if (isDirRecursive && !isHidden(myEntry, myAttributes))
+          {
+            openDir(myEntry);
+          }
+          continue;
+        }
+        IFileSourceFile myFile = toAcceptedFile(myEntry, myAttributes);
+        if (myFile != null)
+        {
+          return myFile;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close()
+    {
+      while (!theOpenDirs.isEmpty())
+      {
+        closeDir();
+      }
+    }
+
+    private void openDir(Path aDir)
+    {
+      try
+      {
+        DirectoryStream<Path> myDir = Files.newDirectoryStream(aDir);
+        theOpenDirs.push(myDir);
+        theEntries.push(myDir.iterator());
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.WARNING, "Error scanning local directory: " + aDir, ex);
+      }
+    }
+
+    private void closeDir()
+    {
+      theEntries.pop();
+      try
+      {
+        theOpenDirs.pop().close();
+      }
+      catch (IOException ex)
+      {
+        LOG.log(Level.FINE, "Error closing local directory", ex);
+      }
+    }
+  }
+}
@@ -18,14 +18,15 @@ package com.energysys.filesource.local;
 
 import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.FileSourceComparison;
+import com.energysys.filesource.IAsyncFileSource;
 import com.energysys.filesource.IFileSource;
 import com.energysys.filesource.IFileSourceFile;
 import com.energysys.filesource.IFileSourceFileFilter;
+import com.energysys.filesource.IFileSourceFileIterator;
 import com.energysys.filesource.exception.FileSourceException;
 import software.amazon.awssdk.utils.IoUtils;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -34,8 +35,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -44,13 +52,18 @@ import java.util.logging.Logger;
  * @author EnergySys Limited
  * @version $Revision$
  */
-public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
+public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>, IAsyncFileSource
 {
 
   private static final Logger LOG = Logger.getLogger(LocalFileSource.class.getName());
   private static final String SLASH = "/";
 
   private final ILocalFileSourceConfig theConfig;
+  private final boolean isParallelScan;
+  private final LocalChangeFeed theChangeFeed;
+  private final String theChangeConsumerId;
+  private final LocalDigestIndex theDigestIndex;
+  private LocalChangeFeed.ChangeSet theChangeSet;
 
   /**
    * Basic constructor.
@@ -59,8 +72,57 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
    * @throws com.energysys.filesource.exception.FileSourceException
    */
   public LocalFileSource(ILocalFileSourceConfig aConfig) throws FileSourceException
+  {
+    this(aConfig, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param aConfig config for file source
+   * @param isParallelScan whether findFiles scans subdirectories in parallel
+   * @throws com.energysys.filesource.exception.FileSourceException
+   */
+  public LocalFileSource(ILocalFileSourceConfig aConfig, boolean isParallelScan) throws FileSourceException
+  {
+    this(aConfig, isParallelScan, null, null);
+  }
+
+  /**
+   * Constructor for a file source whose findFiles only returns the files a change feed has recorded, falling back to
+   * a full scan when the feed asks for one. Call {@link #commitChanges()} once the files found have been processed.
+   *
+   * @param aConfig config for file source
+   * @param isParallelScan whether full scans scan subdirectories in parallel
+   * @param aChangeFeed the change feed for the base directory, or null to always scan
+   * @param aChangeConsumerId the id this source takes changes from the feed under, normally the sync's id
+   * @throws com.energysys.filesource.exception.FileSourceException
+   */
+  public LocalFileSource(ILocalFileSourceConfig aConfig, boolean isParallelScan, LocalChangeFeed aChangeFeed,
+          String aChangeConsumerId) throws FileSourceException
+  {
+    this(aConfig, isParallelScan, aChangeFeed, aChangeConsumerId, null);
+  }
+
+  /**
+   * Constructor for a file source whose files report their content digests, kept in the given index so that
+   * unchanged files are not read again.
+   *
+   * @param aConfig config for file source
+   * @param isParallelScan whether full scans scan subdirectories in parallel
+   * @param aChangeFeed the change feed for the base directory, or null to always scan
+   * @param aChangeConsumerId the id this source takes changes from the feed under, normally the sync's id
+   * @param aDigestIndex the digest index for the base directory, or null if digests are not kept
+   * @throws com.energysys.filesource.exception.FileSourceException
+   */
+  public LocalFileSource(ILocalFileSourceConfig aConfig, boolean isParallelScan, LocalChangeFeed aChangeFeed,
+          String aChangeConsumerId, LocalDigestIndex aDigestIndex) throws FileSourceException
   {
     this.theConfig = aConfig;
+    this.isParallelScan = isParallelScan;
+    this.theChangeFeed = aChangeFeed;
+    this.theChangeConsumerId = aChangeConsumerId;
+    this.theDigestIndex = aDigestIndex;
     File myBaseDir = new File(aConfig.getLocalDir());
     if (!myBaseDir.canWrite())
     {
@@ -74,7 +136,7 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
     File myFile = new File(theConfig.getLocalDir() + SLASH + anID);
     if (myFile.exists())
     {
-      return new LocalFileSourceFile(myFile, anID, theConfig.getOwner());
+      return new LocalFileSourceFile(myFile, anID, theConfig.getOwner(), theDigestIndex);
     }
     else
     {
@@ -82,6 +144,17 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
     }
   }
 
+  /**
+   * Gets the local file for a given id, whether or not it exists yet.
+   *
+   * @param anID the id
+   * @return the file
+   */
+  public File getLocalFile(String anID)
+  {
+    return new File(theConfig.getLocalDir() + SLASH + anID);
+  }
+
   @Override
   public ConnectionStatus openConnection()
   {
@@ -130,6 +203,42 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
     }
   }
 
+  @Override
+  public CompletableFuture<Void> putContentAsync(File aLocalFile, final IFileSourceFile aFile)
+  {
+    return AsyncFileCopy.copy(aLocalFile.toPath(), getLocalFile(aFile.getFileId()).toPath());
+  }
+
+  @Override
+  public CompletableFuture<IFileSourceFile> getContentAsync(File aLocalFile, final IFileSourceFile aFile)
+  {
+    return AsyncFileCopy.copy(getLocalFile(aFile.getFileId()).toPath(), aLocalFile.toPath())
+            .thenApply(new Function<Void, IFileSourceFile>()
+            {
+              @Override
+              public IFileSourceFile apply(Void aResult)
+              {
+                return aFile;
+              }
+            });
+  }
+
+  @Override
+  public CompletableFuture<IFileSourceFile> moveFileAsync(IFileSourceFile aFile, String aNewID)
+  {
+    // A move within the directory tree is a rename, so there is nothing to gain from doing it asynchronously
+    CompletableFuture<IFileSourceFile> myResult = new CompletableFuture<>();
+    try
+    {
+      myResult.complete(moveFile(aFile, aNewID));
+    }
+    catch (FileSourceException ex)
+    {
+      myResult.completeExceptionally(ex);
+    }
+    return myResult;
+  }
+
   @Override
   public InputStream getInputStream(IFileSourceFile aFile) throws FileNotFoundException
   {
@@ -140,81 +249,127 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
   @Override
   public FileSourceComparison compare(IFileSourceFile aFile)
   {
-    IFileSourceFile myFile = findFile(aFile.getFileId());
+    return FileSourceComparison.compare(aFile, findFile(aFile.getFileId()));
+  }
 
-    if (myFile == null)
-    {
-      return new FileSourceComparison(aFile, FileSourceComparison.Status.NOT_PRESENT);
-    }
-    switch (aFile.getProducerModifiedDate().compareTo(myFile.getProducerModifiedDate()))
+  @Override
+  public Map<String, FileSourceComparison> compareAll(List<IFileSourceFile> someFiles)
+  {
+    // Looking up each file costs a stat, where walking the tree would cost one per file in it on every batch
+    Map<String, FileSourceComparison> myResults = new LinkedHashMap<>();
+    for (IFileSourceFile myFile : someFiles)
     {
-      case 1:
-        return new FileSourceComparison(myFile, FileSourceComparison.Status.NEWER);
-      case -1:
-        return new FileSourceComparison(myFile, FileSourceComparison.Status.OLDER);
-      case 0:
-      default:
-        return new FileSourceComparison(myFile, FileSourceComparison.Status.SAME);
+      myResults.put(myFile.getFileId(), compare(myFile));
     }
+    return myResults;
   }
 
   @Override
   public List<IFileSourceFile> findFiles(final String aFileNamePattern, final Boolean isDirRecursive,
           final IFileSourceFileFilter aFilter)
   {
-    return scanForFiles(new File(theConfig.getLocalDir()), aFileNamePattern, isDirRecursive, aFilter);
+    if (theChangeFeed == null)
+    {
+      return scan(aFileNamePattern, isDirRecursive, aFilter);
+    }
+    theChangeSet = theChangeFeed.takeChanges(theChangeConsumerId);
+    if (theChangeSet.isFullRescan())
+    {
+      LOG.fine("Full rescan of: " + theConfig.getLocalDir());
+      return scan(aFileNamePattern, isDirRecursive, aFilter);
+    }
+    LOG.fine(theChangeSet.getFileIds().size() + " changed files in: " + theConfig.getLocalDir());
+    return createScanner(aFileNamePattern, isDirRecursive, aFilter).scanFiles(theChangeSet.getFileIds());
   }
 
-  private List<IFileSourceFile> scanForFiles(File aDirectory, final String aFileNamePattern,
-          final Boolean isDirRecursive,
+  @Override
+  public IFileSourceFileIterator iterateFiles(final String aFileNamePattern, final Boolean isDirRecursive,
           final IFileSourceFileFilter aFilter)
   {
-    ArrayList<IFileSourceFile> myFilesFound = new ArrayList<>();
-
-    FileFilter myBasicFileFilter = new BasicFileFilter(isDirRecursive, aFileNamePattern);
-
-    File[] myMatchingFiles = aDirectory.listFiles(myBasicFileFilter);
+    if (theChangeFeed == null)
+    {
+      return createScanner(aFileNamePattern, isDirRecursive, aFilter).iterate();
+    }
+    theChangeSet = theChangeFeed.takeChanges(theChangeConsumerId);
+    if (theChangeSet.isFullRescan())
+    {
+      LOG.fine("Full rescan of: " + theConfig.getLocalDir());
+      return createScanner(aFileNamePattern, isDirRecursive, aFilter).iterate();
+    }
+    LOG.fine(theChangeSet.getFileIds().size() + " changed files in: " + theConfig.getLocalDir());
+    return createScanner(aFileNamePattern, isDirRecursive, aFilter).iterateFiles(theChangeSet.getFileIds());
+  }
 
-    if (myMatchingFiles == null)
+  /**
+   * Marks the changes returned by the last findFiles or iterateFiles as processed, so the change feed does not return
+   * them again, and saves any digests worked out since. Does nothing if there is no change feed or digest index.
+   */
+  public void commitChanges()
+  {
+    if (theChangeFeed != null && theChangeSet != null)
     {
-      return myFilesFound;
+      theChangeFeed.commit(theChangeSet);
+      theChangeSet = null;
     }
-    for (File myMatchingFile : myMatchingFiles)
+    if (theDigestIndex != null)
     {
-      if (myMatchingFile.isDirectory())
+      theDigestIndex.save();
+    }
+  }
+
+  private List<IFileSourceFile> scan(String aFileNamePattern, Boolean isDirRecursive, IFileSourceFileFilter aFilter)
+  {
+    LocalFileScanner myScanner = createScanner(aFileNamePattern, isDirRecursive, aFilter);
+    return isParallelScan ? myScanner.scanParallel() : myScanner.scan();
+  }
+
+  private LocalFileScanner createScanner(String aFileNamePattern, Boolean isDirRecursive,
+          IFileSourceFileFilter aFilter)
+  {
+    return new LocalFileScanner(new File(theConfig.getLocalDir()).toPath(), theConfig.getOwner(), isDirRecursive,
+            aFileNamePattern, aFilter, theDigestIndex);
+  }
+
+  @Override
+  public Map<String, String> moveFiles(Map<IFileSourceFile, String> someMoves)
+  {
+    // Each move is a rename, so there is nothing to batch
+    Map<String, String> myFailures = new LinkedHashMap<>();
+    for (Map.Entry<IFileSourceFile, String> myMove : someMoves.entrySet())
+    {
+      try
       {
-        myFilesFound.addAll(scanForFiles(myMatchingFile, aFileNamePattern, isDirRecursive, aFilter));
+        moveFile(myMove.getKey(), myMove.getValue());
       }
-      else
+      catch (FileSourceException ex)
       {
-        LocalFileSourceFile myLocalFile = new LocalFileSourceFile(myMatchingFile,
-                getFileID(theConfig.getLocalDir(), myMatchingFile), theConfig.getOwner());
-
-        if (aFilter == null || aFilter.accept(myLocalFile))
-        {
-          myFilesFound.add(myLocalFile);
-        }
+        LOG.log(Level.WARNING, "Error moving file: " + myMove.getKey().getFileId(), ex);
+        myFailures.put(myMove.getKey().getFileId(), String.valueOf(ex.getCause() == null
+                ? ex.getMessage() : ex.getCause().getMessage()));
       }
     }
-
-    return myFilesFound;
+    return myFailures;
   }
 
-  /**
-   * Generates a standard file id given a java.io.File and a local base directory name.
-   *
-   * @param aBaseDir the base dir
-   * @param aFile the file
-   * @return a file id
-   */
-  private String getFileID(String aBaseDir, File aFile)
+  @Override
+  public String getLocationKey()
   {
-    int myStartingPosition = aBaseDir.length() + 1;
+    return new File(theConfig.getLocalDir()).toPath().toAbsolutePath().normalize().toUri().toString();
+  }
 
-    String myKey = aFile.getAbsolutePath()
-            .substring(myStartingPosition)
-            .replaceAll("\\\\", "/");
-    return myKey;
+  @Override
+  public Set<String> findExistingFileIDs(Collection<String> someFileIDs)
+  {
+    // A stat per id, rather than walking directories that may hold far more files than were asked about
+    Set<String> myIDs = new HashSet<>();
+    for (String myID : someFileIDs)
+    {
+      if (getLocalFile(myID).exists())
+      {
+        myIDs.add(myID);
+      }
+    }
+    return myIDs;
   }
 
   @SuppressWarnings("IllegalCatch")
@@ -235,39 +390,4 @@ public class LocalFileSource implements IFileSource<ILocalFileSourceConfig>
       throw new FileSourceException("Error moving file", ex);
     }
   }
-
-  private class BasicFileFilter implements FileFilter
-  {
-
-    private final Boolean isDirRecursive;
-    private final String theFileNamePattern;
-
-    BasicFileFilter(Boolean isDirRecursive, String aFileNamePattern)
-    {
-      this.isDirRecursive = isDirRecursive;
-      this.theFileNamePattern = aFileNamePattern;
-    }
-
-    @Override
-    public boolean accept(File aFile)
-    {
-      // No Hidden files allowed!
-      if (aFile.isHidden())
-      {
-        return false;
-      }
-      // If is a directory then return true if recursive
-      if (aFile.isDirectory())
-      {
-        return isDirRecursive;
-      }
-      // Check that the filename matches the filePattern regex, if there is one.
-      if (theFileNamePattern != null && !theFileNamePattern.isEmpty() && !aFile.getName().matches(theFileNamePattern))
-      {
-        return false;
-      }
-      // Otherwise it matches
-      return true;
-    }
-  };
 }
@@ -22,6 +22,7 @@ import com.energysys.filesource.IFileSourceFile;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.util.Date;
 import java.util.logging.Level;
@@ -39,6 +40,9 @@ public class LocalFileSourceFile implements IFileSourceFile
   private final File theFile;
   private final String theFileID;
   private final String theOwner;
+  private final Long theLastModified;
+  private final Long theSize;
+  private final LocalDigestIndex theDigestIndex;
 
   /**
    * Basic constructor.
@@ -47,16 +51,67 @@ public class LocalFileSourceFile implements IFileSourceFile
    * @param anOwner the file owner.
    */
   public LocalFileSourceFile(File aFile, String aFileID, String anOwner)
+  {
+    this(aFile, aFileID, anOwner, (LocalDigestIndex) null);
+  }
+
+  /**
+   * Constructor for a file whose content digest is kept in an index.
+   * @param aFile the local file
+   * @param aFileID the File Source file id.
+   * @param anOwner the file owner.
+   * @param aDigestIndex the digest index, or null if digests are not kept
+   */
+  LocalFileSourceFile(File aFile, String aFileID, String anOwner, LocalDigestIndex aDigestIndex)
   {
     this.theFile = aFile;
     this.theFileID = aFileID;
     this.theOwner = anOwner;
+    this.theLastModified = null;
+    this.theSize = null;
+    this.theDigestIndex = aDigestIndex;
+  }
+
+  /**
+   * Constructor taking the attributes already read for the file, so the file is not stat'ed again.
+   * @param aFile the local file
+   * @param aFileID the File Source file id.
+   * @param anOwner the file owner.
+   * @param someAttributes the file attributes
+   */
+  public LocalFileSourceFile(File aFile, String aFileID, String anOwner, BasicFileAttributes someAttributes)
+  {
+    this(aFile, aFileID, anOwner, someAttributes, null);
+  }
+
+  /**
+   * Constructor taking the attributes already read for the file, for a file whose content digest is kept in an index.
+   * @param aFile the local file
+   * @param aFileID the File Source file id.
+   * @param anOwner the file owner.
+   * @param someAttributes the file attributes
+   * @param aDigestIndex the digest index, or null if digests are not kept
+   */
+  LocalFileSourceFile(File aFile, String aFileID, String anOwner, BasicFileAttributes someAttributes,
+          LocalDigestIndex aDigestIndex)
+  {
+    this.theFile = aFile;
+    this.theFileID = aFileID;
+    this.theOwner = anOwner;
+    this.theLastModified = someAttributes.lastModifiedTime().toMillis();
+    this.theSize = someAttributes.size();
+    this.theDigestIndex = aDigestIndex;
+  }
+
+  private long getLastModified()
+  {
+    return theLastModified != null ? theLastModified : theFile.lastModified();
   }
   
   @Override
   public Date getProducerModifiedDate()
   {
-    return Date.from(Instant.ofEpochMilli(theFile.lastModified()));
+    return Date.from(Instant.ofEpochMilli(getLastModified()));
   }
 
   @Override
@@ -74,7 +129,7 @@ public class LocalFileSourceFile implements IFileSourceFile
   @Override
   public Long getSize()
   {
-    return theFile.length();
+    return theSize != null ? theSize : theFile.length();
   }
 
   @Override
@@ -86,7 +141,7 @@ public class LocalFileSourceFile implements IFileSourceFile
   @Override
   public Date getFileSourceModifiedDate()
   {
-    return Date.from(Instant.ofEpochMilli(theFile.lastModified()));
+    return Date.from(Instant.ofEpochMilli(getLastModified()));
   }
 
   @Override
@@ -102,5 +157,23 @@ public class LocalFileSourceFile implements IFileSourceFile
       return null;
     }
   }
-}
 
+  @Override
+  public String getContentDigest()
+  {
+    if (theDigestIndex == null)
+    {
+      return null;
+    }
+    try
+    {
+      return theDigestIndex.getDigest(theFileID, theFile, getSize(), getLastModified());
+    }
+    catch (IOException ex)
+    {
+      Logger.getLogger(LocalFileSourceFile.class.getName()).log(Level.WARNING,
+              "Unable to digest file: " + theFileID, ex);
+      return null;
+    }
+  }
+}
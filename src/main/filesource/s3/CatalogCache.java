@@ -31,11 +31,20 @@ class CatalogCache implements Serializable
   private static final long serialVersionUID = 1L;
   private Map<String, IFileSourceFile> theCatalog;
   private Date theLatestObjectUpdateDate;
+  // The last delta folded into this catalog, zero for catalogs stored before deltas were numbered into it
+  private long theDeltaSequence;
 
   protected CatalogCache(Map<String, IFileSourceFile> theCatalog, Date theLatestObjectUpdateDate)
+  {
+    this(theCatalog, theLatestObjectUpdateDate, 0);
+  }
+
+  protected CatalogCache(Map<String, IFileSourceFile> theCatalog, Date theLatestObjectUpdateDate,
+      long theDeltaSequence)
   {
     this.theCatalog = theCatalog;
     this.theLatestObjectUpdateDate = theLatestObjectUpdateDate;
+    this.theDeltaSequence = theDeltaSequence;
   }
 
   protected Map<String, IFileSourceFile> getTheCatalog()
@@ -48,4 +57,9 @@ class CatalogCache implements Serializable
     return theLatestObjectUpdateDate;
   }
 
+  protected long getTheDeltaSequence()
+  {
+    return theDeltaSequence;
+  }
+
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import com.energysys.filesource.IFileSourceFile;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes the stored form of a remote catalog.
+ *
+ * The stored form is a 4 byte magic number, a version byte and a flags byte, followed by the (optionally deflate
+ * compressed) body: the latest update date, the sequence of the last delta folded in, the entry count and then the
+ * entries. Strings are length prefixed UTF-8,
+ * sizes and counts are unsigned varints and dates are epoch millis longs. Catalogs written by older versions using
+ * Java serialisation of a CatalogCache are still read.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class CatalogCodec
+{
+    /**
+     * Current version of the stored form. Version 2 added content digests to the entries, version 3 the delta
+     * sequence.
+     */
+    static final int VERSION = 3;
+
+    private static final int VERSION_DELTA_SEQUENCE = 3;
+
+    private static final byte[] MAGIC = {'E', 'S', 'C', 'T'};
+    private static final int JAVA_SERIALISATION_MAGIC = 0xACED;
+    private static final int HEADER_FLAG_DEFLATED = 1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final int ENTRY_METADATA_PENDING = 1;
+    private static final int ENTRY_HAS_LOCAL_DATE = 2;
+    private static final int ENTRY_HAS_REMOTE_DATE = 4;
+    private static final int ENTRY_HAS_SIZE = 8;
+    private static final int ENTRY_HAS_OWNER = 16;
+    private static final int ENTRY_HAS_MIME_TYPE = 32;
+    private static final int ENTRY_HAS_ETAG = 64;
+    private static final int ENTRY_HAS_DIGEST = 128;
+
+    private CatalogCodec()
+    {
+    }
+
+    /**
+     * Returns a stream producing the stored form of the given entries. Entries are encoded as the stream is read, so
+     * the whole catalog is never held in memory in its stored form.
+     *
+     * @param someEntries the entries
+     * @param aLatestUpdateDate the latest update date
+     * @param aDeltaSequence the sequence of the last delta folded into the entries, zero for a delta itself
+     * @param isCompressed whether to deflate the body
+     * @return the stream
+     */
+    static InputStream newInputStream(Map<String, IFileSourceFile> someEntries, Date aLatestUpdateDate,
+            long aDeltaSequence, boolean isCompressed)
+    {
+        InputStream myBody = new EncodingInputStream(someEntries, aLatestUpdateDate, aDeltaSequence);
+        if (isCompressed)
+        {
+            myBody = new DeflaterInputStream(myBody);
+        }
+        byte[] myHeader = new byte[MAGIC.length + 2];
+        System.arraycopy(MAGIC, 0, myHeader, 0, MAGIC.length);
+        myHeader[MAGIC.length] = (byte) VERSION;
+        myHeader[MAGIC.length + 1] = (byte) (isCompressed ? HEADER_FLAG_DEFLATED : 0);
+        return new SequenceInputStream(new ByteArrayInputStream(myHeader), myBody);
+    }
+
+    /**
+     * Reads a stored catalog, in either the current or the legacy serialised form. Entries whose user metadata was
+     * still to be fetched when the catalog was stored are bound to the given client so it is fetched when required.
+     *
+     * @param anInputStream the stored catalog
+     * @param anS3Client the client
+     * @param aConfig the file source config
+     * @return the catalog
+     * @throws IOException on error
+     */
+    static CatalogCache read(InputStream anInputStream, S3Client anS3Client, IS3FileSourceConfig aConfig)
+            throws IOException
+    {
+        BufferedInputStream myInput = new BufferedInputStream(anInputStream);
+        myInput.mark(MAGIC.length);
+        DataInputStream myHeader = new DataInputStream(myInput);
+        byte[] myMagic = new byte[MAGIC.length];
+        myHeader.readFully(myMagic);
+        if (((myMagic[0] & 0xFF) << 8 | (myMagic[1] & 0xFF)) == JAVA_SERIALISATION_MAGIC)
+        {
+            myInput.reset();
+            return readLegacy(myInput);
+        }
+        if (!Arrays.equals(myMagic, MAGIC))
+        {
+            throw new IOException("Unrecognised catalog format");
+        }
+        int myVersion = myHeader.readUnsignedByte();
+        if (myVersion > VERSION)
+        {
+            throw new IOException("Unsupported catalog version: " + myVersion);
+        }
+        int myFlags = myHeader.readUnsignedByte();
+
+        InputStream myBodyStream = myInput;
+        if ((myFlags & HEADER_FLAG_DEFLATED) != 0)
+        {
+            myBodyStream = new InflaterInputStream(myInput);
+        }
+        DataInputStream myBody = new DataInputStream(new BufferedInputStream(myBodyStream));
+
+        Date myLatestUpdateDate = readDate(myBody);
+        long myDeltaSequence = myVersion >= VERSION_DELTA_SEQUENCE ? readVarLong(myBody) : 0;
+        int myCount = (int) readVarLong(myBody);
+        Map<String, IFileSourceFile> myEntries = new HashMap<>(Math.max(16, myCount * 4 / 3 + 1));
+        for (int i = 0; i < myCount; i++)
+        {
+            S3FileSourceFile myFile = readEntry(myBody, anS3Client, aConfig);
+            myEntries.put(myFile.getFileId(), myFile);
+        }
+        return new CatalogCache(myEntries, myLatestUpdateDate, myDeltaSequence);
+    }
+
+    /**
+     * Writes a single entry.
+     *
+     * @param anOutput the output
+     * @param aFile the entry
+     * @throws IOException on error
+     */
+    static void writeEntry(DataOutputStream anOutput, IFileSourceFile aFile) throws IOException
+    {
+        boolean isPending = aFile instanceof S3FileSourceFile && ((S3FileSourceFile) aFile).isMetadataPending();
+        Date myRemoteDate = aFile.getFileSourceModifiedDate();
+        Date myLocalDate = isPending ? null : aFile.getProducerModifiedDate();
+        String myOwner = isPending ? null : aFile.getOwner();
+        String myMimeType = isPending ? null : aFile.getMimeType();
+        String myETag = aFile instanceof S3FileSourceFile ? ((S3FileSourceFile) aFile).getETag() : null;
+        String myDigest = isPending ? null : aFile.getContentDigest();
+        // Pending entries keep the size from the listing, which is read back as such
+        Long mySize = aFile.getSize();
+
+        int myFlags = 0;
+        myFlags |= isPending ? ENTRY_METADATA_PENDING : 0;
+        myFlags |= myLocalDate != null ? ENTRY_HAS_LOCAL_DATE : 0;
+        myFlags |= myRemoteDate != null ? ENTRY_HAS_REMOTE_DATE : 0;
+        myFlags |= mySize != null ? ENTRY_HAS_SIZE : 0;
+        myFlags |= myOwner != null ? ENTRY_HAS_OWNER : 0;
+        myFlags |= myMimeType != null ? ENTRY_HAS_MIME_TYPE : 0;
+        myFlags |= myETag != null ? ENTRY_HAS_ETAG : 0;
+        myFlags |= myDigest != null ? ENTRY_HAS_DIGEST : 0;
+
+        writeString(anOutput, aFile.getFileId());
+        anOutput.writeByte(myFlags);
+        if (myLocalDate != null)
+        {
+            anOutput.writeLong(myLocalDate.getTime());
+        }
+        if (myRemoteDate != null)
+        {
+            anOutput.writeLong(myRemoteDate.getTime());
+        }
+        if (mySize != null)
+        {
+            writeVarLong(anOutput, mySize);
+        }
+        if (myOwner != null)
+        {
+            writeString(anOutput, myOwner);
+        }
+        if (myMimeType != null)
+        {
+            writeString(anOutput, myMimeType);
+        }
+        if (myETag != null)
+        {
+            writeString(anOutput, myETag);
+        }
+        if (myDigest != null)
+        {
+            writeString(anOutput, myDigest);
+        }
+    }
+
+    /**
+     * Reads a single entry.
+     *
+     * @param anInput the input
+     * @param anS3Client the client used to fetch pending metadata
+     * @param aConfig the file source config
+     * @return the entry
+     * @throws IOException on error
+     */
+    static S3FileSourceFile readEntry(DataInputStream anInput, S3Client anS3Client, IS3FileSourceConfig aConfig)
+            throws IOException
+    {
+        String myFileId = readString(anInput);
+        int myFlags = anInput.readUnsignedByte();
+        Date myLocalDate = (myFlags & ENTRY_HAS_LOCAL_DATE) != 0 ? new Date(anInput.readLong()) : null;
+        Date myRemoteDate = (myFlags & ENTRY_HAS_REMOTE_DATE) != 0 ? new Date(anInput.readLong()) : null;
+        Long mySize = (myFlags & ENTRY_HAS_SIZE) != 0 ? readVarLong(anInput) : null;
+        String myOwner = (myFlags & ENTRY_HAS_OWNER) != 0 ? readString(anInput) : null;
+        String myMimeType = (myFlags & ENTRY_HAS_MIME_TYPE) != 0 ? readString(anInput) : null;
+        String myETag = (myFlags & ENTRY_HAS_ETAG) != 0 ? readString(anInput) : null;
+        String myDigest = (myFlags & ENTRY_HAS_DIGEST) != 0 ? readString(anInput) : null;
+
+        S3FileSourceFile myFile =
+                new S3FileSourceFile(myFileId, myLocalDate, myRemoteDate, myOwner, mySize, myMimeType, myETag);
+        myFile.setContentDigest(myDigest);
+        if ((myFlags & ENTRY_METADATA_PENDING) != 0)
+        {
+            myFile.setMetadataSource(anS3Client, aConfig.getBucketName(),
+                    aConfig.getLocation() + S3FileSource.SLASH + myFileId);
+        }
+        return myFile;
+    }
+
+    /**
+     * Writes a date as epoch millis, or a marker value for null.
+     *
+     * @param anOutput the output
+     * @param aDate the date
+     * @throws IOException on error
+     */
+    static void writeDate(DataOutputStream anOutput, Date aDate) throws IOException
+    {
+        anOutput.writeLong(aDate == null ? NO_DATE : aDate.getTime());
+    }
+
+    /**
+     * Reads a date written by writeDate().
+     *
+     * @param anInput the input
+     * @return the date or null
+     * @throws IOException on error
+     */
+    static Date readDate(DataInputStream anInput) throws IOException
+    {
+        long myMillis = anInput.readLong();
+        return myMillis == NO_DATE ? null : new Date(myMillis);
+    }
+
+    /**
+     * Writes an unsigned variable length long.
+     *
+     * @param anOutput the output
+     * @param aValue the value
+     * @throws IOException on error
+     */
+    static void writeVarLong(OutputStream anOutput, long aValue) throws IOException
+    {
+        long myValue = aValue;
+        while ((myValue & ~0x7FL) != 0)
+        {
+            anOutput.write((int) ((myValue & 0x7F) | 0x80));
+            myValue >>>= 7;
+        }
+        anOutput.write((int) myValue);
+    }
+
+    /**
+     * Reads an unsigned variable length long.
+     *
+     * @param anInput the input
+     * @return the value
+     * @throws IOException on error
+     */
+    static long readVarLong(InputStream anInput) throws IOException
+    {
+        long myValue = 0;
+        for (int myShift = 0; myShift < 64; myShift += 7)
+        {
+            int myByte = anInput.read();
+            if (myByte < 0)
+            {
+                throw new EOFException();
+            }
+            myValue |= (long) (myByte & 0x7F) << myShift;
+            if ((myByte & 0x80) == 0)
+            {
+                return myValue;
+            }
+        }
+        throw new IOException("Malformed varint in catalog");
+    }
+
+    private static void writeString(DataOutputStream anOutput, String aValue) throws IOException
+    {
+        byte[] myBytes = aValue.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(anOutput, myBytes.length);
+        anOutput.write(myBytes);
+    }
+
+    private static String readString(DataInputStream anInput) throws IOException
+    {
+        byte[] myBytes = new byte[(int) readVarLong(anInput)];
+        anInput.readFully(myBytes);
+        return new String(myBytes, StandardCharsets.UTF_8);
+    }
+
+    private static CatalogCache readLegacy(InputStream anInputStream) throws IOException
+    {
+        try (ObjectInputStream myObjectInputStream = new ObjectInputStream(anInputStream))
+        {
+            return (CatalogCache) myObjectInputStream.readObject();
+        }
+        catch (ClassNotFoundException ex)
+        {
+            throw new IOException("Error reading legacy catalog", ex);
+        }
+    }
+
+    /**
+     * Stream that encodes the catalog body one entry at a time as it is read.
+     */
+    private static final class EncodingInputStream extends InputStream
+    {
+        private final Iterator<IFileSourceFile> theEntries;
+        private final ByteArrayOutputStream theBuffer = new ByteArrayOutputStream(256);
+        private final DataOutputStream theOutput = new DataOutputStream(theBuffer);
+        private byte[] theChunk = new byte[0];
+        private int thePosition;
+
+        EncodingInputStream(Map<String, IFileSourceFile> someEntries, Date aLatestUpdateDate, long aDeltaSequence)
+        {
+            this.theEntries = someEntries.values().iterator();
+            try
+            {
+                writeDate(theOutput, aLatestUpdateDate);
+                writeVarLong(theOutput, aDeltaSequence);
+                writeVarLong(theOutput, someEntries.size());
+            }
+            catch (IOException ex)
+            {
+                // Cannot happen when writing to a byte array
+                throw new IllegalStateException(ex);
+            }
+            nextChunk();
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (!fill())
+            {
+                return -1;
+            }
+            return theChunk[thePosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] aBuffer, int anOffset, int aLength) throws IOException
+        {
+            if (aLength == 0)
+            {
+                return 0;
+            }
+            if (!fill())
+            {
+                return -1;
+            }
+            int myCount = Math.min(aLength, theChunk.length - thePosition);
+            System.arraycopy(theChunk, thePosition, aBuffer, anOffset, myCount);
+            thePosition += myCount;
+            return myCount;
+        }
+
+        private boolean fill() throws IOException
+        {
+            while (thePosition >= theChunk.length)
+            {
+                if (!theEntries.hasNext())
+                {
+                    return false;
+                }
+                writeEntry(theOutput, theEntries.next());
+                nextChunk();
+            }
+            return true;
+        }
+
+        private void nextChunk()
+        {
+            theChunk = theBuffer.toByteArray();
+            thePosition = 0;
+            theBuffer.reset();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import java.util.Map;
+
+/**
+ * Interface for a persistent record of the multipart uploads in progress, so an upload cut short can carry on from
+ * the parts already sent rather than starting again.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public interface IMultipartUploadJournal
+{
+  /**
+   * Gets the id of the upload left in progress for an object.
+   * @param aKey the object key
+   * @return the upload id, or null if there is none
+   */
+  String getUploadId(String aKey);
+
+  /**
+   * Gets the fingerprint recorded when the upload in progress for an object was started. An upload can only be
+   * carried on if the content being sent still has the same fingerprint.
+   * @param aKey the object key
+   * @return the fingerprint, or null if there is no upload in progress
+   */
+  String getFingerprint(String aKey);
+
+  /**
+   * Gets the parts sent so far by the upload in progress for an object.
+   * @param aKey the object key
+   * @return the ETag of each part sent, keyed by part number
+   */
+  Map<Integer, String> getCompletedParts(String aKey);
+
+  /**
+   * Records that an upload has been started.
+   * @param aKey the object key
+   * @param anUploadId the upload id
+   * @param aFingerprint the fingerprint of the content being sent
+   */
+  void uploadStarted(String aKey, String anUploadId, String aFingerprint);
+
+  /**
+   * Records that a part has been sent.
+   * @param aKey the object key
+   * @param aPartNumber the part number
+   * @param anETag the ETag of the part
+   */
+  void partCompleted(String aKey, int aPartNumber, String anETag);
+
+  /**
+   * Gets the uploads in progress that were started before a given time.
+   * @param aTimeMillis the time
+   * @return the upload ids, keyed by object key
+   */
+  Map<String, String> getUploadsStartedBefore(long aTimeMillis);
+
+  /**
+   * Records that an upload has been completed or abandoned.
+   * @param aKey the object key
+   */
+  void uploadEnded(String aKey);
+}
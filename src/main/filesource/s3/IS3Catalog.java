@@ -22,8 +22,11 @@ import com.energysys.filesource.IFileSourceFileFilter;
 import com.energysys.filesource.exception.FileSourceException;
 import software.amazon.awssdk.services.s3.S3Client;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface representing a Catalog of FileSourceFile's that are held in a FileSource.
@@ -48,6 +51,15 @@ public interface IS3Catalog
    */
   List<IFileSourceFile> getAllFiles(IFileSourceFileFilter aFilter);
 
+  /**
+   * Gets the same files as getAllFiles, one at a time as they are asked for, so a catalog that lists the file source
+   * does not have to hold the whole listing.
+   *
+   * @param aFilter
+   * @return the files in the catalog accepted by the filter
+   */
+  Iterator<IFileSourceFile> iterateFiles(IFileSourceFileFilter aFilter);
+
   /**
    * Gets the file for a specific id.
    *
@@ -55,6 +67,22 @@ public interface IS3Catalog
    * @return the file
    */
   IFileSourceFile getFileWithID(String aFileId);
+
+  /**
+   * Gets the files for a set of ids in a single pass over the catalog. Ids with no file are left out.
+   *
+   * @param someFileIds the keys
+   * @return the files keyed by id
+   */
+  Map<String, IFileSourceFile> getFilesWithIDs(Collection<String> someFileIds);
+
+  /**
+   * Gets a file whose content has the given digest, if the catalog knows of one.
+   *
+   * @param aContentDigest the SHA-256 content digest
+   * @return a file with that content, or null if none is known
+   */
+  IFileSourceFile getFileWithDigest(String aContentDigest);
   
   /**
    * Checks whether a file with a given id is present in the file source.
@@ -58,4 +58,48 @@ public interface IS3FileSourceConfig extends IFileSourceConfig, AwsCredentials
    */
   List<Tag> getTags();
 
+  /**
+   * Gets the size in bytes at which files are uploaded as multipart uploads and downloaded as parallel ranges.
+   *
+   * @return the threshold
+   */
+  Long getMultipartThreshold();
+
+  /**
+   * Gets the size in bytes of each part of a multipart upload or range of a ranged download.
+   *
+   * @return the part size
+   */
+  Long getMultipartPartSize();
+
+  /**
+   * Gets the number of parts of a multipart upload sent, or ranges of a ranged download fetched, at once.
+   *
+   * @return the number of concurrent part transfers
+   */
+  Integer getMultipartConcurrency();
+
+  /**
+   * Gets how long in seconds the lock on the Remote Catalog stays valid without being renewed. The lock is renewed
+   * in the background while the connection is open, so this only limits how long a crashed process blocks others.
+   *
+   * @return the lease length
+   */
+  Long getLockLeaseSeconds();
+
+  /**
+   * Gets the compression applied to uploaded files, either none or gzip. Compressed objects are decompressed on
+   * download whatever this is set to.
+   *
+   * @return the compression
+   */
+  String getCompression();
+
+  /**
+   * Gets the size in bytes below which files are uploaded uncompressed, as they gain too little to be worth it.
+   *
+   * @return the threshold
+   */
+  Long getCompressionThreshold();
+
 }
\ No newline at end of file
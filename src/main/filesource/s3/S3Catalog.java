@@ -20,16 +20,17 @@ import com.energysys.filesource.IFileSourceFile;
 import com.energysys.filesource.IFileSourceFileFilter;
 import com.energysys.filesource.exception.FileSourceException;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Catalog of S3 bucket (location).
@@ -39,6 +40,8 @@ public class S3Catalog implements IS3Catalog
 {
     private S3Client theS3Client;
     private IS3FileSourceConfig theConfig;
+    // The location as listed by the first getFilesWithIDs, kept until the catalog is closed
+    private Map<String, S3FileSourceFile> theListedFiles;
 
     /**
      * Default constructor.
@@ -57,6 +60,7 @@ public class S3Catalog implements IS3Catalog
     {
         this.theS3Client = anS3Client;
         this.theConfig = aConfig;
+        this.theListedFiles = null;
     }
 
     @Override
@@ -64,58 +68,89 @@ public class S3Catalog implements IS3Catalog
     {
         List<IFileSourceFile> myFiles = new ArrayList<>();
 
-        ListObjectsResponse myListing = theS3Client.listObjects(
-                ListObjectsRequest.builder()
-                        .bucket(theConfig.getBucketName())
-                        .prefix(theConfig.getLocation())
-                        .build());
-
-        while (myListing.isTruncated())
+        for (S3FileSourceFile myFile : S3Utils.listFiles(theS3Client, theConfig))
         {
-            List<S3Object> mySummaries = myListing.contents();
-            for (S3Object mySummary : mySummaries)
+            if (aFilter.accept(myFile))
             {
-                HeadObjectResponse myRemoteMetadata = theS3Client.headObject(
-                        HeadObjectRequest.builder()
-                                .bucket(theConfig.getBucketName())
-                                .key(mySummary.key())
-                                .build());
-                S3FileSourceFile myConnectorMetadata = new S3FileSourceFile(myRemoteMetadata);
-
-                if (aFilter.accept(myConnectorMetadata))
-                {
-                    myFiles.add(myConnectorMetadata);
-                }
+                myFiles.add(myFile);
             }
         }
         return myFiles;
     }
 
+    /**
+     * Gets the files accepted by the filter as the location is listed, a page at a time, so only the page being read
+     * is held.
+     *
+     * @param aFilter the filter
+     * @return the files
+     */
+    @Override
+    public Iterator<IFileSourceFile> iterateFiles(IFileSourceFileFilter aFilter)
+    {
+        return new FilteredFileIterator(S3Utils.listFiles(theS3Client, theConfig).iterator(), aFilter);
+    }
+
     @Override
     public IFileSourceFile getFileWithID(String anID)
     {
-        if (containsFile(anID))
+        HeadObjectResponse myMetadata = S3Utils.headObjectIfExists(
+                theS3Client,
+                theConfig.getBucketName(),
+                theConfig.getLocation() + S3FileSource.SLASH + anID);
+        if (myMetadata == null)
+        {
+            return null;
+        }
+        S3FileSourceFile myFile = new S3FileSourceFile(
+                anID,
+                Date.from(Instant.ofEpochMilli(Long.valueOf(
+                        myMetadata.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE)))),
+                Date.from(myMetadata.lastModified()),
+                myMetadata.metadata().get("Owner"),
+                S3FileSourceFile.getLogicalSize(myMetadata.metadata(), myMetadata.contentLength()),
+                myMetadata.contentType());
+        myFile.setContentDigest(myMetadata.metadata().get(S3FileSource.CONTENT_DIGEST));
+        return myFile;
+    }
+
+    /**
+     * Gets the files for a set of ids. The location is listed once, on the first call, rather than a HEAD being made
+     * per id, and the listing is reused by later calls until the catalog is closed, so a sync comparing its files in
+     * batches lists the location once per run. Files uploaded through this catalog since are kept up to date by
+     * {@link #update(String, S3FileSourceFile)}.
+     *
+     * @param someFileIds the keys
+     * @return the files keyed by id
+     */
+    @Override
+    public synchronized Map<String, IFileSourceFile> getFilesWithIDs(Collection<String> someFileIds)
+    {
+        if (theListedFiles == null)
         {
-            HeadObjectResponse myMetadata = theS3Client.headObject(
-                    HeadObjectRequest.builder()
-                            .bucket(theConfig.getBucketName())
-                            .key(theConfig.getLocation() + S3FileSource.SLASH + anID)
-                            .build());
-            S3FileSourceFile myConnectorMetadata = new S3FileSourceFile(
-                    anID,
-                    Date.from(Instant.ofEpochMilli(Long.valueOf(
-                            myMetadata.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE)))),
-                    Date.from(myMetadata.lastModified()),
-                    myMetadata.metadata().get("Owner"),
-                    myMetadata.contentLength(),
-                    myMetadata.contentType());
-
-            return myConnectorMetadata;
+            theListedFiles = new HashMap<>();
+            for (S3FileSourceFile myFile : S3Utils.listFiles(theS3Client, theConfig))
+            {
+                theListedFiles.put(myFile.getFileId(), myFile);
+            }
         }
-        else
+        Map<String, IFileSourceFile> myFiles = new HashMap<>();
+        for (String myID : someFileIds)
         {
-            return null;
+            S3FileSourceFile myFile = theListedFiles.get(myID);
+            if (myFile != null)
+            {
+                myFiles.put(myID, myFile);
+            }
         }
+        return myFiles;
+    }
+
+    @Override
+    public IFileSourceFile getFileWithDigest(String aContentDigest)
+    {
+        // Digests are only held in user metadata, which would take a HEAD per object to search
+        return null;
     }
 
     @Override
@@ -128,15 +163,18 @@ public class S3Catalog implements IS3Catalog
     }
 
     @Override
-    public void closeCatalog() throws FileSourceException
+    public synchronized void closeCatalog() throws FileSourceException
     {
-        return;
+        theListedFiles = null;
     }
 
     @Override
-    public void update(String aKey, S3FileSourceFile aFile)
+    public synchronized void update(String aKey, S3FileSourceFile aFile)
     {
-        return;
+        if (theListedFiles != null)
+        {
+            theListedFiles.put(aKey, aFile);
+        }
     }
 
     @Override
@@ -146,4 +184,46 @@ public class S3Catalog implements IS3Catalog
                 "getLatestUpdateDate() not supported by S3Catalog. Use S3RemoteCachedCatalog instead.");
     }
 
+    /**
+     * Iterator returning only the listed files a filter accepts.
+     */
+    private static final class FilteredFileIterator implements Iterator<IFileSourceFile>
+    {
+        private final Iterator<S3FileSourceFile> theFiles;
+        private final IFileSourceFileFilter theFilter;
+        private IFileSourceFile theNext;
+
+        FilteredFileIterator(Iterator<S3FileSourceFile> someFiles, IFileSourceFileFilter aFilter)
+        {
+            this.theFiles = someFiles;
+            this.theFilter = aFilter;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (theNext == null && theFiles.hasNext())
+            {
+                S3FileSourceFile myFile = theFiles.next();
+                if (theFilter.accept(myFile))
+                {
+                    theNext = myFile;
+                }
+            }
+            return theNext != null;
+        }
+
+        @Override
+        public IFileSourceFile next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            IFileSourceFile myFile = theNext;
+            theNext = null;
+            return myFile;
+        }
+    }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide registry of S3 clients, shared by every S3FileSource with the same region and credentials. Blocking
+ * and asynchronous clients are held separately.
+ *
+ * Each client owns an HTTP connection pool, so sharing them lets short jobs reuse warm connections and TLS sessions
+ * rather than paying for a new pool on every run. Clients are reference counted. One that has not been used for a
+ * while is closed the next time the registry is used, and all of them are closed when the application shuts down.
+ * Every client's traffic is held to the limits of the S3TrafficGovernor.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class S3ClientRegistry
+{
+    private static final Logger LOG = Logger.getLogger(S3ClientRegistry.class.getName());
+    private static final long IDLE_TIMEOUT_MILLIS = 10L * 60L * 1000L;
+    private static final int MAX_CONNECTIONS = 64;
+    private static final Duration CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+    private static final Map<ClientKey, SharedClient> CLIENTS = new HashMap<>();
+
+    private S3ClientRegistry()
+    { }
+
+    /**
+     * Gets a client for the region and credentials of the given config, creating one if there is none to share.
+     * Each call must be matched by a call to release.
+     *
+     * @param aRegion the region
+     * @param aConfig the config holding the credentials
+     * @return the client
+     */
+    static synchronized S3Client acquire(Region aRegion, IS3FileSourceConfig aConfig)
+    {
+        evictIdle();
+        ClientKey myKey = new ClientKey(aRegion, aConfig.accessKeyId(), aConfig.secretAccessKey(), false);
+        SharedClient myClient = CLIENTS.get(myKey);
+        if (myClient == null)
+        {
+            LOG.log(Level.FINE, "Creating S3 client for region {0}", aRegion);
+            myClient = new SharedClient(S3Client.builder()
+                    .region(aRegion)
+                    .credentialsProvider(StaticCredentialsProvider.create(
+                            AwsBasicCredentials.create(aConfig.accessKeyId(), aConfig.secretAccessKey())))
+                    .httpClientBuilder(ApacheHttpClient.builder()
+                            .maxConnections(MAX_CONNECTIONS)
+                            .tcpKeepAlive(true)
+                            .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+                            .useIdleConnectionReaper(true))
+                    .overrideConfiguration(ClientOverrideConfiguration.builder()
+                            .addExecutionInterceptor(S3TrafficGovernor.createInterceptor(false))
+                            .build())
+                    .build());
+            CLIENTS.put(myKey, myClient);
+        }
+        myClient.theUsers++;
+        return (S3Client) myClient.theClient;
+    }
+
+    /**
+     * Gets an asynchronous client for the region and credentials of the given config, creating one if there is none
+     * to share. Each call must be matched by a call to release.
+     *
+     * @param aRegion the region
+     * @param aConfig the config holding the credentials
+     * @return the client
+     */
+    static synchronized S3AsyncClient acquireAsync(Region aRegion, IS3FileSourceConfig aConfig)
+    {
+        evictIdle();
+        ClientKey myKey = new ClientKey(aRegion, aConfig.accessKeyId(), aConfig.secretAccessKey(), true);
+        SharedClient myClient = CLIENTS.get(myKey);
+        if (myClient == null)
+        {
+            LOG.log(Level.FINE, "Creating S3 async client for region {0}", aRegion);
+            myClient = new SharedClient(S3AsyncClient.builder()
+                    .region(aRegion)
+                    .credentialsProvider(StaticCredentialsProvider.create(
+                            AwsBasicCredentials.create(aConfig.accessKeyId(), aConfig.secretAccessKey())))
+                    .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                            .maxConcurrency(MAX_CONNECTIONS)
+                            .tcpKeepAlive(true)
+                            .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+                            .useIdleConnectionReaper(true))
+                    .overrideConfiguration(ClientOverrideConfiguration.builder()
+                            .addExecutionInterceptor(S3TrafficGovernor.createInterceptor(true))
+                            .build())
+                    .build());
+            CLIENTS.put(myKey, myClient);
+        }
+        myClient.theUsers++;
+        return (S3AsyncClient) myClient.theClient;
+    }
+
+    /**
+     * Hands back a client got from acquire or acquireAsync. The client stays open for reuse until it has been idle
+     * for a while.
+     *
+     * @param aClient the client
+     */
+    static synchronized void release(SdkAutoCloseable aClient)
+    {
+        for (SharedClient myClient : CLIENTS.values())
+        {
+            if (myClient.theClient == aClient)
+            {
+                myClient.theUsers = Math.max(0, myClient.theUsers - 1);
+                myClient.theLastReleased = System.currentTimeMillis();
+                break;
+            }
+        }
+        evictIdle();
+    }
+
+    /**
+     * Closes every client, whether or not it is in use. Called when the application shuts down.
+     */
+    public static synchronized void closeAll()
+    {
+        for (SharedClient myClient : CLIENTS.values())
+        {
+            close(myClient);
+        }
+        CLIENTS.clear();
+    }
+
+    private static void evictIdle()
+    {
+        long myIdlePoint = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+        Iterator<SharedClient> myClients = CLIENTS.values().iterator();
+        while (myClients.hasNext())
+        {
+            SharedClient myClient = myClients.next();
+            if (myClient.theUsers == 0 && myClient.theLastReleased < myIdlePoint)
+            {
+                LOG.fine("Closing idle S3 client");
+                close(myClient);
+                myClients.remove();
+            }
+        }
+    }
+
+    @SuppressWarnings({"checkstyle:illegalcatch", "UseSpecificCatch"})
+    private static void close(SharedClient aClient)
+    {
+        try
+        {
+            aClient.theClient.close();
+        }
+        catch (Exception ex)
+        {
+            LOG.log(Level.WARNING, "Error closing S3 client", ex);
+        }
+    }
+
+    /**
+     * A client and how many S3FileSources are using it.
+     */
+    private static final class SharedClient
+    {
+        private final SdkAutoCloseable theClient;
+        private int theUsers;
+        private long theLastReleased = System.currentTimeMillis();
+
+        SharedClient(SdkAutoCloseable aClient)
+        {
+            this.theClient = aClient;
+        }
+    }
+
+    /**
+     * What a client is shared on.
+     */
+    private static final class ClientKey
+    {
+        private final Region theRegion;
+        private final String theAccessKeyId;
+        private final String theSecretKey;
+        private final boolean isAsync;
+
+        ClientKey(Region aRegion, String anAccessKeyId, String aSecretKey, boolean isAsync)
+        {
+            this.theRegion = aRegion;
+            this.theAccessKeyId = anAccessKeyId;
+            this.theSecretKey = aSecretKey;
+            this.isAsync = isAsync;
+        }
+
+        @Override
+        public boolean equals(Object anObject)
+        {
+            if (!(anObject instanceof ClientKey))
+            {
+                return false;
+            }
+            ClientKey myOther = (ClientKey) anObject;
+            return isAsync == myOther.isAsync
+                    && theRegion.equals(myOther.theRegion)
+                    && Objects.equals(theAccessKeyId, myOther.theAccessKeyId)
+                    && Objects.equals(theSecretKey, myOther.theSecretKey);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(theRegion, theAccessKeyId, theSecretKey, isAsync);
+        }
+    }
+}
@@ -19,41 +19,73 @@ package com.energysys.filesource.s3;
 import com.energysys.calendar.CurrentDateTime;
 import com.energysys.filesource.ConnectionStatus;
 import com.energysys.filesource.FileSourceComparison;
+import com.energysys.filesource.IAsyncFileSource;
 import com.energysys.filesource.IFileSource;
 import com.energysys.filesource.IFileSourceFile;
 import com.energysys.filesource.IFileSourceFileFilter;
+import com.energysys.filesource.IFileSourceFileIterator;
 import com.energysys.filesource.exception.FileSourceException;
 import com.energysys.filesource.exception.FileSourceSystemException;
 import com.energysys.filesource.exception.InvalidCredentialsException;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.TaggingDirective;
 import software.amazon.awssdk.utils.IoUtils;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * An IFileSource for connecting to an S3 bucket on AWS.
@@ -62,7 +94,7 @@ import java.util.logging.Logger;
  * @version $Revision$
  */
 @SuppressWarnings("checkstyle:classfanoutcomplexity")
-public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoCloseable
+public class S3FileSource implements IFileSource<IS3FileSourceConfig>, IAsyncFileSource, AutoCloseable
 {
     /**
      * Local modified date tag name.
@@ -76,16 +108,30 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
      * Local key (filename) Tag Name.
      */
     protected static final String LOCAL_KEY = "Local-Key";
+    /**
+     * SHA-256 content digest Tag Name.
+     */
+    protected static final String CONTENT_DIGEST = "Content-Sha256";
+    /**
+     * Size of the content before compression Tag Name, only set on compressed objects.
+     */
+    protected static final String LOGICAL_SIZE = "Logical-Size";
     /**
      * Slash character.
      */
     protected static final String SLASH = "/";
     private static final Logger LOG = Logger.getLogger(S3FileSource.class.getName());
-    private static final Long LOCK_TIMEOUT_MINUTES = 1L;
+    private static final String CONTENT_ENCODING_GZIP = "gzip";
+    private static final String COMPRESSED_PREFIX = "s3upload";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
 
     private ConnectionStatus theConnectionStatus;
     private S3Client theS3Client;
+    private S3AsyncClient theS3AsyncClient;
+    private S3Lock theLock;
     private final IS3Catalog theRemoteCatalog;
+    private IMultipartUploadJournal theUploadJournal;
 
     private final IS3FileSourceConfig theConfig;
     private final String theLockKey;
@@ -133,8 +179,11 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
             {
                 throw new FileSourceException("Invalid Region", myEx);
             }
-            theS3Client = S3Client.builder().region(myRegion).credentialsProvider(
-                    StaticCredentialsProvider.create(theConfig)).build();
+            // Clients are shared so their connection pools are reused across connections
+            if (theS3Client == null)
+            {
+                theS3Client = S3ClientRegistry.acquire(myRegion, theConfig);
+            }
             // Attempt to lock the remote catalog to stop other processes accessing bucket
             // whilst this connector is open
             Boolean myLockResult = getLock();
@@ -143,7 +192,16 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
             if (myLockResult)
             {
                 // If successful then load the remote catalog
-                theRemoteCatalog.openCatalog(theS3Client, theConfig);
+                try
+                {
+                    theRemoteCatalog.openCatalog(theS3Client, theConfig);
+                }
+                catch (FileSourceException | RuntimeException ex)
+                {
+                    // Otherwise the lease would be renewed for a connection that never opened
+                    releaseLock();
+                    throw ex;
+                }
                 theConnectionStatus = ConnectionStatus.OPEN;
             }
             else
@@ -193,29 +251,55 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
                 try
                 {
                     theRemoteCatalog.closeCatalog();
-                    releaseLock();
-                    theConnectionStatus = ConnectionStatus.CLOSED;
-                    break;
                 }
                 catch (FileSourceException ex)
                 {
+                    LOG.log(Level.WARNING, "Error closing Remote Catalog: .Catalog." + theConfig.getLocation(), ex);
+                }
+                finally
+                {
+                    // Always stop renewing the lease, even if the catalog could not be saved
+                    releaseLock();
                     theConnectionStatus = ConnectionStatus.CLOSED;
-                    break;
                 }
+                break;
         }
+        releaseClient();
         return theConnectionStatus;
     }
 
+    private synchronized void releaseClient()
+    {
+        if (theS3Client != null)
+        {
+            S3ClientRegistry.release(theS3Client);
+            theS3Client = null;
+        }
+        if (theS3AsyncClient != null)
+        {
+            S3ClientRegistry.release(theS3AsyncClient);
+            theS3AsyncClient = null;
+        }
+    }
+
+    /**
+     * Gets the asynchronous client, which is only acquired once an asynchronous transfer is made.
+     *
+     * @return the client
+     */
+    private synchronized S3AsyncClient getAsyncClient()
+    {
+        if (theS3AsyncClient == null)
+        {
+            theS3AsyncClient = S3ClientRegistry.acquireAsync(Region.of(theConfig.getAWSRegion()), theConfig);
+        }
+        return theS3AsyncClient;
+    }
+
     @Override
-    public IFileSourceFile moveFile(IFileSourceFile aFile, String aNewID)
+    public IFileSourceFile moveFile(IFileSourceFile aFile, String aNewID) throws FileSourceException
     {
-        theS3Client.copyObject(
-                CopyObjectRequest.builder()
-                        .sourceBucket(theConfig.getBucketName())
-                        .sourceKey(theConfig.getLocation() + S3FileSource.SLASH + aFile.getFileId())
-                        .destinationBucket(theConfig.getBucketName())
-                        .destinationKey(theConfig.getLocation() + S3FileSource.SLASH + aNewID)
-                        .build());
+        copyObject(aFile, aNewID);
 
         theS3Client.deleteObject(
                 DeleteObjectRequest.builder()
@@ -226,11 +310,156 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
         return findFile(aNewID);
     }
 
+    /**
+     * Moves several files, copying them server side in parallel and then deleting the originals in batches. Nothing
+     * is fetched back afterwards, so unlike moveFile no catalog lookup is made per file.
+     *
+     * @param someMoves the new id of each file, keyed by the file
+     * @return the error message for each file id that could not be moved, empty if all were
+     */
+    @Override
+    public Map<String, String> moveFiles(Map<IFileSourceFile, String> someMoves)
+    {
+        checkOpen();
+        Map<String, String> myFailures = new LinkedHashMap<>();
+        ExecutorService myExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(theConfig.getMultipartConcurrency(), someMoves.size())));
+        Map<IFileSourceFile, Future<Void>> myCopies = new LinkedHashMap<>();
+        try
+        {
+            for (final Map.Entry<IFileSourceFile, String> myMove : someMoves.entrySet())
+            {
+                myCopies.put(myMove.getKey(), myExecutor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws FileSourceException
+                    {
+                        copyObject(myMove.getKey(), myMove.getValue());
+                        return null;
+                    }
+                }));
+            }
+
+            // Only the originals that were copied are deleted
+            Map<String, String> myCopiedKeys = new LinkedHashMap<>();
+            for (Map.Entry<IFileSourceFile, Future<Void>> myCopy : myCopies.entrySet())
+            {
+                String myFileId = myCopy.getKey().getFileId();
+                try
+                {
+                    myCopy.getValue().get();
+                    myCopiedKeys.put(theConfig.getLocation() + SLASH + myFileId, myFileId);
+                }
+                catch (ExecutionException ex)
+                {
+                    LOG.log(Level.WARNING, "Error copying file: " + myFileId, ex.getCause());
+                    myFailures.put(myFileId, String.valueOf(ex.getCause().getMessage()));
+                }
+            }
+
+            for (Map.Entry<String, String> myError : S3Utils.deleteObjects(
+                    theS3Client, theConfig.getBucketName(), new ArrayList<>(myCopiedKeys.keySet())).entrySet())
+            {
+                myFailures.put(myCopiedKeys.get(myError.getKey()), "Copied but not deleted: " + myError.getValue());
+            }
+            LOG.log(Level.FINE, "Moved {0} files", someMoves.size() - myFailures.size());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            for (IFileSourceFile myFile : someMoves.keySet())
+            {
+                if (!myFailures.containsKey(myFile.getFileId()))
+                {
+                    myFailures.put(myFile.getFileId(), "Interrupted");
+                }
+            }
+        }
+        finally
+        {
+            myExecutor.shutdownNow();
+        }
+        return myFailures;
+    }
+
+    @Override
+    public String getLocationKey()
+    {
+        return "s3://" + theConfig.getBucketName() + SLASH + theConfig.getLocation();
+    }
+
+    @Override
+    public Set<String> findExistingFileIDs(Collection<String> someFileIDs)
+    {
+        checkOpen();
+        // One listing of each directory the ids are in, not taking in its sub directories, rather than a HEAD per id
+        Set<String> myIDs = new HashSet<>(someFileIDs);
+        Set<String> myDirectories = new HashSet<>();
+        for (String myID : myIDs)
+        {
+            myDirectories.add(myID.substring(0, myID.lastIndexOf(SLASH) + 1));
+        }
+        Set<String> myExistingIDs = new HashSet<>();
+        for (String myDirectory : myDirectories)
+        {
+            for (S3FileSourceFile myFile : S3Utils.listFiles(theS3Client, theConfig, myDirectory, false))
+            {
+                if (myIDs.contains(myFile.getFileId()))
+                {
+                    myExistingIDs.add(myFile.getFileId());
+                }
+            }
+        }
+        return myExistingIDs;
+    }
+
+    /**
+     * Copies a file server side, as a multipart copy at or above the multipart threshold.
+     *
+     * @param aFile the file
+     * @param aNewID the id to copy it to
+     * @throws FileSourceException on error
+     */
+    private void copyObject(IFileSourceFile aFile, String aNewID) throws FileSourceException
+    {
+        String mySourceKey = theConfig.getLocation() + SLASH + aFile.getFileId();
+        String myDestinationKey = theConfig.getLocation() + SLASH + aNewID;
+        try
+        {
+            if (aFile.getSize() != null && aFile.getSize() >= theConfig.getMultipartThreshold())
+            {
+                new S3MultipartCopy(
+                        theS3Client,
+                        theConfig.getBucketName(),
+                        mySourceKey,
+                        myDestinationKey,
+                        theConfig.getMultipartPartSize(),
+                        theConfig.getMultipartConcurrency())
+                        .copy();
+            }
+            else
+            {
+                theS3Client.copyObject(
+                        CopyObjectRequest.builder()
+                                .sourceBucket(theConfig.getBucketName())
+                                .sourceKey(mySourceKey)
+                                .destinationBucket(theConfig.getBucketName())
+                                .destinationKey(myDestinationKey)
+                                .build());
+            }
+        }
+        catch (SdkException ex)
+        {
+            throw new FileSourceException("Failed to copy file on S3: " + mySourceKey, ex);
+        }
+    }
+
     @Override
     public void putContent(InputStream anInputStream, IFileSourceFile aFile) throws FileSourceException
     {
         // Check that connection was opened successfully
         checkOpen();
+        checkLock();
         try
         {
             final String myRemoteObjectKey = theConfig.getLocation() + SLASH + aFile.getFileId();
@@ -241,30 +470,21 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
                     .tagSet(theConfig.getTags())
                     .build();
 
-            PutObjectRequest myPutRequest = PutObjectRequest.builder()
-                    .bucket(theConfig.getBucketName())
-                    .key(myRemoteObjectKey)
-                    .contentLength(aFile.getSize())
-                    .metadata(myS3ObjectMetadata)
-                    .tagging(myTagging)
-                    .build();
-
-            RequestBody myBody = RequestBody.fromInputStream(anInputStream, aFile.getSize());
-
-
-            PutObjectResponse myPutResult = theS3Client.putObject(myPutRequest, myBody);
+            String myETag;
+            if (isCompressed(aFile))
+            {
+                myETag = putCompressedContent(anInputStream, aFile, myRemoteObjectKey, myS3ObjectMetadata, myTagging);
+            }
+            else
+            {
+                myETag = putObject(anInputStream, aFile.getSize(), aFile, myRemoteObjectKey, myS3ObjectMetadata,
+                        myTagging, null);
+            }
 
             String myResultMessage = "File uploaded: " + myRemoteObjectKey;
             LOG.fine(myResultMessage);
 
-            // Uncomment if remote catalog is required
-            //ObjectMetadata myObjectMetadata =
-            // theS3Client.getObjectMetadata(theConfig.getBucketName(), myRemoteObjectKey);
-            //final S3FileSourceFile myS3File = new S3FileSourceFile(myObjectMetadata);
-            //theRemoteCatalog.update(aFile.getFileId(), myS3File);
-
-            // Touch the lock file
-            writeLockFile();
+            recordUpload(aFile, myETag);
         }
         catch (SdkClientException ex)
         {
@@ -272,6 +492,114 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
         }
     }
 
+    /**
+     * Uploads content, as a multipart upload at or above the multipart threshold.
+     *
+     * @param anInputStream the content
+     * @param aLength the length of the content
+     * @param aFile the file being written
+     * @param aKey the object key
+     * @param someMetadata the user metadata of the object
+     * @param aTagging the tags of the object
+     * @param aContentEncoding the Content-Encoding of the content, or null if it is not encoded
+     * @return the ETag of the object, or null if it was sent in parts
+     * @throws FileSourceException on error
+     */
+    private String putObject(InputStream anInputStream, long aLength, IFileSourceFile aFile, String aKey,
+            Map<String, String> someMetadata, Tagging aTagging, String aContentEncoding) throws FileSourceException
+    {
+        if (aLength >= theConfig.getMultipartThreshold())
+        {
+            // Large files are sent in parts over several connections
+            new S3MultipartUpload(
+                    theS3Client,
+                    theConfig.getBucketName(),
+                    aKey,
+                    aLength,
+                    theConfig.getMultipartPartSize(),
+                    theConfig.getMultipartConcurrency(),
+                    theUploadJournal,
+                    String.valueOf(aFile.getProducerModifiedDate().getTime()))
+                    .upload(anInputStream, someMetadata, aTagging, aContentEncoding);
+            return null;
+        }
+
+        PutObjectRequest myPutRequest = PutObjectRequest.builder()
+                .bucket(theConfig.getBucketName())
+                .key(aKey)
+                .contentLength(aLength)
+                .contentEncoding(aContentEncoding)
+                .metadata(someMetadata)
+                .tagging(aTagging)
+                .build();
+
+        RequestBody myBody = RequestBody.fromInputStream(anInputStream, aLength);
+
+        PutObjectResponse myPutResult = theS3Client.putObject(myPutRequest, myBody);
+        return myPutResult.eTag();
+    }
+
+    /**
+     * Uploads content gzip compressed, marking the object with its Content-Encoding and the size of the content before
+     * compression. The content is compressed to a temporary file first, as the compressed length has to be known
+     * before it is sent.
+     *
+     * @param anInputStream the content
+     * @param aFile the file being written
+     * @param aKey the object key
+     * @param someMetadata the user metadata of the object
+     * @param aTagging the tags of the object
+     * @return the ETag of the object, or null if it was sent in parts
+     * @throws FileSourceException on error
+     */
+    private String putCompressedContent(InputStream anInputStream, IFileSourceFile aFile, String aKey,
+            Map<String, String> someMetadata, Tagging aTagging) throws FileSourceException
+    {
+        Path myCompressedFile = null;
+        try
+        {
+            myCompressedFile = Files.createTempFile(COMPRESSED_PREFIX, COMPRESSED_SUFFIX);
+            try (OutputStream myOutput = new GZIPOutputStream(Files.newOutputStream(myCompressedFile),
+                    COMPRESSION_BUFFER_SIZE))
+            {
+                IoUtils.copy(anInputStream, myOutput);
+            }
+            long myCompressedSize = Files.size(myCompressedFile);
+            LOG.log(Level.FINE, "File compressed: {0} ({1} to {2} bytes)",
+                    new Object[] {aKey, aFile.getSize(), myCompressedSize});
+
+            someMetadata.put(LOGICAL_SIZE, String.valueOf(aFile.getSize()));
+            try (InputStream myInput = Files.newInputStream(myCompressedFile))
+            {
+                return putObject(myInput, myCompressedSize, aFile, aKey, someMetadata, aTagging,
+                        CONTENT_ENCODING_GZIP);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new FileSourceException("Failed to compress content for S3: " + aKey, ex);
+        }
+        finally
+        {
+            if (myCompressedFile != null)
+            {
+                myCompressedFile.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file is to be compressed before it is uploaded.
+     *
+     * @param aFile the file
+     * @return true if compression is configured and the file is at or above the compression threshold
+     */
+    private boolean isCompressed(IFileSourceFile aFile)
+    {
+        return CONTENT_ENCODING_GZIP.equalsIgnoreCase(theConfig.getCompression())
+                && aFile.getSize() >= theConfig.getCompressionThreshold();
+    }
+
     @Override
     public IFileSourceFile getContent(OutputStream anOutputStream, IFileSourceFile aFile) throws FileSourceException
     {
@@ -291,9 +619,10 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
                         .key(myRemoteObjectKey)
                         .build();
         // Copy the object to the given output stream
-        try (ResponseInputStream<GetObjectResponse> myObjectInputStream = theS3Client.getObject(myGetObjectRequest))
+        try (ResponseInputStream<GetObjectResponse> myObjectInputStream = theS3Client.getObject(myGetObjectRequest);
+             InputStream myContent = decode(myObjectInputStream, myObjectInputStream.response().contentEncoding()))
         {
-            IoUtils.copy(myObjectInputStream, anOutputStream);
+            IoUtils.copy(myContent, anOutputStream);
 
             String myResultMessage = "File downloaded: " + myRemoteObjectKey;
             LOG.fine(myResultMessage);
@@ -307,25 +636,369 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
         }
     }
 
+    /**
+     * Downloads a file straight into a local file. Files at or above the multipart threshold are fetched as byte
+     * ranges in parallel. Compressed objects are decompressed once downloaded. The local file is only replaced once
+     * the whole object has been written.
+     *
+     * @param aLocalFile the local file to write to
+     * @param aFile the file
+     * @return the downloaded file
+     * @throws FileSourceException on error
+     */
+    public IFileSourceFile getContent(File aLocalFile, IFileSourceFile aFile) throws FileSourceException
+    {
+        // Check connection is open
+        checkOpen();
+        final String myRemoteObjectKey = theConfig.getLocation() + SLASH + aFile.getFileId();
+        boolean isRanged = aFile.getSize() != null && aFile.getSize() >= theConfig.getMultipartThreshold();
+        Path myTarget = aLocalFile.toPath();
+        Path myDownloadFile = myTarget.resolveSibling("." + myTarget.getFileName() + ".download");
+
+        HeadObjectResponse myHeadResponse = new S3RangedDownload(
+                theS3Client,
+                theConfig.getBucketName(),
+                myRemoteObjectKey,
+                isRanged ? theConfig.getMultipartPartSize() : Long.MAX_VALUE,
+                isRanged ? theConfig.getMultipartConcurrency() : 1)
+                .download(myDownloadFile);
+        try
+        {
+            moveDecoded(myDownloadFile, myTarget, myHeadResponse.contentEncoding());
+        }
+        catch (IOException ex)
+        {
+            myDownloadFile.toFile().delete();
+            throw new FileSourceException("Error getting content from S3: " + myRemoteObjectKey, ex);
+        }
+
+        String myResultMessage = "File downloaded: " + myRemoteObjectKey;
+        LOG.fine(myResultMessage);
+
+        return new S3FileSourceFile(myHeadResponse);
+    }
+
+    @Override
+    public CompletableFuture<Void> putContentAsync(File aLocalFile, final IFileSourceFile aFile)
+    {
+        // Check that connection was opened successfully
+        checkOpen();
+        final String myRemoteObjectKey = theConfig.getLocation() + SLASH + aFile.getFileId();
+        try
+        {
+            checkLock();
+        }
+        catch (FileSourceException ex)
+        {
+            CompletableFuture<Void> myResult = new CompletableFuture<>();
+            myResult.completeExceptionally(ex);
+            return myResult;
+        }
+
+        PutObjectRequest myPutRequest = PutObjectRequest.builder()
+                .bucket(theConfig.getBucketName())
+                .key(myRemoteObjectKey)
+                .contentLength(aLocalFile.length())
+                .metadata(convertToS3Metadata(aFile))
+                .tagging(Tagging.builder().tagSet(theConfig.getTags()).build())
+                .build();
+
+        return mapResult(
+                getAsyncClient().putObject(myPutRequest, AsyncRequestBody.fromFile(aLocalFile.toPath())),
+                new Function<PutObjectResponse, Void>()
+                {
+                    @Override
+                    public Void apply(PutObjectResponse aResponse)
+                    {
+                        LOG.fine("File uploaded: " + myRemoteObjectKey);
+                        recordUpload(aFile, aResponse.eTag());
+                        return null;
+                    }
+                },
+                "Failed to put content on S3: " + myRemoteObjectKey);
+    }
+
+    @Override
+    public CompletableFuture<IFileSourceFile> getContentAsync(File aLocalFile, IFileSourceFile aFile)
+    {
+        // Check connection is open
+        checkOpen();
+        final String myRemoteObjectKey = theConfig.getLocation() + SLASH + aFile.getFileId();
+        final Path myTarget = aLocalFile.toPath();
+        final Path myTempFile = myTarget.resolveSibling("." + myTarget.getFileName() + ".part");
+        try
+        {
+            Files.createDirectories(myTarget.toAbsolutePath().getParent());
+            Files.deleteIfExists(myTempFile);
+        }
+        catch (IOException ex)
+        {
+            CompletableFuture<IFileSourceFile> myResult = new CompletableFuture<>();
+            myResult.completeExceptionally(new FileSourceException("Error getting content from S3", ex));
+            return myResult;
+        }
+
+        GetObjectRequest myGetObjectRequest = GetObjectRequest.builder()
+                .bucket(theConfig.getBucketName())
+                .key(myRemoteObjectKey)
+                .build();
+
+        // Written to a hidden file first so the local file is never left half written
+        return mapResult(
+                getAsyncClient().getObject(myGetObjectRequest, AsyncResponseTransformer.toFile(myTempFile)),
+                new Function<GetObjectResponse, IFileSourceFile>()
+                {
+                    @Override
+                    public IFileSourceFile apply(GetObjectResponse aResponse)
+                    {
+                        try
+                        {
+                            moveDecoded(myTempFile, myTarget, aResponse.contentEncoding());
+                        }
+                        catch (IOException ex)
+                        {
+                            throw new UncheckedIOException(ex);
+                        }
+                        LOG.fine("File downloaded: " + myRemoteObjectKey);
+                        return new S3FileSourceFile(aResponse);
+                    }
+                },
+                "Error getting content from S3: " + myRemoteObjectKey)
+                .whenComplete(new BiConsumer<IFileSourceFile, Throwable>()
+                {
+                    @Override
+                    public void accept(IFileSourceFile aResult, Throwable anError)
+                    {
+                        if (anError != null)
+                        {
+                            myTempFile.toFile().delete();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Moves a downloaded object into place, decompressing it on the way if it was compressed.
+     *
+     * @param aDownloadFile the downloaded object
+     * @param aTarget the local file to replace
+     * @param aContentEncoding the Content-Encoding of the object
+     * @throws IOException on error, in which case the local file is untouched
+     */
+    private static void moveDecoded(Path aDownloadFile, Path aTarget, String aContentEncoding) throws IOException
+    {
+        if (!CONTENT_ENCODING_GZIP.equalsIgnoreCase(aContentEncoding))
+        {
+            Files.move(aDownloadFile, aTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        Path myTempFile = aTarget.resolveSibling("." + aTarget.getFileName() + ".inflate");
+        try
+        {
+            try (InputStream myInput = decode(Files.newInputStream(aDownloadFile), aContentEncoding))
+            {
+                Files.copy(myInput, myTempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(myTempFile, aTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            myTempFile.toFile().delete();
+            aDownloadFile.toFile().delete();
+        }
+    }
+
+    /**
+     * Wraps the content of an object so it is decompressed as it is read, if it was compressed.
+     *
+     * @param anInputStream the content as stored
+     * @param aContentEncoding the Content-Encoding of the object
+     * @return the content
+     * @throws IOException if the compressed content cannot be read
+     */
+    private static InputStream decode(InputStream anInputStream, String aContentEncoding) throws IOException
+    {
+        if (CONTENT_ENCODING_GZIP.equalsIgnoreCase(aContentEncoding))
+        {
+            return new GZIPInputStream(anInputStream, COMPRESSION_BUFFER_SIZE);
+        }
+        return anInputStream;
+    }
+
+    @Override
+    public CompletableFuture<IFileSourceFile> moveFileAsync(IFileSourceFile aFile, final String aNewID)
+    {
+        checkOpen();
+        final String myOldKey = theConfig.getLocation() + S3FileSource.SLASH + aFile.getFileId();
+        final S3AsyncClient myClient = getAsyncClient();
+        CompletableFuture<DeleteObjectResponse> myMove = myClient.copyObject(
+                CopyObjectRequest.builder()
+                        .sourceBucket(theConfig.getBucketName())
+                        .sourceKey(myOldKey)
+                        .destinationBucket(theConfig.getBucketName())
+                        .destinationKey(theConfig.getLocation() + S3FileSource.SLASH + aNewID)
+                        .build())
+                .thenCompose(new Function<CopyObjectResponse, CompletionStage<DeleteObjectResponse>>()
+                {
+                    @Override
+                    public CompletionStage<DeleteObjectResponse> apply(CopyObjectResponse aResponse)
+                    {
+                        return myClient.deleteObject(
+                                DeleteObjectRequest.builder()
+                                        .bucket(theConfig.getBucketName())
+                                        .key(myOldKey)
+                                        .build());
+                    }
+                });
+
+        return mapResult(myMove, new Function<DeleteObjectResponse, IFileSourceFile>()
+        {
+            @Override
+            public IFileSourceFile apply(DeleteObjectResponse aResponse)
+            {
+                return findFile(aNewID);
+            }
+        }, "Error moving file on S3: " + myOldKey);
+    }
+
+    /**
+     * Maps the result of an SDK future, completing exceptionally with a FileSourceException if it or the mapping
+     * fails.
+     *
+     * @param aFuture the SDK future
+     * @param aMapping maps its result
+     * @param aMessage the message of the exception on failure
+     * @return the mapped future
+     */
+    private static <T, R> CompletableFuture<R> mapResult(CompletableFuture<T> aFuture,
+            final Function<T, R> aMapping, final String aMessage)
+    {
+        final CompletableFuture<R> myResult = new CompletableFuture<>();
+        aFuture.whenComplete(new BiConsumer<T, Throwable>()
+        {
+            @Override
+            @SuppressWarnings({"checkstyle:illegalcatch", "UseSpecificCatch"})
+            public void accept(T aValue, Throwable anError)
+            {
+                Throwable myError = anError;
+                if (myError == null)
+                {
+                    try
+                    {
+                        myResult.complete(aMapping.apply(aValue));
+                        return;
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        myError = ex;
+                    }
+                }
+                Throwable myCause = myError instanceof CompletionException && myError.getCause() != null
+                        ? myError.getCause() : myError;
+                myResult.completeExceptionally(new FileSourceException(aMessage, myCause));
+            }
+        });
+        return myResult;
+    }
+
     @Override
     public FileSourceComparison compare(IFileSourceFile aFile)
     {
         checkOpen();
-        IFileSourceFile myFile = findFile(aFile.getFileId());
+        return FileSourceComparison.compare(aFile, findFile(aFile.getFileId()));
+    }
+
+    @Override
+    public Map<String, FileSourceComparison> compareAll(List<IFileSourceFile> someFiles)
+    {
+        checkOpen();
+        List<String> myIDs = new ArrayList<>();
+        for (IFileSourceFile myFile : someFiles)
+        {
+            myIDs.add(myFile.getFileId());
+        }
+
+        Map<String, IFileSourceFile> myExistingFiles = theRemoteCatalog.getFilesWithIDs(myIDs);
+        Map<String, FileSourceComparison> myResults = new LinkedHashMap<>();
+        for (IFileSourceFile myFile : someFiles)
+        {
+            myResults.put(myFile.getFileId(), compareListed(myFile, myExistingFiles.get(myFile.getFileId())));
+        }
+        return myResults;
+    }
+
+    /**
+     * Compares a file with the version held on S3 without a HEAD request where the listing is enough. An object whose
+     * user metadata has not been fetched was written to S3 at its listed modified date, so a file of the same size
+     * that has not changed since then is treated as the same. A file that has changed since, or whose size differs
+     * (which includes every compressed object, listed at its stored size), is compared on the object's metadata.
+     *
+     * @param aFile the file to compare
+     * @param anExistingFile the version held on S3, or null if there is none
+     * @return the comparison
+     */
+    private static FileSourceComparison compareListed(IFileSourceFile aFile, IFileSourceFile anExistingFile)
+    {
+        if (anExistingFile instanceof S3FileSourceFile && ((S3FileSourceFile) anExistingFile).isMetadataPending()
+                && !aFile.getProducerModifiedDate().after(anExistingFile.getFileSourceModifiedDate())
+                && aFile.getSize() != null && aFile.getSize().equals(anExistingFile.getSize()))
+        {
+            return new FileSourceComparison(anExistingFile, FileSourceComparison.Status.SAME);
+        }
+        return FileSourceComparison.compare(aFile, anExistingFile);
+    }
+
+    /**
+     * Sets the journal that multipart uploads are recorded in, so an upload cut short is carried on by the next
+     * upload of the same file rather than started again.
+     *
+     * @param aJournal the journal, or null to abort uploads that fail
+     */
+    public void setUploadJournal(IMultipartUploadJournal aJournal)
+    {
+        this.theUploadJournal = aJournal;
+    }
 
-        if (myFile == null)
+    /**
+     * Aborts the multipart uploads left to resume in the upload journal that were started longer ago than the given
+     * age. An upload is only carried on when its file is uploaded again, so the parts of one whose file has since been
+     * deleted, moved or dropped from the sync would otherwise be kept, and charged for, on S3 for ever. An upload that
+     * cannot be aborted is kept in the journal to be tried again.
+     *
+     * @param aMaxAgeMillis the age after which an upload is aborted
+     */
+    public void abortExpiredUploads(long aMaxAgeMillis)
+    {
+        checkOpen();
+        if (theUploadJournal == null)
         {
-            return new FileSourceComparison(aFile, FileSourceComparison.Status.NOT_PRESENT);
+            return;
         }
-        switch (aFile.getProducerModifiedDate().compareTo(myFile.getProducerModifiedDate()))
+        Map<String, String> myUploads = theUploadJournal.getUploadsStartedBefore(
+                CurrentDateTime.getCurrentTimeInMillis() - aMaxAgeMillis);
+        for (Map.Entry<String, String> myUpload : myUploads.entrySet())
         {
-            case 1:
-                return new FileSourceComparison(myFile, FileSourceComparison.Status.NEWER);
-            case -1:
-                return new FileSourceComparison(myFile, FileSourceComparison.Status.OLDER);
-            case 0:
-            default:
-                return new FileSourceComparison(myFile, FileSourceComparison.Status.SAME);
+            try
+            {
+                theS3Client.abortMultipartUpload(
+                        AbortMultipartUploadRequest.builder()
+                                .bucket(theConfig.getBucketName())
+                                .key(myUpload.getKey())
+                                .uploadId(myUpload.getValue())
+                                .build());
+                LOG.log(Level.INFO, "Expired multipart upload aborted: {0}", myUpload.getKey());
+            }
+            catch (NoSuchUploadException ex)
+            {
+                LOG.log(Level.FINE, "Expired multipart upload already gone: {0}", myUpload.getKey());
+            }
+            catch (SdkException ex)
+            {
+                LOG.log(Level.WARNING, "Could not abort expired multipart upload " + myUpload.getValue() + " of "
+                        + myUpload.getKey(), ex);
+                continue;
+            }
+            theUploadJournal.uploadEnded(myUpload.getKey());
         }
     }
 
@@ -360,29 +1033,17 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
 
     private void releaseLock()
     {
-        if (theS3Client != null && theConfig != null && theConfig.getBucketName() != null && theLockKey != null)
+        //Only action if a lock was taken
+        if (theLock != null)
         {
-            //Only action if a lock is required
-            if (theConfig.isLockRequired())
-            {
-                LOG.log(Level.FINE, "Releasing Remote Catalog: .Catalog.{0}", theConfig.getLocation());
-                // delete the lock file
-                theS3Client.deleteObject(
-                        DeleteObjectRequest.builder()
-                                .bucket(theConfig.getBucketName())
-                                .key(theLockKey)
-                                .build());
-            }
-        }
-        else
-        {
-            LOG.log(Level.INFO,
-                    "Could not Release Remote Catalog null bucket name: .Catalog.{0}",
-                    theConfig.getLocation());
+            LOG.log(Level.FINE, "Releasing Remote Catalog: .Catalog.{0}", theConfig.getLocation());
+            // delete the lock file, if it is still ours
+            theLock.release();
+            theLock = null;
         }
     }
 
-    private Boolean getLock() throws FileSourceException
+    private Boolean getLock()
     {
         if (!theConfig.isLockRequired())
         {
@@ -390,91 +1051,131 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
         }
         LOG.log(Level.FINE, "Locking Remote Catalog: .Catalog.{0}", theConfig.getLocation());
 
-        // Check no lock file exists
-        HeadObjectResponse myHeadObjectResponse =
-                S3Utils.headObjectIfExists(theS3Client, theConfig.getBucketName(), theLockKey);
-        if (myHeadObjectResponse != null)
+        // Conditional writes mean this is a single request when nobody else holds the lock
+        S3Lock myLock = new S3Lock(theS3Client, theConfig.getBucketName(), theLockKey, theConfig.getOwner(),
+                theConfig.getLockLeaseSeconds() * 1000L);
+        if (!myLock.acquire())
         {
-            // Check it isn't older than timeout
-            long myLockDate = Long.parseLong(myHeadObjectResponse.metadata().get(LOCAL_MODIFIED_DATE));
-            long myTimeoutPoint = CurrentDateTime.getCurrentTimeInMillis() - (LOCK_TIMEOUT_MINUTES * 60000);
-            if (myLockDate > myTimeoutPoint)
-            {
-                String myMessage = "Remote Catalog <.Catalog." + theConfig.getLocation() + "> locked by other user: "
-                        + myHeadObjectResponse.metadata().get(OWNER);
-                LOG.warning(myMessage);
-                return false;
-            }
+            return false;
         }
+        theLock = myLock;
+        return true;
+    }
 
-        // Write a lock file with a unique id in it so we know it belongs to this process
-        String myUniqueID = writeLockFile();
+    /**
+     * Writes a file by copying an object already on S3 that has the same content, so the content is not uploaded
+     * again. This is only possible when the catalog knows of an object with the same content digest and size.
+     *
+     * @param aFile the file to write
+     * @return true if the file was written, false if its content has to be uploaded
+     * @throws FileSourceException on error
+     */
+    public boolean putContentFromDuplicate(IFileSourceFile aFile) throws FileSourceException
+    {
+        checkOpen();
+        checkLock();
+        String myDigest = aFile.getContentDigest();
+        IFileSourceFile myDuplicate = myDigest == null ? null : theRemoteCatalog.getFileWithDigest(myDigest);
+        if (myDuplicate == null || !myDuplicate.getSize().equals(aFile.getSize()))
+        {
+            return false;
+        }
 
-        // wait a little in case another process was attempting to lock at the same time
+        String mySourceKey = theConfig.getLocation() + SLASH + myDuplicate.getFileId();
+        String myDestinationKey = theConfig.getLocation() + SLASH + aFile.getFileId();
+        Map<String, String> myS3ObjectMetadata = convertToS3Metadata(aFile);
+        Tagging myTagging = Tagging.builder()
+                .tagSet(theConfig.getTags())
+                .build();
+        String myETag = null;
         try
         {
-            Thread.sleep(500);
+            HeadObjectResponse mySource = theS3Client.headObject(
+                    HeadObjectRequest.builder()
+                            .bucket(theConfig.getBucketName())
+                            .key(mySourceKey)
+                            .build());
+            if (mySource.metadata().containsKey(LOGICAL_SIZE))
+            {
+                // The duplicate was compressed, so the copy is too
+                myS3ObjectMetadata.put(LOGICAL_SIZE, mySource.metadata().get(LOGICAL_SIZE));
+            }
+            if (aFile.getSize() >= theConfig.getMultipartThreshold())
+            {
+                new S3MultipartCopy(
+                        theS3Client,
+                        theConfig.getBucketName(),
+                        mySourceKey,
+                        myDestinationKey,
+                        theConfig.getMultipartPartSize(),
+                        theConfig.getMultipartConcurrency())
+                        .copy(myS3ObjectMetadata, myTagging);
+            }
+            else
+            {
+                myETag = theS3Client.copyObject(
+                        CopyObjectRequest.builder()
+                                .sourceBucket(theConfig.getBucketName())
+                                .sourceKey(mySourceKey)
+                                .destinationBucket(theConfig.getBucketName())
+                                .destinationKey(myDestinationKey)
+                                .metadataDirective(MetadataDirective.REPLACE)
+                                .contentType(mySource.contentType())
+                                .contentEncoding(mySource.contentEncoding())
+                                .metadata(myS3ObjectMetadata)
+                                .taggingDirective(TaggingDirective.REPLACE)
+                                .tagging(myTagging)
+                                .build()).copyObjectResult().eTag();
+            }
         }
-        catch (InterruptedException ex)
+        catch (S3Exception ex)
         {
-            throw new FileSourceException("Error locking Remote Catalog: .Catalog." + theConfig.getLocation(), ex);
+            // The duplicate may have been deleted since it was catalogued, so upload instead
+            LOG.log(Level.WARNING, "Unable to copy duplicate " + mySourceKey + ", uploading instead", ex);
+            return false;
         }
-
-        // load lock file and ensure that it is still our lock
-        // If not then there must have been a conflicting processes run at exactly same time.
-        // In this case we have to defer to the other process.
-        String myLockString = getObjectAsString(theConfig.getBucketName(), theLockKey);
-
-        if (!myLockString.equals(myUniqueID))
+        catch (SdkException ex)
         {
-            HeadObjectResponse myLockFileHeadObjectResponse =
-                    S3Utils.headObjectIfExists(theS3Client, theConfig.getBucketName(), theLockKey);
-            String myMessage = "Remote Catalog <.Catalog." + theConfig.getLocation() + "> locked by other user: "
-                    + myLockFileHeadObjectResponse.metadata().get(OWNER);
-            LOG.fine(myMessage);
-            return false;
+            throw new FileSourceException("Failed to copy file on S3: " + mySourceKey, ex);
         }
+
+        LOG.fine("File copied from duplicate: " + mySourceKey + " to " + myDestinationKey);
+        recordUpload(aFile, myETag);
         return true;
     }
 
-    private String getObjectAsString(String bucketName, String theLockKey) throws FileSourceException
+    /**
+     * Records a file just written in the catalog, so later comparisons see it without asking S3.
+     *
+     * @param aFile the file written
+     * @param anETag the ETag of the new object, if known
+     */
+    private void recordUpload(IFileSourceFile aFile, String anETag)
     {
-        ResponseInputStream<GetObjectResponse> myLockResponse =
-                theS3Client.getObject(GetObjectRequest.builder()
-                        .bucket(theConfig.getBucketName())
-                        .key(theLockKey)
-                        .build());
-
-        try
-        {
-            return IoUtils.toUtf8String(myLockResponse);
-        }
-        catch (IOException e)
-        {
-            throw new FileSourceException("Failed to get S3 Object content", e);
-        }
+        Map<String, String> myS3ObjectMetadata = convertToS3Metadata(aFile);
+        S3FileSourceFile myS3File = new S3FileSourceFile(
+                aFile.getFileId(),
+                aFile.getProducerModifiedDate(),
+                new Date(CurrentDateTime.getCurrentTimeInMillis()),
+                myS3ObjectMetadata.get(OWNER),
+                aFile.getSize(),
+                aFile.getMimeType(),
+                anETag);
+        myS3File.setContentDigest(myS3ObjectMetadata.get(CONTENT_DIGEST));
+        theRemoteCatalog.update(aFile.getFileId(), myS3File);
     }
 
-
-    private String writeLockFile() throws SdkClientException
+    /**
+     * Checks that the lock, if one is required, has not been lost to another process while the connection was open.
+     *
+     * @throws FileSourceException if the lock has been lost
+     */
+    private void checkLock() throws FileSourceException
     {
-        String myUniqueID = UUID.randomUUID().toString();
-        ByteArrayInputStream myStream = new ByteArrayInputStream(myUniqueID.getBytes());
-        S3FileSourceFile myMetadata
-                = new S3FileSourceFile(theLockKey, CurrentDateTime.getCurrentDate(), theConfig.getOwner(),
-                Long.valueOf(myUniqueID.length()), "");
-
-        PutObjectRequest myPutRequest = PutObjectRequest.builder()
-                .bucket(theConfig.getBucketName())
-                .key(theLockKey)
-                .metadata(convertToS3Metadata(myMetadata))
-                .build();
-
-        PutObjectResponse myResponse =
-                theS3Client.putObject(
-                        myPutRequest,
-                        RequestBody.fromInputStream(myStream, myUniqueID.getBytes().length));
-        return myUniqueID;
+        if (theLock != null && !theLock.isHeld())
+        {
+            throw new FileSourceException("Lock on Remote Catalog lost: .Catalog." + theConfig.getLocation());
+        }
     }
 
     private Map<String, String> convertToS3Metadata(IFileSourceFile aFile)
@@ -493,6 +1194,10 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
         {
             myS3ObjectMetadata.put(OWNER, theConfig.getOwner());
         }
+        if (aFile.getContentDigest() != null)
+        {
+            myS3ObjectMetadata.put(CONTENT_DIGEST, aFile.getContentDigest());
+        }
         return myS3ObjectMetadata;
     }
 
@@ -514,7 +1219,40 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
     public List<IFileSourceFile> findFiles(final String aFileNamePattern, final Boolean isDirRecursive,
                                            final IFileSourceFileFilter aFilter)
     {
-        IFileSourceFileFilter myFileFilter = new IFileSourceFileFilter()
+        return theRemoteCatalog.getAllFiles(createFileFilter(aFileNamePattern, isDirRecursive, aFilter));
+    }
+
+    @Override
+    public IFileSourceFileIterator iterateFiles(String aFileNamePattern, Boolean isDirRecursive,
+                                                IFileSourceFileFilter aFilter)
+    {
+        final Iterator<IFileSourceFile> myFiles =
+                theRemoteCatalog.iterateFiles(createFileFilter(aFileNamePattern, isDirRecursive, aFilter));
+        return new IFileSourceFileIterator()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return myFiles.hasNext();
+            }
+
+            @Override
+            public IFileSourceFile next()
+            {
+                return myFiles.next();
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+
+    private static IFileSourceFileFilter createFileFilter(final String aFileNamePattern, final Boolean isDirRecursive,
+                                                          final IFileSourceFileFilter aFilter)
+    {
+        return new IFileSourceFileFilter()
         {
             @Override
             public boolean accept(IFileSourceFile aFile)
@@ -534,8 +1272,6 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
                 return (aFilter == null || aFilter.accept(aFile));
             }
         };
-
-        return theRemoteCatalog.getAllFiles(myFileFilter);
     }
 
     @Override
@@ -552,6 +1288,14 @@ public class S3FileSource implements IFileSource<IS3FileSourceConfig>, AutoClose
                         .key(myRemoteObjectKey)
                         .build());
 
-        return myS3Object;
+        try
+        {
+            return decode(myS3Object, myS3Object.response().contentEncoding());
+        }
+        catch (IOException ex)
+        {
+            myS3Object.abort();
+            throw new UncheckedIOException("Error reading compressed content from S3: " + myRemoteObjectKey, ex);
+        }
     }
 }
\ No newline at end of file
@@ -17,11 +17,17 @@
 package com.energysys.filesource.s3;
 
 import com.energysys.filesource.IFileSourceFile;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -37,11 +43,18 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
   private static final Logger LOG = Logger.getLogger(S3FileSourceFile.class.getName());
 
   private final String theFileId;
-  private final Date theLocalModifiedDate;
+  private Date theLocalModifiedDate;
   private final Date theRemoteModifiedDate;
-  private final String theOwner;
-  private final Long theSize;
-  private final String theMimeType;
+  private String theOwner;
+  private Long theSize;
+  private String theMimeType;
+  private String theETag;
+  private String theContentDigest;
+
+  // Only set for files built from a bucket listing whose user metadata has not been fetched yet
+  private transient S3Client theS3Client;
+  private transient String theBucketName;
+  private transient String theObjectKey;
 
   /**
    * Basic Constructor from another FileSourceFile.
@@ -56,6 +69,7 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
     this.theOwner = aFile.getOwner();
     this.theSize = aFile.getSize();
     this.theMimeType = aFile.getMimeType();
+    this.theContentDigest = aFile.getContentDigest();
   }
 
   /**
@@ -69,9 +83,49 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
                     Long.valueOf(someS3Metadata.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE)))),
             Date.from(someS3Metadata.lastModified()),
             someS3Metadata.metadata().get(S3FileSource.OWNER),
-            someS3Metadata.contentLength(),
+            getLogicalSize(someS3Metadata.metadata(), someS3Metadata.contentLength()),
             someS3Metadata.contentType());
+    this.theETag = someS3Metadata.eTag();
+    this.theContentDigest = someS3Metadata.metadata().get(S3FileSource.CONTENT_DIGEST);
+  }
 
+  /**
+   * Constructor taking a get object response.
+   * @param someS3Metadata
+   */
+  public S3FileSourceFile(GetObjectResponse someS3Metadata)
+  {
+    this(someS3Metadata.metadata().get(S3FileSource.LOCAL_KEY),
+            Date.from(Instant.ofEpochMilli(
+                    Long.valueOf(someS3Metadata.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE)))),
+            Date.from(someS3Metadata.lastModified()),
+            someS3Metadata.metadata().get(S3FileSource.OWNER),
+            getLogicalSize(someS3Metadata.metadata(), someS3Metadata.contentLength()),
+            someS3Metadata.contentType());
+    this.theETag = someS3Metadata.eTag();
+    this.theContentDigest = someS3Metadata.metadata().get(S3FileSource.CONTENT_DIGEST);
+  }
+
+  /**
+   * Constructor taking an entry from a bucket listing. The key, size, last modified date and ETag are taken straight
+   * from the listing. The user metadata (Local-Modified-Date and Owner) is not part of a listing, so it is only fetched
+   * with a HEAD request the first time it is asked for. The size of a compressed object is replaced by the size of its
+   * content once that metadata has been fetched.
+   *
+   * @param anS3Object the listed object
+   * @param aFileId the file id (the object key relative to the file source location)
+   * @param anS3Client client used to fetch the user metadata when required
+   * @param aBucketName the bucket holding the object
+   */
+  public S3FileSourceFile(S3Object anS3Object, String aFileId, S3Client anS3Client, String aBucketName)
+  {
+    this.theFileId = aFileId;
+    this.theRemoteModifiedDate = Date.from(anS3Object.lastModified());
+    this.theSize = anS3Object.size();
+    this.theETag = anS3Object.eTag();
+    this.theS3Client = anS3Client;
+    this.theBucketName = aBucketName;
+    this.theObjectKey = anS3Object.key();
   }
 
   /**
@@ -115,6 +169,24 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
     this.theMimeType = aMimeType;
   }
 
+  /**
+   * Constructor used when reading a stored catalog.
+   *
+   * @param aFileId the file id
+   * @param aLocalModifiedDate the local modified date
+   * @param aRemoteModifiedDate the remote modified date
+   * @param anOwner the owner
+   * @param aSize the object content size
+   * @param aMimeType the mime Type
+   * @param anETag the etag
+   */
+  S3FileSourceFile(String aFileId, Date aLocalModifiedDate, Date aRemoteModifiedDate, String anOwner,
+          Long aSize, String aMimeType, String anETag)
+  {
+    this(aFileId, aLocalModifiedDate, aRemoteModifiedDate, anOwner, aSize, aMimeType);
+    this.theETag = anETag;
+  }
+
   @Override
   public String getFileId()
   {
@@ -124,6 +196,7 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
   @Override
   public Date getProducerModifiedDate()
   {
+    loadMetadata();
     return theLocalModifiedDate;
   }
 
@@ -135,9 +208,16 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
   @Override
   public String getOwner()
   {
+    loadMetadata();
     return theOwner;
   }
 
+  /**
+   * Gets the size of the content. For a listed file whose user metadata has not been fetched yet this is the size of
+   * the object as stored, which is smaller than its content if it was compressed. No request is sent to find out.
+   *
+   * @return the size
+   */
   @Override
   public Long getSize()
   {
@@ -159,7 +239,113 @@ public class S3FileSourceFile implements Serializable, IFileSourceFile
   @Override
   public String getMimeType()
   {
+    loadMetadata();
     return theMimeType;
   }
 
+  /**
+   * Gets the ETag of the S3 object, if known.
+   *
+   * @return the etag or null
+   */
+  public String getETag()
+  {
+    return theETag;
+  }
+
+  @Override
+  public String getContentDigest()
+  {
+    loadMetadata();
+    return theContentDigest;
+  }
+
+  /**
+   * Sets the content digest, for files built from metadata read elsewhere.
+   *
+   * @param aContentDigest the digest or null
+   */
+  void setContentDigest(String aContentDigest)
+  {
+    this.theContentDigest = aContentDigest;
+  }
+
+  /**
+   * Returns whether the user metadata of this file still has to be fetched from S3.
+   *
+   * @return if metadata is pending
+   */
+  public synchronized boolean isMetadataPending()
+  {
+    return theS3Client != null;
+  }
+
+  /**
+   * Marks the user metadata of this file as not yet fetched, so it is fetched from the given object when required.
+   *
+   * @param anS3Client the client
+   * @param aBucketName the bucket
+   * @param anObjectKey the object key
+   */
+  synchronized void setMetadataSource(S3Client anS3Client, String aBucketName, String anObjectKey)
+  {
+    this.theS3Client = anS3Client;
+    this.theBucketName = aBucketName;
+    this.theObjectKey = anObjectKey;
+  }
+
+  /**
+   * Fetches the user metadata of a listed object with a HEAD request, once. Objects that were not written by a
+   * connector have no Local-Modified-Date, in which case the S3 modified date is used.
+   */
+  private synchronized void loadMetadata()
+  {
+    if (theS3Client == null)
+    {
+      return;
+    }
+    HeadObjectResponse myHeadResponse = S3Utils.headObjectIfExists(theS3Client, theBucketName, theObjectKey);
+    Map<String, String> myMetadata = myHeadResponse == null ? null : myHeadResponse.metadata();
+    if (myMetadata != null && myMetadata.containsKey(S3FileSource.LOCAL_MODIFIED_DATE))
+    {
+      theLocalModifiedDate = Date.from(Instant.ofEpochMilli(
+              Long.parseLong(myMetadata.get(S3FileSource.LOCAL_MODIFIED_DATE))));
+    }
+    else
+    {
+      theLocalModifiedDate = theRemoteModifiedDate;
+    }
+    if (myMetadata != null)
+    {
+      theOwner = myMetadata.get(S3FileSource.OWNER);
+      theMimeType = myHeadResponse.contentType();
+      theContentDigest = myMetadata.get(S3FileSource.CONTENT_DIGEST);
+      theSize = getLogicalSize(myMetadata, theSize);
+    }
+    theS3Client = null;
+    theBucketName = null;
+    theObjectKey = null;
+  }
+
+  /**
+   * Gets the size of the content before it was compressed for upload. Objects that were not compressed are stored at
+   * their own size.
+   *
+   * @param someMetadata the user metadata of the object
+   * @param aStoredSize the size of the object as stored
+   * @return the size of the content
+   */
+  static Long getLogicalSize(Map<String, String> someMetadata, Long aStoredSize)
+  {
+    String myLogicalSize = someMetadata == null ? null : someMetadata.get(S3FileSource.LOGICAL_SIZE);
+    return myLogicalSize == null ? aStoredSize : Long.valueOf(myLogicalSize);
+  }
+
+  private void writeObject(ObjectOutputStream anOutputStream) throws IOException
+  {
+    // Make sure the serialised form is complete as the client is not serialised
+    loadMetadata();
+    anOutputStream.defaultWriteObject();
+  }
+
 }
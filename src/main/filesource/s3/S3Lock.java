@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import com.energysys.calendar.CurrentDateTime;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A lease on a lock object in S3, taken and renewed with conditional writes.
+ *
+ * The lock is created with If-None-Match so that, when nobody else holds it, a single PUT both checks and takes it.
+ * Every later write, whether renewing the lease, taking over an expired lease or deleting the lock on release, is
+ * made with If-Match on the ETag last seen, so a lock that has changed hands is never overwritten or deleted. While
+ * held, the lease is renewed in the background at a third of its length. The heartbeat is stored in the same
+ * metadata the lock has always carried, so older connectors still see a renewed lock as live.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class S3Lock
+{
+    private static final Logger LOG = Logger.getLogger(S3Lock.class.getName());
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    private final S3Client theS3Client;
+    private final String theBucketName;
+    private final String theKey;
+    private final String theOwner;
+    private final long theLeaseMillis;
+
+    private String theETag;
+    // The heartbeat of the last write that succeeded
+    private long theLastRenewedMillis;
+    private boolean isLost;
+    private ScheduledExecutorService theRenewer;
+
+    /**
+     * Constructor.
+     *
+     * @param anS3Client the client
+     * @param aBucketName the bucket
+     * @param aKey the key of the lock object
+     * @param anOwner the owner recorded on the lock
+     * @param aLeaseMillis how long the lock stays valid without being renewed
+     */
+    S3Lock(S3Client anS3Client, String aBucketName, String aKey, String anOwner, long aLeaseMillis)
+    {
+        this.theS3Client = anS3Client;
+        this.theBucketName = aBucketName;
+        this.theKey = aKey;
+        this.theOwner = anOwner;
+        this.theLeaseMillis = Math.max(RENEWALS_PER_LEASE * 1000L, aLeaseMillis);
+    }
+
+    /**
+     * Attempts to take the lock, which succeeds if it is free or the current holder's lease has expired.
+     *
+     * @return true if the lock is now held, false if it is held by someone else
+     */
+    synchronized boolean acquire()
+    {
+        if (theETag != null)
+        {
+            return true;
+        }
+
+        // Uncontended case: one request
+        if (tryWrite(null))
+        {
+            startRenewer();
+            return true;
+        }
+
+        HeadObjectResponse myCurrentLock = S3Utils.headObjectIfExists(theS3Client, theBucketName, theKey);
+        if (myCurrentLock == null)
+        {
+            // Released since our write was refused, so have one more go
+            if (tryWrite(null))
+            {
+                startRenewer();
+                return true;
+            }
+            LOG.log(Level.WARNING, "Lock {0} taken by another process", theKey);
+            return false;
+        }
+
+        if (!isExpired(myCurrentLock))
+        {
+            LOG.log(Level.WARNING, "Lock {0} held by other user: {1}",
+                    new Object[] {theKey, myCurrentLock.metadata().get(S3FileSource.OWNER)});
+            return false;
+        }
+
+        // Take over the expired lease, unless someone else renews or takes it first
+        LOG.log(Level.INFO, "Taking over expired lock {0} from: {1}",
+                new Object[] {theKey, myCurrentLock.metadata().get(S3FileSource.OWNER)});
+        if (tryWrite(myCurrentLock.eTag()))
+        {
+            startRenewer();
+            return true;
+        }
+        LOG.log(Level.WARNING, "Lock {0} taken by another process", theKey);
+        return false;
+    }
+
+    /**
+     * Checks whether the lock is still held. A lock is lost if a renewal found it had been taken over. It is also not
+     * held while renewals have been failing for longer than the lease, since another process may then take it over
+     * without our knowing; a later renewal that succeeds shows nobody did.
+     *
+     * @return true if held
+     */
+    synchronized boolean isHeld()
+    {
+        return theETag != null && !isLost
+                && CurrentDateTime.getCurrentTimeInMillis() - theLastRenewedMillis < theLeaseMillis;
+    }
+
+    /**
+     * Stops renewing the lease and deletes the lock, provided it is still ours.
+     */
+    void release()
+    {
+        ScheduledExecutorService myRenewer;
+        String myETag;
+        synchronized (this)
+        {
+            myRenewer = theRenewer;
+            myETag = isLost ? null : theETag;
+            theRenewer = null;
+            theETag = null;
+            isLost = false;
+        }
+        if (myRenewer != null)
+        {
+            myRenewer.shutdownNow();
+        }
+        if (myETag == null)
+        {
+            return;
+        }
+        try
+        {
+            theS3Client.deleteObject(
+                    DeleteObjectRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theKey)
+                            .ifMatch(myETag)
+                            .build());
+        }
+        catch (S3Exception ex)
+        {
+            if (!isConditionFailed(ex))
+            {
+                throw ex;
+            }
+            LOG.log(Level.WARNING, "Lock {0} was taken over before it was released", theKey);
+        }
+    }
+
+    private synchronized void renew()
+    {
+        if (theETag == null || isLost)
+        {
+            return;
+        }
+        try
+        {
+            if (!tryWrite(theETag))
+            {
+                isLost = true;
+                LOG.log(Level.SEVERE, "Lock {0} was taken over by another process", theKey);
+            }
+        }
+        catch (SdkException ex)
+        {
+            // Try again next time, the lock stops counting as held once the lease has run out
+            LOG.log(Level.WARNING, "Could not renew lock " + theKey, ex);
+        }
+    }
+
+    /**
+     * Writes the lock object with a fresh heartbeat.
+     *
+     * @param anExpectedETag the ETag the lock must still have, or null if it must not exist
+     * @return true if written, false if the condition was not met
+     */
+    private boolean tryWrite(String anExpectedETag)
+    {
+        String myContent = UUID.randomUUID().toString();
+        long myHeartbeat = CurrentDateTime.getCurrentTimeInMillis();
+        Map<String, String> myMetadata = new HashMap<>();
+        myMetadata.put(S3FileSource.LOCAL_KEY, theKey);
+        myMetadata.put(S3FileSource.LOCAL_MODIFIED_DATE, String.valueOf(myHeartbeat));
+        myMetadata.put(S3FileSource.OWNER, theOwner);
+
+        PutObjectRequest.Builder myRequest = PutObjectRequest.builder()
+                .bucket(theBucketName)
+                .key(theKey)
+                .metadata(myMetadata);
+        if (anExpectedETag == null)
+        {
+            myRequest.ifNoneMatch("*");
+        }
+        else
+        {
+            myRequest.ifMatch(anExpectedETag);
+        }
+
+        try
+        {
+            theETag = theS3Client.putObject(myRequest.build(),
+                    RequestBody.fromString(myContent, StandardCharsets.UTF_8)).eTag();
+            theLastRenewedMillis = myHeartbeat;
+            return true;
+        }
+        catch (S3Exception ex)
+        {
+            if (isConditionFailed(ex))
+            {
+                return false;
+            }
+            throw ex;
+        }
+    }
+
+    private boolean isExpired(HeadObjectResponse aLock)
+    {
+        String myHeartbeat = aLock.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE);
+        long myLastRenewed;
+        try
+        {
+            myLastRenewed = myHeartbeat == null ? aLock.lastModified().toEpochMilli() : Long.parseLong(myHeartbeat);
+        }
+        catch (NumberFormatException ex)
+        {
+            myLastRenewed = aLock.lastModified().toEpochMilli();
+        }
+        return myLastRenewed + theLeaseMillis < CurrentDateTime.getCurrentTimeInMillis();
+    }
+
+    private void startRenewer()
+    {
+        theRenewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread myThread = new Thread(aRunnable, "S3LockRenewer-" + theKey);
+                myThread.setDaemon(true);
+                return myThread;
+            }
+        });
+        long myInterval = theLeaseMillis / RENEWALS_PER_LEASE;
+        theRenewer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                renew();
+            }
+        }, myInterval, myInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isConditionFailed(S3Exception anException)
+    {
+        // 409 is returned when a conflicting conditional write is still in progress
+        return anException.statusCode() == HTTP_PRECONDITION_FAILED || anException.statusCode() == HTTP_CONFLICT;
+    }
+}
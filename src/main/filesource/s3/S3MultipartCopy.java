@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import com.energysys.filesource.exception.FileSourceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies a single S3 object within a bucket as a multipart upload whose parts are copied server side in parallel.
+ *
+ * Unlike a plain CopyObject, a multipart copy does not carry over the metadata or tags of the source, so both are read
+ * first and set on the new object. Every part is pinned to the ETag of the source, and the upload is aborted if any
+ * part fails.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class S3MultipartCopy
+{
+    private static final Logger LOG = Logger.getLogger(S3MultipartCopy.class.getName());
+
+    private final S3Client theS3Client;
+    private final String theBucketName;
+    private final String theSourceKey;
+    private final String theDestinationKey;
+    private final long thePartSize;
+    private final int theConcurrency;
+
+    /**
+     * Constructor.
+     *
+     * @param anS3Client the client
+     * @param aBucketName the bucket
+     * @param aSourceKey the key copied from
+     * @param aDestinationKey the key copied to
+     * @param aPartSize the requested part size, raised if needed to keep within S3 part limits
+     * @param aConcurrency the number of parts copied at once
+     */
+    S3MultipartCopy(S3Client anS3Client, String aBucketName, String aSourceKey, String aDestinationKey,
+            long aPartSize, int aConcurrency)
+    {
+        this.theS3Client = anS3Client;
+        this.theBucketName = aBucketName;
+        this.theSourceKey = aSourceKey;
+        this.theDestinationKey = aDestinationKey;
+        this.thePartSize = Math.max(aPartSize, S3MultipartUpload.MIN_PART_SIZE);
+        this.theConcurrency = Math.max(1, aConcurrency);
+    }
+
+    /**
+     * Copies the object, carrying over its metadata and tags.
+     *
+     * @throws FileSourceException if the copy fails, in which case it has been aborted
+     */
+    void copy() throws FileSourceException
+    {
+        copy(null, null);
+    }
+
+    /**
+     * Copies the object, giving the copy the given metadata and tags in place of those of the source.
+     *
+     * @param someMetadata the metadata for the copy, or null to carry over that of the source
+     * @param aTagging the tags for the copy, or null to carry over those of the source
+     * @throws FileSourceException if the copy fails, in which case it has been aborted
+     */
+    void copy(Map<String, String> someMetadata, Tagging aTagging) throws FileSourceException
+    {
+        final HeadObjectResponse mySource = theS3Client.headObject(
+                HeadObjectRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theSourceKey)
+                        .build());
+        Tagging myTagging = aTagging;
+        if (myTagging == null)
+        {
+            myTagging = Tagging.builder()
+                    .tagSet(theS3Client.getObjectTagging(
+                            GetObjectTaggingRequest.builder()
+                                    .bucket(theBucketName)
+                                    .key(theSourceKey)
+                                    .build()).tagSet())
+                    .build();
+        }
+        final long mySize = mySource.contentLength();
+        // Grow the parts if the object would otherwise need too many
+        long myPartSize = Math.max(thePartSize,
+                (mySize + S3MultipartUpload.MAX_PART_COUNT - 1) / S3MultipartUpload.MAX_PART_COUNT);
+
+        final String myUploadId = theS3Client.createMultipartUpload(
+                CreateMultipartUploadRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theDestinationKey)
+                        .contentType(mySource.contentType())
+                        .contentEncoding(mySource.contentEncoding())
+                        .metadata(someMetadata == null ? mySource.metadata() : someMetadata)
+                        .tagging(myTagging)
+                        .build()).uploadId();
+
+        ExecutorService myExecutor = Executors.newFixedThreadPool(theConcurrency);
+        List<Future<CompletedPart>> myParts = new ArrayList<>();
+        try
+        {
+            int myPartNumber = 0;
+            for (long myStart = 0; myStart < mySize; myStart += myPartSize)
+            {
+                myPartNumber++;
+                final int myCurrentPartNumber = myPartNumber;
+                final String myRange = "bytes=" + myStart + "-" + (Math.min(myStart + myPartSize, mySize) - 1);
+                myParts.add(myExecutor.submit(new Callable<CompletedPart>()
+                {
+                    @Override
+                    public CompletedPart call()
+                    {
+                        return copyPart(myUploadId, myCurrentPartNumber, myRange, mySource.eTag());
+                    }
+                }));
+            }
+
+            List<CompletedPart> myCompletedParts = new ArrayList<>();
+            for (Future<CompletedPart> myPart : myParts)
+            {
+                myCompletedParts.add(myPart.get());
+            }
+
+            theS3Client.completeMultipartUpload(
+                    CompleteMultipartUploadRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theDestinationKey)
+                            .uploadId(myUploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(myCompletedParts).build())
+                            .build());
+            LOG.log(Level.FINE, "Multipart copy completed: {0} to {1} ({2} parts)",
+                    new Object[] {theSourceKey, theDestinationKey, myCompletedParts.size()});
+        }
+        catch (ExecutionException | SdkException ex)
+        {
+            abort(myUploadId, myParts);
+            throw new FileSourceException("Failed multipart copy on S3: " + theSourceKey, ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            abort(myUploadId, myParts);
+            throw new FileSourceException("Interrupted during multipart copy on S3: " + theSourceKey, ex);
+        }
+        finally
+        {
+            myExecutor.shutdownNow();
+        }
+    }
+
+    private CompletedPart copyPart(String anUploadId, int aPartNumber, String aRange, String anETag)
+    {
+        String myETag = theS3Client.uploadPartCopy(
+                UploadPartCopyRequest.builder()
+                        .sourceBucket(theBucketName)
+                        .sourceKey(theSourceKey)
+                        .destinationBucket(theBucketName)
+                        .destinationKey(theDestinationKey)
+                        .uploadId(anUploadId)
+                        .partNumber(aPartNumber)
+                        .copySourceRange(aRange)
+                        .copySourceIfMatch(anETag)
+                        .build()).copyPartResult().eTag();
+
+        return CompletedPart.builder()
+                .partNumber(aPartNumber)
+                .eTag(myETag)
+                .build();
+    }
+
+    private void abort(String anUploadId, List<Future<CompletedPart>> someParts)
+    {
+        for (Future<CompletedPart> myPart : someParts)
+        {
+            myPart.cancel(true);
+        }
+        try
+        {
+            theS3Client.abortMultipartUpload(
+                    AbortMultipartUploadRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theDestinationKey)
+                            .uploadId(anUploadId)
+                            .build());
+            LOG.log(Level.FINE, "Multipart copy aborted: {0}", theDestinationKey);
+        }
+        catch (SdkException ex)
+        {
+            // A bucket lifecycle rule is the only way to clean up now
+            LOG.log(Level.WARNING, "Could not abort multipart copy " + anUploadId + " to " + theDestinationKey, ex);
+        }
+    }
+}
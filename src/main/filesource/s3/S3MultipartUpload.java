@@ -0,0 +1,432 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import com.energysys.filesource.exception.FileSourceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads a single object to S3 as a multipart upload, with a bounded number of parts in flight at once.
+ *
+ * The content stream is read sequentially on the calling thread and each part is handed to a pool of upload threads.
+ * At most one buffer per upload thread is held in memory. If any part fails the upload is aborted so no incomplete
+ * parts are left on the bucket.
+ *
+ * When given a journal, the upload and each part sent are recorded in it and a failed upload is left in place rather
+ * than aborted. The next upload of the same content to the same key then carries on from the parts already sent,
+ * skipping over their content in the stream.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class S3MultipartUpload
+{
+    /**
+     * Smallest part size S3 accepts (for all parts but the last).
+     */
+    static final long MIN_PART_SIZE = 5L * 1024L * 1024L;
+    /**
+     * Largest number of parts S3 accepts in a single upload.
+     */
+    static final int MAX_PART_COUNT = 10000;
+
+    private static final Logger LOG = Logger.getLogger(S3MultipartUpload.class.getName());
+    private static final String PART_MIME_TYPE = "application/octet-stream";
+
+    private final S3Client theS3Client;
+    private final String theBucketName;
+    private final String theKey;
+    private final long theSize;
+    private final int thePartSize;
+    private final int theConcurrency;
+    private final IMultipartUploadJournal theJournal;
+    private final String theFingerprint;
+
+    /**
+     * Constructor.
+     *
+     * @param anS3Client the client
+     * @param aBucketName the bucket
+     * @param aKey the object key
+     * @param aSize the total size of the object
+     * @param aPartSize the requested part size, raised if needed to keep within S3 part limits
+     * @param aConcurrency the number of parts uploaded at once
+     */
+    S3MultipartUpload(S3Client anS3Client, String aBucketName, String aKey, long aSize, long aPartSize,
+            int aConcurrency)
+    {
+        this(anS3Client, aBucketName, aKey, aSize, aPartSize, aConcurrency, null, null);
+    }
+
+    /**
+     * Constructor for an upload that is recorded in a journal so it can be resumed.
+     *
+     * @param anS3Client the client
+     * @param aBucketName the bucket
+     * @param aKey the object key
+     * @param aSize the total size of the object
+     * @param aPartSize the requested part size, raised if needed to keep within S3 part limits
+     * @param aConcurrency the number of parts uploaded at once
+     * @param aJournal the journal, or null if the upload cannot be resumed
+     * @param aContentVersion identifies the version of the content, such as its modified date
+     */
+    S3MultipartUpload(S3Client anS3Client, String aBucketName, String aKey, long aSize, long aPartSize,
+            int aConcurrency, IMultipartUploadJournal aJournal, String aContentVersion)
+    {
+        this.theS3Client = anS3Client;
+        this.theBucketName = aBucketName;
+        this.theKey = aKey;
+        this.theSize = aSize;
+        long myPartSize = Math.max(aPartSize, MIN_PART_SIZE);
+        // Grow the parts if the object would otherwise need too many
+        myPartSize = Math.max(myPartSize, (aSize + MAX_PART_COUNT - 1) / MAX_PART_COUNT);
+        this.thePartSize = (int) Math.min(myPartSize, Integer.MAX_VALUE);
+        this.theConcurrency = Math.max(1, aConcurrency);
+        this.theJournal = aJournal;
+        // Parts can only be reused if the content and the part boundaries are unchanged
+        this.theFingerprint = aSize + ":" + thePartSize + ":" + aContentVersion;
+    }
+
+    /**
+     * Uploads the content of the given stream.
+     *
+     * @param anInputStream the content
+     * @param someMetadata the user metadata of the object
+     * @param aTagging the tags of the object
+     * @throws FileSourceException if the upload fails, in which case it has been aborted
+     */
+    void upload(InputStream anInputStream, Map<String, String> someMetadata, Tagging aTagging)
+            throws FileSourceException
+    {
+        upload(anInputStream, someMetadata, aTagging, null);
+    }
+
+    /**
+     * Uploads the content of the given stream, which has already been encoded.
+     *
+     * @param anInputStream the content
+     * @param someMetadata the user metadata of the object
+     * @param aTagging the tags of the object
+     * @param aContentEncoding the Content-Encoding of the object, or null if the content is not encoded
+     * @throws FileSourceException if the upload fails, in which case it has been aborted
+     */
+    void upload(InputStream anInputStream, Map<String, String> someMetadata, Tagging aTagging,
+            String aContentEncoding) throws FileSourceException
+    {
+        Map<Integer, String> myResumedParts = new HashMap<>();
+        final String myUploadId = startUpload(someMetadata, aTagging, aContentEncoding, myResumedParts);
+
+        ExecutorService myExecutor = Executors.newFixedThreadPool(theConcurrency);
+        // Each permit is one part buffer, so reading stops while all the upload threads are busy
+        final Semaphore myBuffers = new Semaphore(theConcurrency);
+        // The first part to fail, so no more of the content is read once the upload cannot complete
+        final AtomicReference<RuntimeException> myFailure = new AtomicReference<>();
+        List<Future<CompletedPart>> myParts = new ArrayList<>();
+        try
+        {
+            int myPartNumber = 0;
+            while (true)
+            {
+                String myResumedETag = myResumedParts.get(myPartNumber + 1);
+                if (myResumedETag != null)
+                {
+                    // Sent by an earlier attempt, so only move past its content
+                    long myOffset = (long) myPartNumber * thePartSize;
+                    skipFully(anInputStream, Math.min(thePartSize, theSize - myOffset));
+                    myPartNumber++;
+                    myParts.add(CompletableFuture.completedFuture(CompletedPart.builder()
+                            .partNumber(myPartNumber)
+                            .eTag(myResumedETag)
+                            .build()));
+                    if (myOffset + thePartSize >= theSize)
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                myBuffers.acquire();
+                if (myFailure.get() != null)
+                {
+                    myBuffers.release();
+                    throw new ExecutionException(myFailure.get());
+                }
+                final byte[] myBuffer = new byte[thePartSize];
+                final int myLength = readFully(anInputStream, myBuffer);
+                if (myLength == 0 && myPartNumber > 0)
+                {
+                    myBuffers.release();
+                    break;
+                }
+                myPartNumber++;
+                final int myCurrentPartNumber = myPartNumber;
+                myParts.add(myExecutor.submit(new Callable<CompletedPart>()
+                {
+                    @Override
+                    public CompletedPart call()
+                    {
+                        try
+                        {
+                            return uploadPart(myUploadId, myCurrentPartNumber, myBuffer, myLength);
+                        }
+                        catch (RuntimeException ex)
+                        {
+                            myFailure.compareAndSet(null, ex);
+                            throw ex;
+                        }
+                        finally
+                        {
+                            myBuffers.release();
+                        }
+                    }
+                }));
+                if (myLength < thePartSize)
+                {
+                    break;
+                }
+            }
+
+            List<CompletedPart> myCompletedParts = new ArrayList<>();
+            for (Future<CompletedPart> myPart : myParts)
+            {
+                myCompletedParts.add(myPart.get());
+            }
+
+            theS3Client.completeMultipartUpload(
+                    CompleteMultipartUploadRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theKey)
+                            .uploadId(myUploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(myCompletedParts).build())
+                            .build());
+            LOG.log(Level.FINE, "Multipart upload completed: {0} ({1} parts)",
+                    new Object[] {theKey, myCompletedParts.size()});
+            if (theJournal != null)
+            {
+                theJournal.uploadEnded(theKey);
+            }
+        }
+        catch (IOException | ExecutionException | SdkException ex)
+        {
+            abortOrKeep(myUploadId, myParts, ex);
+            throw new FileSourceException("Failed multipart upload to S3: " + theKey, ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            abortOrKeep(myUploadId, myParts, ex);
+            throw new FileSourceException("Interrupted during multipart upload to S3: " + theKey, ex);
+        }
+        finally
+        {
+            myExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Carries on the upload recorded in the journal for the same content, or starts a new one.
+     *
+     * @param someMetadata the user metadata of the object
+     * @param aTagging the tags of the object
+     * @param aContentEncoding the Content-Encoding of the object, or null
+     * @param someResumedParts filled with the parts already sent when an upload is carried on
+     * @return the upload id
+     */
+    private String startUpload(Map<String, String> someMetadata, Tagging aTagging, String aContentEncoding,
+            Map<Integer, String> someResumedParts)
+    {
+        if (theJournal != null && theJournal.getUploadId(theKey) != null)
+        {
+            String myUploadId = theJournal.getUploadId(theKey);
+            if (theFingerprint.equals(theJournal.getFingerprint(theKey)) && isUploadPresent(myUploadId))
+            {
+                someResumedParts.putAll(theJournal.getCompletedParts(theKey));
+                LOG.log(Level.INFO, "Multipart upload resumed: {0} ({1} parts already sent)",
+                        new Object[] {theKey, someResumedParts.size()});
+                return myUploadId;
+            }
+            // The content has changed or the upload has gone, so its parts are no use
+            abort(myUploadId, new ArrayList<Future<CompletedPart>>());
+            theJournal.uploadEnded(theKey);
+        }
+
+        String myUploadId = theS3Client.createMultipartUpload(
+                CreateMultipartUploadRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theKey)
+                        .metadata(someMetadata)
+                        .tagging(aTagging)
+                        .contentEncoding(aContentEncoding)
+                        .build()).uploadId();
+        LOG.log(Level.FINE, "Multipart upload started: {0}", theKey);
+        if (theJournal != null)
+        {
+            theJournal.uploadStarted(theKey, myUploadId, theFingerprint);
+        }
+        return myUploadId;
+    }
+
+    private boolean isUploadPresent(String anUploadId)
+    {
+        try
+        {
+            theS3Client.listParts(
+                    ListPartsRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theKey)
+                            .uploadId(anUploadId)
+                            .maxParts(1)
+                            .build());
+            return true;
+        }
+        catch (NoSuchUploadException ex)
+        {
+            return false;
+        }
+    }
+
+    private CompletedPart uploadPart(String anUploadId, int aPartNumber, final byte[] aBuffer, final int aLength)
+    {
+        String myETag = theS3Client.uploadPart(
+                UploadPartRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theKey)
+                        .uploadId(anUploadId)
+                        .partNumber(aPartNumber)
+                        .contentLength((long) aLength)
+                        .build(),
+                RequestBody.fromContentProvider(
+                        () -> new ByteArrayInputStream(aBuffer, 0, aLength), aLength, PART_MIME_TYPE)).eTag();
+
+        if (theJournal != null)
+        {
+            theJournal.partCompleted(theKey, aPartNumber, myETag);
+        }
+
+        return CompletedPart.builder()
+                .partNumber(aPartNumber)
+                .eTag(myETag)
+                .build();
+    }
+
+    private void abortOrKeep(String anUploadId, List<Future<CompletedPart>> someParts, Exception aFailure)
+    {
+        Throwable myCause = aFailure instanceof ExecutionException ? aFailure.getCause() : aFailure;
+        if (theJournal == null || myCause instanceof S3Exception)
+        {
+            // Refused by S3 rather than cut short, so carrying on with the same upload would fail again
+            abort(anUploadId, someParts);
+            if (theJournal != null)
+            {
+                theJournal.uploadEnded(theKey);
+            }
+            return;
+        }
+        // Keep the parts sent so far for the next attempt, S3FileSource.abortExpiredUploads aborts them if none comes
+        for (Future<CompletedPart> myPart : someParts)
+        {
+            myPart.cancel(true);
+        }
+        LOG.log(Level.INFO, "Multipart upload left to resume: {0}", theKey);
+    }
+
+    private void abort(String anUploadId, List<Future<CompletedPart>> someParts)
+    {
+        for (Future<CompletedPart> myPart : someParts)
+        {
+            myPart.cancel(true);
+        }
+        try
+        {
+            theS3Client.abortMultipartUpload(
+                    AbortMultipartUploadRequest.builder()
+                            .bucket(theBucketName)
+                            .key(theKey)
+                            .uploadId(anUploadId)
+                            .build());
+            LOG.log(Level.FINE, "Multipart upload aborted: {0}", theKey);
+        }
+        catch (SdkException ex)
+        {
+            // A bucket lifecycle rule is the only way to clean up now
+            LOG.log(Level.WARNING, "Could not abort multipart upload " + anUploadId + " of " + theKey, ex);
+        }
+    }
+
+    private static void skipFully(InputStream anInputStream, long aLength) throws IOException
+    {
+        long myTotal = 0;
+        while (myTotal < aLength)
+        {
+            long mySkipped = anInputStream.skip(aLength - myTotal);
+            if (mySkipped <= 0)
+            {
+                // skip() may stop short of the end, so check with a read
+                if (anInputStream.read() < 0)
+                {
+                    throw new IOException("Content ended before the parts already sent");
+                }
+                mySkipped = 1;
+            }
+            myTotal += mySkipped;
+        }
+    }
+
+    private static int readFully(InputStream anInputStream, byte[] aBuffer) throws IOException
+    {
+        int myTotal = 0;
+        while (myTotal < aBuffer.length)
+        {
+            int myRead = anInputStream.read(aBuffer, myTotal, aBuffer.length - myTotal);
+            if (myRead < 0)
+            {
+                break;
+            }
+            myTotal += myRead;
+        }
+        return myTotal;
+    }
+}
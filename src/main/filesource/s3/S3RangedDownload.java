@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import com.energysys.filesource.exception.FileSourceException;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a single S3 object into a local file as a set of byte ranges fetched in parallel.
+ *
+ * Each range is transferred straight from the response channel to its offset in a preallocated temporary file, so no
+ * range is buffered in memory. Every range request is pinned to the ETag seen at the start, so an object replaced
+ * part way through fails the download rather than mixing versions. The temporary file is hidden and only moved over
+ * the target once every range has been written.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+final class S3RangedDownload
+{
+    private static final Logger LOG = Logger.getLogger(S3RangedDownload.class.getName());
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".part";
+
+    private final S3Client theS3Client;
+    private final String theBucketName;
+    private final String theKey;
+    private final long theRangeSize;
+    private final int theConcurrency;
+
+    /**
+     * Constructor.
+     *
+     * @param anS3Client the client
+     * @param aBucketName the bucket
+     * @param aKey the object key
+     * @param aRangeSize the size of each range
+     * @param aConcurrency the number of ranges fetched at once
+     */
+    S3RangedDownload(S3Client anS3Client, String aBucketName, String aKey, long aRangeSize, int aConcurrency)
+    {
+        this.theS3Client = anS3Client;
+        this.theBucketName = aBucketName;
+        this.theKey = aKey;
+        this.theRangeSize = Math.max(1, aRangeSize);
+        this.theConcurrency = Math.max(1, aConcurrency);
+    }
+
+    /**
+     * Downloads the object into the given file, replacing it if it exists.
+     *
+     * @param aTarget the local file
+     * @return the head of the object that was downloaded
+     * @throws FileSourceException on error, in which case the target is untouched
+     */
+    HeadObjectResponse download(Path aTarget) throws FileSourceException
+    {
+        final HeadObjectResponse myHead = theS3Client.headObject(
+                HeadObjectRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theKey)
+                        .build());
+        final long mySize = myHead.contentLength();
+        Path myTempFile = aTarget.resolveSibling(TEMP_PREFIX + aTarget.getFileName() + TEMP_SUFFIX);
+
+        ExecutorService myExecutor = Executors.newFixedThreadPool(theConcurrency);
+        List<Future<Void>> myRanges = new ArrayList<>();
+        try
+        {
+            Files.createDirectories(aTarget.toAbsolutePath().getParent());
+            try (final FileChannel myChannel = FileChannel.open(myTempFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                // Preallocate so the ranges can be written in any order
+                if (mySize > 0)
+                {
+                    myChannel.write(ByteBuffer.allocate(1), mySize - 1);
+                }
+
+                for (long myStart = 0; myStart < mySize; myStart += theRangeSize)
+                {
+                    final long myRangeStart = myStart;
+                    final long myRangeEnd = Math.min(myStart + theRangeSize, mySize) - 1;
+                    myRanges.add(myExecutor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws IOException
+                        {
+                            downloadRange(myChannel, myHead.eTag(), myRangeStart, myRangeEnd);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> myRange : myRanges)
+                {
+                    myRange.get();
+                }
+                myChannel.force(true);
+            }
+
+            Files.move(myTempFile, aTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.log(Level.FINE, "Ranged download completed: {0} ({1} ranges)",
+                    new Object[] {theKey, myRanges.size()});
+            return myHead;
+        }
+        catch (IOException | ExecutionException | SdkException ex)
+        {
+            cleanUp(myRanges, myTempFile);
+            throw new FileSourceException("Failed ranged download from S3: " + theKey, ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            cleanUp(myRanges, myTempFile);
+            throw new FileSourceException("Interrupted during ranged download from S3: " + theKey, ex);
+        }
+        finally
+        {
+            myExecutor.shutdownNow();
+        }
+    }
+
+    private void downloadRange(FileChannel aChannel, String anETag, long aStart, long anEnd) throws IOException
+    {
+        try (ResponseInputStream<GetObjectResponse> myRangeStream = theS3Client.getObject(
+                GetObjectRequest.builder()
+                        .bucket(theBucketName)
+                        .key(theKey)
+                        .range("bytes=" + aStart + "-" + anEnd)
+                        .ifMatch(anETag)
+                        .build()))
+        {
+            ReadableByteChannel mySource = Channels.newChannel(myRangeStream);
+            long myPosition = aStart;
+            while (myPosition <= anEnd)
+            {
+                long myTransferred = aChannel.transferFrom(mySource, myPosition, anEnd - myPosition + 1);
+                if (myTransferred <= 0)
+                {
+                    throw new EOFException("Range ended early at " + myPosition + " of " + theKey);
+                }
+                myPosition += myTransferred;
+            }
+        }
+    }
+
+    private void cleanUp(List<Future<Void>> someRanges, Path aTempFile)
+    {
+        for (Future<Void> myRange : someRanges)
+        {
+            myRange.cancel(true);
+        }
+        try
+        {
+            Files.deleteIfExists(aTempFile);
+        }
+        catch (IOException ex)
+        {
+            LOG.log(Level.WARNING, "Could not delete partial download: " + aTempFile, ex);
+        }
+    }
+}
@@ -24,21 +24,30 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -47,6 +56,10 @@ import java.util.logging.Logger;
 /**
  * Class describing the remote catalog of objects on an S3 bucket.
  *
+ * The catalog is stored as a snapshot object (.Catalog.&lt;location&gt;) plus a journal of delta objects
+ * (.Catalog.&lt;location&gt;.delta.&lt;seq&gt;) each holding only the entries updated while the catalog was open. When
+ * the number or total size of the deltas passes the configured limits they are folded back into the snapshot.
+ *
  * @author EnergySys Limited
  * @version $Revision$
  */
@@ -55,18 +68,84 @@ public class S3RemoteCachedCatalog implements IS3Catalog
 
     private static final Logger LOG = Logger.getLogger(S3RemoteCachedCatalog.class.getName());
     private static final String CATALOG_PREFIX = ".Catalog.";
+    private static final String CATALOG_MIME_TYPE = "application/octet-stream";
+    private static final String DELTA_INFIX = ".delta.";
+    private static final String DELTA_SEQUENCE_FORMAT = "%010d";
+    private static final String MIRROR_ETAG_SUFFIX = ".etag";
+    private static final String MIRROR_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Default number of deltas kept before they are compacted into the snapshot.
+     */
+    public static final int DEFAULT_MAX_DELTA_COUNT = 20;
+    /**
+     * Default total size in bytes of the deltas kept before they are compacted into the snapshot.
+     */
+    public static final long DEFAULT_MAX_DELTA_BYTES = 1024L * 1024L;
 
     private S3Client theS3Client;
     private IS3FileSourceConfig theConfig;
 
     private Map<String, IFileSourceFile> theCatalog;
+    // Content digest to file id, built the first time a digest is looked up
+    private Map<String, String> theDigests;
     private Date theLatestObjectUpdateDate;
 
+    private final boolean isCompressed;
+    private final int theMaxDeltaCount;
+    private final long theMaxDeltaBytes;
+    private final File theMirrorDirectory;
+
+    private Map<String, IFileSourceFile> theChanges;
+    private List<String> theDeltaKeys;
+    private long theDeltaBytes;
+    private long theLastDeltaSequence;
+    private boolean isSnapshotRequired;
+
     /**
-     * Basic Constructor.
+     * Basic Constructor. The catalog is stored compressed, with the default delta journal limits.
      */
     public S3RemoteCachedCatalog()
     {
+        this(true);
+    }
+
+    /**
+     * Constructor using the default delta journal limits.
+     *
+     * @param isCompressed whether the catalog is compressed when stored on S3
+     */
+    public S3RemoteCachedCatalog(boolean isCompressed)
+    {
+        this(isCompressed, DEFAULT_MAX_DELTA_COUNT, DEFAULT_MAX_DELTA_BYTES, null);
+    }
+
+    /**
+     * Constructor. The catalog is stored compressed, with the default delta journal limits, and a copy of the
+     * snapshot is kept locally so it is only downloaded again when it changes.
+     *
+     * @param aMirrorDirectory directory the local copy of the snapshot is kept in
+     */
+    public S3RemoteCachedCatalog(File aMirrorDirectory)
+    {
+        this(true, DEFAULT_MAX_DELTA_COUNT, DEFAULT_MAX_DELTA_BYTES, aMirrorDirectory);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param isCompressed whether the catalog is compressed when stored on S3
+     * @param aMaxDeltaCount number of deltas kept before compacting, zero to always rewrite the whole catalog
+     * @param aMaxDeltaBytes total size of deltas kept before compacting
+     * @param aMirrorDirectory directory the local copy of the snapshot is kept in, or null to keep none
+     */
+    public S3RemoteCachedCatalog(boolean isCompressed, int aMaxDeltaCount, long aMaxDeltaBytes,
+            File aMirrorDirectory)
+    {
+        this.isCompressed = isCompressed;
+        this.theMaxDeltaCount = aMaxDeltaCount;
+        this.theMaxDeltaBytes = aMaxDeltaBytes;
+        this.theMirrorDirectory = aMirrorDirectory;
     }
 
     /**
@@ -79,6 +158,12 @@ public class S3RemoteCachedCatalog implements IS3Catalog
     {
         this.theS3Client = anS3Client;
         this.theConfig = aConfig;
+        this.theChanges = new LinkedHashMap<>();
+        this.theDeltaKeys = new ArrayList<>();
+        this.theDeltaBytes = 0;
+        this.theLastDeltaSequence = 0;
+        this.isSnapshotRequired = false;
+        this.theDigests = null;
         initialise();
     }
 
@@ -88,7 +173,7 @@ public class S3RemoteCachedCatalog implements IS3Catalog
      * @return all items in the catalog
      */
     @Override
-    public List<IFileSourceFile> getAllFiles(IFileSourceFileFilter aFilter)
+    public synchronized List<IFileSourceFile> getAllFiles(IFileSourceFileFilter aFilter)
     {
         List<IFileSourceFile> myFoundFiles = new ArrayList<>();
         for (IFileSourceFile myFile : theCatalog.values())
@@ -101,6 +186,13 @@ public class S3RemoteCachedCatalog implements IS3Catalog
         return myFoundFiles;
     }
 
+    @Override
+    public Iterator<IFileSourceFile> iterateFiles(IFileSourceFileFilter aFilter)
+    {
+        // The catalog is held in memory, so collecting the matching entries only adds a reference to each
+        return getAllFiles(aFilter).iterator();
+    }
+
     /**
      * Gets the ConnectorObject for a given key.
      *
@@ -108,7 +200,7 @@ public class S3RemoteCachedCatalog implements IS3Catalog
      * @return the metadata
      */
     @Override
-    public IFileSourceFile getFileWithID(String anID)
+    public synchronized IFileSourceFile getFileWithID(String anID)
     {
         if (theCatalog.containsKey(anID))
         {
@@ -130,8 +222,10 @@ public class S3RemoteCachedCatalog implements IS3Catalog
                             Long.valueOf(myHeadObjectResponse.metadata().get(S3FileSource.LOCAL_MODIFIED_DATE)))),
                     Date.from(myHeadObjectResponse.lastModified()),
                     myHeadObjectResponse.metadata().get("Owner"),
-                    myHeadObjectResponse.contentLength(),
+                    S3FileSourceFile.getLogicalSize(myHeadObjectResponse.metadata(),
+                            myHeadObjectResponse.contentLength()),
                     myHeadObjectResponse.contentType());
+            myConnectorMetadata.setContentDigest(myHeadObjectResponse.metadata().get(S3FileSource.CONTENT_DIGEST));
 
             update(anID, myConnectorMetadata);
             LOG.fine("Remote Catalog updated from S3 for: " + anID);
@@ -142,36 +236,109 @@ public class S3RemoteCachedCatalog implements IS3Catalog
         return null;
     }
 
+    /**
+     * Gets the files for a set of ids from the in-memory catalog. Unlike getFileWithID, ids missing from the catalog
+     * are not looked up on S3.
+     *
+     * @param someFileIds the keys
+     * @return the files keyed by id
+     */
+    @Override
+    public synchronized Map<String, IFileSourceFile> getFilesWithIDs(Collection<String> someFileIds)
+    {
+        Map<String, IFileSourceFile> myFiles = new HashMap<>();
+        for (String myID : someFileIds)
+        {
+            IFileSourceFile myFile = theCatalog.get(myID);
+            if (myFile != null)
+            {
+                myFiles.put(myID, myFile);
+            }
+        }
+        return myFiles;
+    }
+
+    /**
+     * Gets a file whose content has the given digest. Entries whose user metadata has not been fetched yet are not
+     * searched, as that would take a HEAD request each.
+     *
+     * @param aContentDigest the SHA-256 content digest
+     * @return a file with that content, or null if none is known
+     */
+    @Override
+    public synchronized IFileSourceFile getFileWithDigest(String aContentDigest)
+    {
+        if (theDigests == null)
+        {
+            theDigests = new HashMap<>();
+            for (IFileSourceFile myFile : theCatalog.values())
+            {
+                indexDigest(myFile);
+            }
+        }
+        String myID = theDigests.get(aContentDigest);
+        IFileSourceFile myFile = myID == null ? null : theCatalog.get(myID);
+        // The entry may have been replaced by different content since it was indexed
+        if (myFile == null || isMetadataPending(myFile) || !aContentDigest.equals(myFile.getContentDigest()))
+        {
+            return null;
+        }
+        return myFile;
+    }
+
     /**
      * Updated the catalogs entry for the given key with the given metadata.
      *
      * @param aKey  the key
      * @param aFile the metadata
      */
-    public void update(String aKey, S3FileSourceFile aFile)
+    public synchronized void update(String aKey, S3FileSourceFile aFile)
+    {
+        apply(aKey, aFile);
+        theChanges.put(aKey, aFile);
+    }
+
+    private void apply(String aKey, IFileSourceFile aFile)
     {
         theCatalog.put(aKey, aFile);
+        if (theDigests != null)
+        {
+            indexDigest(aFile);
+        }
 
         if (theLatestObjectUpdateDate == null
-                || aFile.getTheRemoteModifiedDate().after(theLatestObjectUpdateDate))
+                || aFile.getFileSourceModifiedDate().after(theLatestObjectUpdateDate))
+        {
+            theLatestObjectUpdateDate = aFile.getFileSourceModifiedDate();
+        }
+    }
+
+    private void indexDigest(IFileSourceFile aFile)
+    {
+        if (!isMetadataPending(aFile) && aFile.getContentDigest() != null)
         {
-            theLatestObjectUpdateDate = aFile.getTheRemoteModifiedDate();
+            theDigests.put(aFile.getContentDigest(), aFile.getFileId());
         }
     }
 
+    private static boolean isMetadataPending(IFileSourceFile aFile)
+    {
+        return aFile instanceof S3FileSourceFile && ((S3FileSourceFile) aFile).isMetadataPending();
+    }
+
     /**
      * Returns the most recent modified date of any file in Catalog. This can be useful for processes that need to know
      * what has changed since the last download.
      *
      * @return latest update date
      */
-    public Date getLatestUpdateDate()
+    public synchronized Date getLatestUpdateDate()
     {
         return theLatestObjectUpdateDate;
     }
 
     @Override
-    public Boolean containsFile(String aFileID)
+    public synchronized Boolean containsFile(String aFileID)
     {
         return theCatalog.containsKey(aFileID);
     }
@@ -184,26 +351,25 @@ public class S3RemoteCachedCatalog implements IS3Catalog
      */
     private void initialise() throws FileSourceException
     {
-        String myCatalogKey = CATALOG_PREFIX + theConfig.getLocation();
+        String myCatalogKey = getCatalogKey();
+        List<S3Object> myDeltas = listDeltas();
 
-        // If there is a catalog present on S3 then download it
-        if (S3Utils.headObjectIfExists(theS3Client, theConfig.getBucketName(), myCatalogKey) != null)
+        // If there is a catalog present on S3 then download it (or reuse the local copy)
+        CatalogCache myRemoteCatalog = loadSnapshot(myCatalogKey);
+        if (myRemoteCatalog != null)
         {
-            LOG.log(Level.FINE, "Downloading Remote Catalog: {0}", myCatalogKey);
-            try (ResponseInputStream<GetObjectResponse> myCatalogResponse =
-                         theS3Client.getObject(GetObjectRequest.builder()
-                                 .bucket(theConfig.getBucketName())
-                                 .key(myCatalogKey)
-                                 .build());
-                 ObjectInputStream myObjectInputStream = new ObjectInputStream(myCatalogResponse))
+            theCatalog = myRemoteCatalog.getTheCatalog();
+            theLatestObjectUpdateDate = myRemoteCatalog.getTheLatestObjectUpdateDate();
+            // Replay the journal on top of the snapshot. Deltas up to the last one folded into the snapshot are left
+            // over from a compaction that could not remove them, and would undo later changes if replayed.
+            long myFoldedSequence = myRemoteCatalog.getTheDeltaSequence();
+            theLastDeltaSequence = Math.max(theLastDeltaSequence, myFoldedSequence);
+            for (S3Object myDelta : myDeltas)
             {
-                CatalogCache myRemoteCatalog = (CatalogCache) myObjectInputStream.readObject();
-                theCatalog = myRemoteCatalog.getTheCatalog();
-                theLatestObjectUpdateDate = myRemoteCatalog.getTheLatestObjectUpdateDate();
-            }
-            catch (IOException | ClassNotFoundException ex)
-            {
-                throw new FileSourceException("Error loading remote catalog: " + myCatalogKey, ex);
+                if (getDeltaSequence(myDelta.key()) > myFoldedSequence)
+                {
+                    loadDelta(myDelta.key());
+                }
             }
         }
         // Otherwise build catalog
@@ -211,71 +377,350 @@ public class S3RemoteCachedCatalog implements IS3Catalog
         {
             LOG.log(Level.INFO, "Creating new Remote Catalog: {0}", myCatalogKey);
             theCatalog = new HashMap<String, IFileSourceFile>();
-            // populate the  catalog
-            ListObjectsResponse myListing =
-                    theS3Client.listObjects(ListObjectsRequest.builder()
-                            .bucket(theConfig.getBucketName())
-                            .prefix(theConfig.getLocation())
-                            .build());
+            // populate the catalog from the bucket listing (user metadata is fetched lazily)
+            for (S3FileSourceFile myConnectorMetadata : S3Utils.listFiles(theS3Client, theConfig))
+            {
+                apply(myConnectorMetadata.getFileId(), myConnectorMetadata);
+            }
+            // Any deltas left over belong to a snapshot that no longer exists, so drop them on close
+            isSnapshotRequired = true;
+        }
+    }
 
-            while (myListing.isTruncated())
+    /**
+     * Lists the delta objects of the journal in sequence order, recording their keys and total size.
+     *
+     * @return the deltas
+     */
+    private List<S3Object> listDeltas()
+    {
+        List<S3Object> myDeltas = new ArrayList<>();
+        for (S3Object myObject : theS3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                .bucket(theConfig.getBucketName())
+                .prefix(getCatalogKey() + DELTA_INFIX)
+                .build()).contents())
+        {
+            try
+            {
+                long mySequence = getDeltaSequence(myObject.key());
+                theLastDeltaSequence = Math.max(theLastDeltaSequence, mySequence);
+                myDeltas.add(myObject);
+                theDeltaKeys.add(myObject.key());
+                theDeltaBytes += myObject.size();
+            }
+            catch (NumberFormatException ex)
+            {
+                LOG.log(Level.WARNING, "Ignoring unexpected Remote Catalog delta: {0}", myObject.key());
+            }
+        }
+        // Keys are zero padded so lexical order is sequence order
+        myDeltas.sort(Comparator.comparing(S3Object::key));
+        return myDeltas;
+    }
+
+    private long getDeltaSequence(String aDeltaKey)
+    {
+        return Long.parseLong(aDeltaKey.substring((getCatalogKey() + DELTA_INFIX).length()));
+    }
+
+    private void loadDelta(String aDeltaKey) throws FileSourceException
+    {
+        LOG.log(Level.FINE, "Applying Remote Catalog delta: {0}", aDeltaKey);
+        try (ResponseInputStream<GetObjectResponse> myDeltaResponse =
+                     theS3Client.getObject(GetObjectRequest.builder()
+                             .bucket(theConfig.getBucketName())
+                             .key(aDeltaKey)
+                             .build()))
+        {
+            CatalogCache myDelta = CatalogCodec.read(myDeltaResponse, theS3Client, theConfig);
+            for (Map.Entry<String, IFileSourceFile> myEntry : myDelta.getTheCatalog().entrySet())
+            {
+                apply(myEntry.getKey(), myEntry.getValue());
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new FileSourceException("Error loading remote catalog delta: " + aDeltaKey, ex);
+        }
+    }
+
+    private String getCatalogKey()
+    {
+        return CATALOG_PREFIX + theConfig.getLocation();
+    }
+
+    /**
+     * Loads the catalog snapshot. When a local copy is kept the GET is conditional on its ETag, so an unchanged
+     * snapshot is not downloaded again.
+     *
+     * @param aKey the snapshot key
+     * @return the snapshot or null if there is none on S3
+     * @throws FileSourceException
+     */
+    private CatalogCache loadSnapshot(String aKey) throws FileSourceException
+    {
+        try
+        {
+            try (ResponseInputStream<GetObjectResponse> myCatalogResponse =
+                         theS3Client.getObject(GetObjectRequest.builder()
+                                 .bucket(theConfig.getBucketName())
+                                 .key(aKey)
+                                 .ifNoneMatch(readMirrorETag())
+                                 .build()))
+            {
+                LOG.log(Level.FINE, "Downloading Remote Catalog: {0}", aKey);
+                if (theMirrorDirectory == null)
+                {
+                    return CatalogCodec.read(myCatalogResponse, theS3Client, theConfig);
+                }
+                writeMirror(myCatalogResponse, myCatalogResponse.response().eTag());
+            }
+            catch (S3Exception ex)
             {
-                List<S3Object> mySummaries = myListing.contents();
-                for (S3Object mySummary : mySummaries)
+                if (ex.statusCode() != HttpURLConnection.HTTP_NOT_MODIFIED)
                 {
-                    HeadObjectResponse myRemoteMetadata =
-                            theS3Client.headObject(
-                                    HeadObjectRequest.builder()
-                                            .bucket(theConfig.getBucketName())
-                                            .key(mySummary.key())
-                                            .build());
-                    S3FileSourceFile myConnectorMetadata = new S3FileSourceFile(myRemoteMetadata);
-
-                    update(myConnectorMetadata.getFileId(), myConnectorMetadata);
+                    throw ex;
                 }
+                LOG.log(Level.FINE, "Remote Catalog unchanged, using local copy: {0}", aKey);
             }
+            try (InputStream myMirrorStream = new BufferedInputStream(Files.newInputStream(getMirrorFile())))
+            {
+                return CatalogCodec.read(myMirrorStream, theS3Client, theConfig);
+            }
+        }
+        catch (NoSuchKeyException ex)
+        {
+            return null;
         }
+        catch (IOException ex)
+        {
+            // Don't trust the local copy next time
+            deleteMirror();
+            throw new FileSourceException("Error loading remote catalog: " + aKey, ex);
+        }
+    }
+
+    private Path getMirrorFile()
+    {
+        String myName = (theConfig.getBucketName() + "." + getCatalogKey()).replaceAll("[^A-Za-z0-9._-]", "_");
+        return theMirrorDirectory.toPath().resolve(myName);
+    }
+
+    private Path getMirrorETagFile()
+    {
+        return getMirrorFile().resolveSibling(getMirrorFile().getFileName() + MIRROR_ETAG_SUFFIX);
     }
 
     /**
-     * Uploads the remote catalog to S3 for use later.
+     * Reads the ETag of the snapshot the local copy was taken from.
      *
-     * @throws FileSourceException
+     * @return the ETag or null if there is no usable local copy
+     */
+    private String readMirrorETag()
+    {
+        if (theMirrorDirectory == null || !Files.isRegularFile(getMirrorFile()))
+        {
+            return null;
+        }
+        try
+        {
+            return new String(Files.readAllBytes(getMirrorETagFile()), StandardCharsets.UTF_8);
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the local copy of the snapshot. The ETag is removed first and written last so a partly written copy
+     * is never mistaken for a valid one.
+     *
+     * @param aCatalogStream the stored form of the snapshot
+     * @param anETag the ETag of the snapshot on S3
+     * @throws IOException
      */
-    private void uploadRemoteCatalog() throws FileSourceException
+    private void writeMirror(InputStream aCatalogStream, String anETag) throws IOException
     {
-        LOG.log(Level.FINE, "Uploading Remote Catalog: .Catalog.{0}", theConfig.getLocation());
+        Files.createDirectories(theMirrorDirectory.toPath());
+        Path myTempFile = createMirrorTempFile();
         try
         {
-            // Serialise remote catalog to byte array
-            ByteArrayOutputStream myBytesOut = new ByteArrayOutputStream();
-            ObjectOutputStream myObjectOutputStream = new ObjectOutputStream(myBytesOut);
-            CatalogCache myStoredCatalog = new CatalogCache(theCatalog, theLatestObjectUpdateDate);
-            myObjectOutputStream.writeObject(myStoredCatalog);
+            Files.copy(aCatalogStream, myTempFile, StandardCopyOption.REPLACE_EXISTING);
+            installMirror(myTempFile, anETag);
+        }
+        finally
+        {
+            deleteEncodedFile(myTempFile);
+        }
+    }
 
-            // Write byte array to S3
-            RequestBody myBody = RequestBody.fromBytes(myBytesOut.toByteArray());
+    /**
+     * Moves a file holding the stored form of the snapshot into place as the local copy.
+     *
+     * @param aCatalogFile the file, in the mirror directory
+     * @param anETag the ETag of the snapshot on S3
+     * @throws IOException
+     */
+    private void installMirror(Path aCatalogFile, String anETag) throws IOException
+    {
+        Files.deleteIfExists(getMirrorETagFile());
+        Files.move(aCatalogFile, getMirrorFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.write(getMirrorETagFile(), anETag.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a file beside the local copy to write a snapshot to, named uniquely so syncs of the same location running
+     * at once do not write over each other's.
+     *
+     * @return the file
+     * @throws IOException
+     */
+    private Path createMirrorTempFile() throws IOException
+    {
+        return Files.createTempFile(theMirrorDirectory.toPath(), getMirrorFile().getFileName().toString(),
+                MIRROR_TEMP_SUFFIX);
+    }
 
-            theS3Client.putObject(
+    private void deleteMirror()
+    {
+        if (theMirrorDirectory != null)
+        {
+            try
+            {
+                Files.deleteIfExists(getMirrorETagFile());
+                Files.deleteIfExists(getMirrorFile());
+            }
+            catch (IOException ex)
+            {
+                LOG.log(Level.WARNING, "Unable to delete local copy of Remote Catalog: " + getMirrorFile(), ex);
+            }
+        }
+    }
+
+    /**
+     * Uploads the given catalog entries to S3 for use later. The entries are encoded once, into a temporary file, so
+     * the stored form is never held in memory and its length is known for the upload. The same file then becomes the
+     * local copy of a snapshot.
+     *
+     * @param aKey the object key
+     * @param someEntries the entries
+     * @param aDeltaSequence the sequence of the last delta folded into the entries, zero for a delta
+     * @param isSnapshot whether the entries are the snapshot, to be kept as the local copy once uploaded
+     * @return the ETag of the uploaded object
+     * @throws FileSourceException
+     */
+    private String uploadRemoteCatalog(String aKey, Map<String, IFileSourceFile> someEntries, long aDeltaSequence,
+            boolean isSnapshot) throws FileSourceException
+    {
+        LOG.log(Level.FINE, "Uploading Remote Catalog: {0}", aKey);
+        boolean isMirrored = isSnapshot && theMirrorDirectory != null;
+        Path myEncodedFile = null;
+        try
+        {
+            if (isMirrored)
+            {
+                // Written beside the local copy, so it can be moved into place
+                Files.createDirectories(theMirrorDirectory.toPath());
+                myEncodedFile = createMirrorTempFile();
+            }
+            else
+            {
+                myEncodedFile = Files.createTempFile("remote-catalog", MIRROR_TEMP_SUFFIX);
+            }
+            try (InputStream myCatalogStream =
+                         CatalogCodec.newInputStream(someEntries, theLatestObjectUpdateDate, aDeltaSequence,
+                                 isCompressed))
+            {
+                Files.copy(myCatalogStream, myEncodedFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            String myETag = theS3Client.putObject(
                     PutObjectRequest.builder()
                             .bucket(theConfig.getBucketName())
-                            .key(CATALOG_PREFIX + theConfig.getLocation())
-                            .contentLength(Long.valueOf(myBytesOut.size()))
+                            .key(aKey)
+                            .contentType(CATALOG_MIME_TYPE)
                             .build(),
-                    myBody);
+                    RequestBody.fromFile(myEncodedFile)).eTag();
+            if (isMirrored)
+            {
+                updateMirror(myEncodedFile, myETag);
+            }
+            return myETag;
         }
         catch (IOException ex)
         {
-            throw new FileSourceException(
-                    "Error uploading remote catalog: " + CATALOG_PREFIX + theConfig.getLocation(),
-                    ex);
+            throw new FileSourceException("Error uploading remote catalog: " + aKey, ex);
+        }
+        finally
+        {
+            deleteEncodedFile(myEncodedFile);
+        }
+    }
+
+    private static void deleteEncodedFile(Path anEncodedFile)
+    {
+        if (anEncodedFile == null)
+        {
+            return;
+        }
+        try
+        {
+            Files.deleteIfExists(anEncodedFile);
+        }
+        catch (IOException ex)
+        {
+            LOG.log(Level.WARNING, "Unable to delete encoded Remote Catalog: " + anEncodedFile, ex);
         }
     }
 
     @Override
     public void closeCatalog() throws FileSourceException
     {
-        uploadRemoteCatalog();
+        if (isSnapshotRequired || theMaxDeltaCount <= 0
+                || theDeltaKeys.size() >= theMaxDeltaCount || theDeltaBytes >= theMaxDeltaBytes)
+        {
+            // Write a new snapshot and fold the journal into it. The deltas are only removed once the snapshot is
+            // safely written. The snapshot records the last delta folded in, so any delta that cannot be removed is
+            // skipped when the catalog is next loaded and removed again at the next compaction.
+            uploadRemoteCatalog(getCatalogKey(), theCatalog, theLastDeltaSequence, true);
+            if (!theDeltaKeys.isEmpty())
+            {
+                LOG.log(Level.FINE, "Compacting {0} Remote Catalog deltas", theDeltaKeys.size());
+                Map<String, String> myFailures =
+                        S3Utils.deleteObjects(theS3Client, theConfig.getBucketName(), theDeltaKeys);
+                if (!myFailures.isEmpty())
+                {
+                    LOG.log(Level.WARNING, "Unable to remove {0} compacted Remote Catalog deltas, they will be skipped "
+                            + "on load: {1}", new Object[] {myFailures.size(), myFailures});
+                }
+            }
+        }
+        else if (!theChanges.isEmpty())
+        {
+            uploadRemoteCatalog(
+                    getCatalogKey() + DELTA_INFIX + String.format(DELTA_SEQUENCE_FORMAT, theLastDeltaSequence + 1),
+                    theChanges, 0, false);
+        }
+    }
+
+    /**
+     * Refreshes the local copy after a new snapshot is uploaded, so the next open finds it unchanged.
+     *
+     * @param anEncodedFile the stored form of the snapshot as uploaded
+     * @param anETag the ETag of the uploaded snapshot
+     */
+    private void updateMirror(Path anEncodedFile, String anETag)
+    {
+        try
+        {
+            installMirror(anEncodedFile, anETag);
+        }
+        catch (IOException ex)
+        {
+            LOG.log(Level.WARNING, "Unable to update local copy of Remote Catalog: " + getMirrorFile(), ex);
+            deleteMirror();
+        }
     }
 
 }
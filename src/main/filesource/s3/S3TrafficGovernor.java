@@ -0,0 +1,552 @@
+/*
+ * Copyright 2017 EnergySys Limited. All Rights Reserved.
+ *
+ * This software is the proprietary information of EnergySys Limited.
+ * Use is subject to licence terms.
+ * This software is not designed or supplied to be used in circumstances where
+ * personal injury, death or loss of or damage to property could result from any
+ * defect in the software.
+ * In no event shall the developers or owners be liable for personal injury,
+ * death or loss or damage to property, loss of business, revenue, profits, use,
+ * data or other economic advantage or for any indirect, punitive, special,
+ * incidental, consequential or exemplary loss or damage resulting from the use
+ * of the software or documentation.
+ * Developer and owner make no warranties, representations or undertakings of
+ * any nature in relation to the software and documentation.
+ */
+package com.energysys.filesource.s3;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide limit on the S3 traffic of every client in the S3ClientRegistry, so a large sync cannot take the whole
+ * of a shared link.
+ *
+ * Traffic is split into two classes. Bulk traffic is the content of files, that is the PUTs, part uploads and GETs of
+ * file objects. It is held to the configured bytes and requests per second by token buckets. Everything else is
+ * control traffic: HEADs, listings, copies, deletes, the catalog and lock objects, and uploads below
+ * {@link #CONTROL_SIZE_LIMIT}. It is never held back, so small latency sensitive requests are not queued behind bulk
+ * transfers.
+ *
+ * Blocking clients are throttled as their content streams are read. Asynchronous clients are charged for the whole
+ * body of an upload before it is sent, and for a download once its length is known, with later bulk requests waiting
+ * until the debt is paid off.
+ *
+ * @author EnergySys Limited
+ * @version $Revision$
+ */
+public final class S3TrafficGovernor
+{
+    /**
+     * Uploads smaller than this are control traffic.
+     */
+    public static final long CONTROL_SIZE_LIMIT = 256L * 1024L;
+
+    private static final Logger LOG = Logger.getLogger(S3TrafficGovernor.class.getName());
+    private static final ExecutionAttribute<TrafficClass> TRAFFIC_CLASS = new ExecutionAttribute<>("S3TrafficClass");
+    private static final String HIDDEN_PREFIX = ".";
+    private static final int METER_WINDOW_SECONDS = 10;
+
+    private static final RateMeter BULK_BYTES = new RateMeter();
+    private static final RateMeter BULK_REQUESTS = new RateMeter();
+    private static final RateMeter CONTROL_BYTES = new RateMeter();
+    private static final RateMeter CONTROL_REQUESTS = new RateMeter();
+
+    private static volatile TokenBucket theByteBucket;
+    private static volatile TokenBucket theRequestBucket;
+    private static volatile long theMaxBytesPerSecond;
+    private static volatile long theMaxRequestsPerSecond;
+
+    /**
+     * The classes of S3 traffic.
+     */
+    enum TrafficClass
+    {
+        /**
+         * Requests the rest of the connector waits on, never held back.
+         */
+        CONTROL,
+        /**
+         * The content of files, held to the configured limits.
+         */
+        BULK
+    }
+
+    private S3TrafficGovernor()
+    { }
+
+    /**
+     * Sets the limits on bulk traffic. Limits of zero or less mean no limit.
+     *
+     * @param aMaxBytesPerSecond the bytes per second sent and received
+     * @param aMaxRequestsPerSecond the requests per second
+     */
+    public static synchronized void configure(long aMaxBytesPerSecond, long aMaxRequestsPerSecond)
+    {
+        theMaxBytesPerSecond = Math.max(0, aMaxBytesPerSecond);
+        theMaxRequestsPerSecond = Math.max(0, aMaxRequestsPerSecond);
+        theByteBucket = theMaxBytesPerSecond > 0 ? new TokenBucket(theMaxBytesPerSecond) : null;
+        theRequestBucket = theMaxRequestsPerSecond > 0 ? new TokenBucket(theMaxRequestsPerSecond) : null;
+        LOG.log(Level.INFO, "S3 bulk traffic limited to {0} bytes/s and {1} requests/s (0 is unlimited)",
+                new Object[] {theMaxBytesPerSecond, theMaxRequestsPerSecond});
+    }
+
+    /**
+     * Gets the traffic over the last few seconds.
+     *
+     * @return the utilisation
+     */
+    public static Utilisation getUtilisation()
+    {
+        return new Utilisation(
+                BULK_BYTES.getRate(),
+                BULK_REQUESTS.getRate(),
+                CONTROL_BYTES.getRate(),
+                CONTROL_REQUESTS.getRate(),
+                theMaxBytesPerSecond,
+                theMaxRequestsPerSecond);
+    }
+
+    /**
+     * Creates the interceptor that applies the limits to a client.
+     *
+     * @param isAsync whether the client is asynchronous
+     * @return the interceptor
+     */
+    static ExecutionInterceptor createInterceptor(boolean isAsync)
+    {
+        return new Interceptor(isAsync);
+    }
+
+    /**
+     * Works out the class of a request. Hidden objects at the top of the bucket are the catalog and lock objects.
+     *
+     * @param aRequest the request
+     * @return the class
+     */
+    static TrafficClass classify(SdkRequest aRequest)
+    {
+        String myKey;
+        Long myLength = null;
+        if (aRequest instanceof PutObjectRequest)
+        {
+            myKey = ((PutObjectRequest) aRequest).key();
+            myLength = ((PutObjectRequest) aRequest).contentLength();
+        }
+        else if (aRequest instanceof UploadPartRequest)
+        {
+            myKey = ((UploadPartRequest) aRequest).key();
+            myLength = ((UploadPartRequest) aRequest).contentLength();
+        }
+        else if (aRequest instanceof GetObjectRequest)
+        {
+            myKey = ((GetObjectRequest) aRequest).key();
+        }
+        else
+        {
+            return TrafficClass.CONTROL;
+        }
+        if (myKey == null || myKey.startsWith(HIDDEN_PREFIX) || (myLength != null && myLength < CONTROL_SIZE_LIMIT))
+        {
+            return TrafficClass.CONTROL;
+        }
+        return TrafficClass.BULK;
+    }
+
+    private static void takeRequest(TrafficClass aClass)
+    {
+        if (aClass == TrafficClass.CONTROL)
+        {
+            CONTROL_REQUESTS.add(1);
+            return;
+        }
+        BULK_REQUESTS.add(1);
+        TokenBucket myBucket = theRequestBucket;
+        if (myBucket != null)
+        {
+            try
+            {
+                myBucket.take(1);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("Interrupted waiting for S3 request limit", ex);
+            }
+        }
+    }
+
+    private static void takeBytes(TrafficClass aClass, long aCount) throws InterruptedException
+    {
+        if (aClass == TrafficClass.CONTROL)
+        {
+            CONTROL_BYTES.add(aCount);
+            return;
+        }
+        BULK_BYTES.add(aCount);
+        TokenBucket myBucket = theByteBucket;
+        if (myBucket != null)
+        {
+            myBucket.take(aCount);
+        }
+    }
+
+    private static void chargeBytes(TrafficClass aClass, long aCount)
+    {
+        if (aClass == TrafficClass.CONTROL)
+        {
+            CONTROL_BYTES.add(aCount);
+            return;
+        }
+        BULK_BYTES.add(aCount);
+        TokenBucket myBucket = theByteBucket;
+        if (myBucket != null)
+        {
+            myBucket.charge(aCount);
+        }
+    }
+
+    /**
+     * Applies the limits to the requests of one client.
+     */
+    private static final class Interceptor implements ExecutionInterceptor
+    {
+        private final boolean isAsync;
+
+        Interceptor(boolean isAsync)
+        {
+            this.isAsync = isAsync;
+        }
+
+        @Override
+        public void beforeExecution(Context.BeforeExecution aContext, ExecutionAttributes someAttributes)
+        {
+            TrafficClass myClass = classify(aContext.request());
+            someAttributes.putAttribute(TRAFFIC_CLASS, myClass);
+            takeRequest(myClass);
+            if (!isAsync)
+            {
+                return;
+            }
+            Long myLength = null;
+            if (aContext.request() instanceof PutObjectRequest)
+            {
+                myLength = ((PutObjectRequest) aContext.request()).contentLength();
+            }
+            else if (aContext.request() instanceof UploadPartRequest)
+            {
+                myLength = ((UploadPartRequest) aContext.request()).contentLength();
+            }
+            if (myLength != null)
+            {
+                try
+                {
+                    // The body is streamed on the client's own threads, so it is paid for before it is sent
+                    takeBytes(myClass, myLength);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw SdkClientException.create("Interrupted waiting for S3 bandwidth limit", ex);
+                }
+            }
+        }
+
+        @Override
+        public Optional<RequestBody> modifyHttpContent(Context.ModifyHttpRequest aContext,
+                ExecutionAttributes someAttributes)
+        {
+            if (isAsync || !aContext.requestBody().isPresent())
+            {
+                return aContext.requestBody();
+            }
+            final RequestBody myBody = aContext.requestBody().get();
+            final TrafficClass myClass = someAttributes.getAttribute(TRAFFIC_CLASS);
+            // A new stream is made for each attempt, so retries are throttled too
+            return Optional.of(RequestBody.fromContentProvider(new ContentStreamProvider()
+            {
+                @Override
+                public InputStream newStream()
+                {
+                    return new GovernedInputStream(myBody.contentStreamProvider().newStream(), myClass);
+                }
+            }, myBody.contentLength(), myBody.contentType()));
+        }
+
+        @Override
+        public Optional<InputStream> modifyHttpResponseContent(Context.ModifyHttpResponse aContext,
+                ExecutionAttributes someAttributes)
+        {
+            if (isAsync || !aContext.responseBody().isPresent())
+            {
+                return aContext.responseBody();
+            }
+            return Optional.<InputStream>of(
+                    new GovernedInputStream(aContext.responseBody().get(), someAttributes.getAttribute(TRAFFIC_CLASS)));
+        }
+
+        @Override
+        public void afterExecution(Context.AfterExecution aContext, ExecutionAttributes someAttributes)
+        {
+            if (isAsync && aContext.response() instanceof GetObjectResponse)
+            {
+                Long myLength = ((GetObjectResponse) aContext.response()).contentLength();
+                if (myLength != null)
+                {
+                    // Called on the client's own threads, which must not block
+                    chargeBytes(someAttributes.getAttribute(TRAFFIC_CLASS), myLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * A stream that pays for each read from the byte bucket of its class.
+     */
+    private static final class GovernedInputStream extends FilterInputStream
+    {
+        private final TrafficClass theClass;
+
+        GovernedInputStream(InputStream anInputStream, TrafficClass aClass)
+        {
+            super(anInputStream);
+            this.theClass = aClass == null ? TrafficClass.CONTROL : aClass;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int myByte = super.read();
+            if (myByte >= 0)
+            {
+                pay(1);
+            }
+            return myByte;
+        }
+
+        @Override
+        public int read(byte[] aBuffer, int anOffset, int aLength) throws IOException
+        {
+            int myCount = super.read(aBuffer, anOffset, aLength);
+            if (myCount > 0)
+            {
+                pay(myCount);
+            }
+            return myCount;
+        }
+
+        private void pay(long aCount) throws InterruptedIOException
+        {
+            try
+            {
+                takeBytes(theClass, aCount);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for S3 bandwidth limit");
+            }
+        }
+    }
+
+    /**
+     * A token bucket refilled at a fixed rate and holding at most one second of tokens. Taking more tokens than the
+     * bucket holds puts it in debt, which later takers wait to be paid off, so large takes are allowed but the average
+     * rate is kept.
+     */
+    private static final class TokenBucket
+    {
+        private final long theRate;
+        private double theTokens;
+        private long theLastRefill = System.nanoTime();
+
+        TokenBucket(long aRate)
+        {
+            this.theRate = aRate;
+            this.theTokens = aRate;
+        }
+
+        /**
+         * Takes tokens, waiting for any debt to be paid off first.
+         *
+         * @param aCount the number of tokens
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void take(long aCount) throws InterruptedException
+        {
+            long myWaitNanos = reserve(aCount);
+            if (myWaitNanos > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(myWaitNanos);
+            }
+        }
+
+        /**
+         * Takes tokens without waiting.
+         *
+         * @param aCount the number of tokens
+         */
+        synchronized void charge(long aCount)
+        {
+            refill();
+            theTokens -= aCount;
+        }
+
+        private synchronized long reserve(long aCount)
+        {
+            refill();
+            theTokens -= aCount;
+            return theTokens >= 0 ? 0 : (long) (-theTokens * TimeUnit.SECONDS.toNanos(1) / theRate);
+        }
+
+        private void refill()
+        {
+            long myNow = System.nanoTime();
+            theTokens = Math.min(theRate, theTokens + (double) (myNow - theLastRefill) * theRate
+                    / TimeUnit.SECONDS.toNanos(1));
+            theLastRefill = myNow;
+        }
+    }
+
+    /**
+     * Counts events in one second slots over a short window.
+     */
+    private static final class RateMeter
+    {
+        private final long[] theSlots = new long[METER_WINDOW_SECONDS];
+        private long theCurrentSecond;
+
+        synchronized void add(long aCount)
+        {
+            advance();
+            theSlots[(int) (theCurrentSecond % METER_WINDOW_SECONDS)] += aCount;
+        }
+
+        /**
+         * Gets the average rate over the window, leaving out the second in progress.
+         *
+         * @return the rate per second
+         */
+        synchronized long getRate()
+        {
+            advance();
+            long myTotal = 0;
+            for (int i = 0; i < METER_WINDOW_SECONDS; i++)
+            {
+                if (i != (int) (theCurrentSecond % METER_WINDOW_SECONDS))
+                {
+                    myTotal += theSlots[i];
+                }
+            }
+            return myTotal / (METER_WINDOW_SECONDS - 1);
+        }
+
+        private void advance()
+        {
+            long mySecond = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            long myElapsed = Math.min(mySecond - theCurrentSecond, METER_WINDOW_SECONDS);
+            for (long i = 1; i <= myElapsed; i++)
+            {
+                theSlots[(int) ((theCurrentSecond + i) % METER_WINDOW_SECONDS)] = 0;
+            }
+            theCurrentSecond = mySecond;
+        }
+    }
+
+    /**
+     * The S3 traffic over the last few seconds, and the limits on it.
+     */
+    public static final class Utilisation
+    {
+        private final long theBulkBytesPerSecond;
+        private final long theBulkRequestsPerSecond;
+        private final long theControlBytesPerSecond;
+        private final long theControlRequestsPerSecond;
+        private final long theMaxBytesPerSecond;
+        private final long theMaxRequestsPerSecond;
+
+        Utilisation(long aBulkBytesPerSecond, long aBulkRequestsPerSecond, long aControlBytesPerSecond,
+                long aControlRequestsPerSecond, long aMaxBytesPerSecond, long aMaxRequestsPerSecond)
+        {
+            this.theBulkBytesPerSecond = aBulkBytesPerSecond;
+            this.theBulkRequestsPerSecond = aBulkRequestsPerSecond;
+            this.theControlBytesPerSecond = aControlBytesPerSecond;
+            this.theControlRequestsPerSecond = aControlRequestsPerSecond;
+            this.theMaxBytesPerSecond = aMaxBytesPerSecond;
+            this.theMaxRequestsPerSecond = aMaxRequestsPerSecond;
+        }
+
+        public long getBulkBytesPerSecond()
+        {
+            return theBulkBytesPerSecond;
+        }
+
+        public long getBulkRequestsPerSecond()
+        {
+            return theBulkRequestsPerSecond;
+        }
+
+        public long getControlBytesPerSecond()
+        {
+            return theControlBytesPerSecond;
+        }
+
+        public long getControlRequestsPerSecond()
+        {
+            return theControlRequestsPerSecond;
+        }
+
+        public long getMaxBytesPerSecond()
+        {
+            return theMaxBytesPerSecond;
+        }
+
+        public long getMaxRequestsPerSecond()
+        {
+            return theMaxRequestsPerSecond;
+        }
+
+        /**
+         * Gets the share of the byte limit used by bulk traffic.
+         *
+         * @return the share, from 0 to 1, or null if there is no limit
+         */
+        public Double getBandwidthUtilisation()
+        {
+            if (theMaxBytesPerSecond <= 0)
+            {
+                return null;
+            }
+            return Math.min(1.0, (double) theBulkBytesPerSecond / theMaxBytesPerSecond);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "S3 traffic: bulk " + theBulkBytesPerSecond + " bytes/s, " + theBulkRequestsPerSecond
+                    + " requests/s (limits " + theMaxBytesPerSecond + ", " + theMaxRequestsPerSecond
+                    + "); control " + theControlBytesPerSecond + " bytes/s, " + theControlRequestsPerSecond
+                    + " requests/s";
+        }
+    }
+}
@@ -17,9 +17,24 @@
 package com.energysys.filesource.s3;
 
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
 /**
  * Common Utility classes for S3 interaction.
  *
@@ -28,6 +43,11 @@ import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
  */
 public final class S3Utils
 {
+    /**
+     * Maximum number of keys S3 accepts in a single DeleteObjects request.
+     */
+    public static final int MAX_DELETE_BATCH_SIZE = 1000;
+
     private S3Utils()
     { }
 
@@ -54,4 +74,129 @@ public final class S3Utils
             return null;
         }
     }
+
+    /**
+     * Deletes the given objects, batching the keys into as few DeleteObjects requests as possible.
+     *
+     * @param aS3Client the client
+     * @param aBucketName the bucket
+     * @param someKeys the object keys
+     * @return the error message for each key that could not be deleted, empty if all were
+     */
+    public static Map<String, String> deleteObjects(S3Client aS3Client, String aBucketName, List<String> someKeys)
+    {
+        Map<String, String> myErrors = new LinkedHashMap<>();
+        for (int myStart = 0; myStart < someKeys.size(); myStart += MAX_DELETE_BATCH_SIZE)
+        {
+            List<ObjectIdentifier> myBatch = new ArrayList<>();
+            for (String myKey : someKeys.subList(myStart, Math.min(someKeys.size(), myStart + MAX_DELETE_BATCH_SIZE)))
+            {
+                myBatch.add(ObjectIdentifier.builder().key(myKey).build());
+            }
+            // Quiet mode only reports the keys that failed
+            DeleteObjectsResponse myResponse = aS3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(aBucketName)
+                    .delete(Delete.builder().objects(myBatch).quiet(true).build())
+                    .build());
+            for (S3Error myError : myResponse.errors())
+            {
+                myErrors.put(myError.key(), myError.code() + ": " + myError.message());
+            }
+        }
+        return myErrors;
+    }
+
+    /**
+     * Lists all the files under the location of an S3 File Source. Pages of the ListObjectsV2 listing are fetched
+     * lazily (following the continuation tokens) as the returned iterable is consumed, and the files are built
+     * from the listing data alone so no HEAD request is made per object.
+     *
+     * @param aS3Client the client
+     * @param aConfig the file source config
+     * @return the files
+     */
+    public static Iterable<S3FileSourceFile> listFiles(final S3Client aS3Client, final IS3FileSourceConfig aConfig)
+    {
+        return listFiles(aS3Client, aConfig, "", true);
+    }
+
+    /**
+     * Lists the files in a directory within the location of an S3 File Source, in the same way as listFiles. File
+     * ids are still relative to the location.
+     *
+     * @param aS3Client the client
+     * @param aConfig the file source config
+     * @param aDirectory the directory relative to the location, ending with a slash, or empty for the whole location
+     * @param isRecursive whether to list the files in sub directories too
+     * @return the files
+     */
+    public static Iterable<S3FileSourceFile> listFiles(final S3Client aS3Client, final IS3FileSourceConfig aConfig,
+            String aDirectory, boolean isRecursive)
+    {
+        final String myPrefix = aConfig.getLocation() + S3FileSource.SLASH;
+        final Iterable<S3Object> myObjects = aS3Client.listObjectsV2Paginator(
+                ListObjectsV2Request.builder()
+                        .bucket(aConfig.getBucketName())
+                        .prefix(myPrefix + aDirectory)
+                        // Without a delimiter the listing takes in every key under the prefix
+                        .delimiter(isRecursive ? null : S3FileSource.SLASH)
+                        .build())
+                .contents();
+
+        return new Iterable<S3FileSourceFile>()
+        {
+            @Override
+            public Iterator<S3FileSourceFile> iterator()
+            {
+                return new ListedFileIterator(myObjects.iterator(), myPrefix, aS3Client, aConfig.getBucketName());
+            }
+        };
+    }
+
+    /**
+     * Iterator converting listed objects to files, skipping "directory" placeholder objects.
+     */
+    private static final class ListedFileIterator implements Iterator<S3FileSourceFile>
+    {
+        private final Iterator<S3Object> theObjects;
+        private final String thePrefix;
+        private final S3Client theS3Client;
+        private final String theBucketName;
+        private S3FileSourceFile theNext;
+
+        ListedFileIterator(Iterator<S3Object> someObjects, String aPrefix, S3Client aS3Client, String aBucketName)
+        {
+            this.theObjects = someObjects;
+            this.thePrefix = aPrefix;
+            this.theS3Client = aS3Client;
+            this.theBucketName = aBucketName;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (theNext == null && theObjects.hasNext())
+            {
+                S3Object myObject = theObjects.next();
+                String myFileId = myObject.key().substring(thePrefix.length());
+                if (!myFileId.isEmpty() && !myFileId.endsWith(S3FileSource.SLASH))
+                {
+                    theNext = new S3FileSourceFile(myObject, myFileId, theS3Client, theBucketName);
+                }
+            }
+            return theNext != null;
+        }
+
+        @Override
+        public S3FileSourceFile next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            S3FileSourceFile myFile = theNext;
+            theNext = null;
+            return myFile;
+        }
+    }
 }